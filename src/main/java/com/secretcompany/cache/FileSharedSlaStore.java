@@ -0,0 +1,143 @@
+package com.secretcompany.cache;
+
+import com.google.common.hash.Hashing;
+import com.secretcompany.dto.CachedSla;
+import com.secretcompany.dto.Priority;
+import com.secretcompany.dto.Sla;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * For local testing. L2 shared by gateway processes on the same host through a directory.
+ *
+ * One properties file per token. File name is SHA-256 of the token, so tokens are not exposed by the file names.
+ * File is written to a temporary file and moved in place atomically: readers never see a half written Sla.
+ * Blocking file IO runs in the given executor.
+ */
+public class FileSharedSlaStore implements SharedSlaStore {
+    private static final String SUFFIX = ".properties";
+
+    private final Path directory;
+    private final Executor ioExecutor;
+
+    public FileSharedSlaStore(final Path directory, final Executor ioExecutor) {
+        Objects.requireNonNull(directory, "Directory is required");
+        Objects.requireNonNull(ioExecutor, "Executor is required");
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.directory = directory;
+        this.ioExecutor = ioExecutor;
+    }
+
+    @Override
+    public CompletableFuture<CachedSla> get(String token) {
+        try {
+            return CompletableFuture.supplyAsync(() -> read(fileOf(token)), ioExecutor);
+        } catch (RejectedExecutionException e) {
+            //bounded executor is full. As if the store is down
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String token, CachedSla cachedSla) {
+        Objects.requireNonNull(cachedSla, "Cached Sla is required");
+        try {
+            return CompletableFuture.runAsync(() -> write(fileOf(token), cachedSla), ioExecutor);
+        } catch (RejectedExecutionException e) {
+            return failed(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable throwable) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    private Path fileOf(String token) {
+        return directory.resolve(Hashing.sha256().hashString(token, StandardCharsets.UTF_8) + SUFFIX);
+    }
+
+    private static CachedSla read(Path file) {
+        final Properties properties = new Properties();
+        try (InputStream stream = Files.newInputStream(file)) {
+            properties.load(stream);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final Sla sla = Sla.builder(properties.getProperty("user"), Long.parseLong(properties.getProperty("rps")))
+                .tenant(properties.getProperty("tenant"), Long.parseLong(properties.getProperty("tenantRps")))
+                .perMinute(Long.parseLong(properties.getProperty("perMinute")))
+                .perDay(Long.parseLong(properties.getProperty("perDay")))
+                //absent in files written before priorities
+                .priority(Priority.valueOf(properties.getProperty("priority", Priority.STANDARD.name())))
+                .resourceRps(parseResourceRps(properties.getProperty("resourceRps", "")))
+                .build();
+        return new CachedSla(sla, Long.parseLong(properties.getProperty("fetchedAtMillis")));
+    }
+
+    private static long[] parseResourceRps(String value) {
+        return value.isEmpty() ? new long[0] : Arrays.stream(value.split(",")).mapToLong(Long::parseLong).toArray();
+    }
+
+    private void write(Path file, CachedSla cachedSla) {
+        final Sla sla = cachedSla.getSla();
+        final Properties properties = new Properties();
+        properties.setProperty("user", sla.getUser());
+        properties.setProperty("rps", Long.toString(sla.getRps()));
+        if (Objects.nonNull(sla.getTenant())) {
+            properties.setProperty("tenant", sla.getTenant());
+        }
+        properties.setProperty("tenantRps", Long.toString(sla.getTenantRps()));
+        properties.setProperty("perMinute", Long.toString(sla.getPerMinute()));
+        properties.setProperty("perDay", Long.toString(sla.getPerDay()));
+        properties.setProperty("priority", sla.getPriority().name());
+        properties.setProperty("resourceRps", Arrays.stream(sla.getResourceRps())
+                .mapToObj(Long::toString)
+                .collect(Collectors.joining(",")));
+        properties.setProperty("fetchedAtMillis", Long.toString(cachedSla.getFetchedAtMillis()));
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, "sla", ".tmp");
+            try (OutputStream stream = Files.newOutputStream(temp)) {
+                properties.store(stream, null);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path temp) {
+        if (Objects.isNull(temp)) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException ignored) {
+            //the original failure is more important
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.secretcompany.cache;
+
+import com.secretcompany.dto.CachedSla;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * For local testing. L2 shared by gateway instances of the same JVM.
+ */
+public class InMemorySharedSlaStore implements SharedSlaStore {
+    private final Map<String, CachedSla> tokenToSla = new ConcurrentHashMap<>();
+
+    @Override
+    public CompletableFuture<CachedSla> get(String token) {
+        return CompletableFuture.completedFuture(tokenToSla.get(token));
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String token, CachedSla cachedSla) {
+        Objects.requireNonNull(cachedSla, "Cached Sla is required");
+        tokenToSla.put(token, cachedSla);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    public int size() {
+        return tokenToSla.size();
+    }
+}
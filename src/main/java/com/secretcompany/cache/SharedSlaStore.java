@@ -0,0 +1,19 @@
+package com.secretcompany.cache;
+
+import com.secretcompany.dto.CachedSla;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * L2 of {@link TieredSlaService}: Sla store shared by all gateway nodes. For ex.: Redis or memcached.
+ * Expected to be much faster than SlaService, but it's still remote, so calls are asynchronous.
+ */
+public interface SharedSlaStore {
+
+    /**
+     * @return cached Sla of the token or null if there is none
+     */
+    CompletableFuture<CachedSla> get(final String token);
+
+    CompletableFuture<Void> put(final String token, final CachedSla cachedSla);
+}
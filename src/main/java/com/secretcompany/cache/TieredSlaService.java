@@ -0,0 +1,112 @@
+package com.secretcompany.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.secretcompany.dto.CachedSla;
+import com.secretcompany.dto.Sla;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.service.SlaService;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SlaService with two cache tiers in front of it: L1 in-process map and L2 {@link SharedSlaStore} shared by all nodes.
+ * Lookup goes L1 -> L2 -> SlaService. Sla fetched from SlaService is written through to both tiers, Sla found in L2
+ * is copied to L1. So a token is fetched from SlaService once per ttl for all nodes, new node starts with L2 latency.
+ *
+ * Entry older than ttl is a miss on any tier. Time of the fetch travels with the Sla, so copy in L1 isn't younger than L2.
+ * Unknown token (null Sla) is not cached: it can get Sla any moment.
+ * Failed L2 is a miss, SlaService is asked then. Response doesn't wait for the write to L2.
+ */
+public class TieredSlaService implements SlaService {
+    private final SlaService delegate;
+    private final SharedSlaStore sharedStore;
+    private final long ttlMillis;
+    private final Map<String, CachedSla> localCache = new ConcurrentHashMap<>();
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private Clock systemClock = Clock.systemUTC();
+
+    public TieredSlaService(final SlaService delegate, final SharedSlaStore sharedStore, final Duration ttl) {
+        this(delegate, sharedStore, ttl, ThrottlingMetrics.NOOP);
+    }
+
+    /**
+     * @param ttl - max age of Sla on any tier
+     */
+    public TieredSlaService(final SlaService delegate, final SharedSlaStore sharedStore, final Duration ttl,
+                            final ThrottlingMetrics metrics) {
+        Objects.requireNonNull(delegate, "SlaService is required");
+        Objects.requireNonNull(sharedStore, "Shared store is required");
+        Objects.requireNonNull(ttl, "Ttl is required");
+        Objects.requireNonNull(metrics, "Metrics are required");
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Ttl should be > 0");
+        }
+        this.delegate = delegate;
+        this.sharedStore = sharedStore;
+        this.ttlMillis = ttl.toMillis();
+
+        metrics.registerGauge("throttling.sla.cache.l1.hits", localHits::sum);
+        metrics.registerGauge("throttling.sla.cache.l2.hits", sharedHits::sum);
+        metrics.registerGauge("throttling.sla.cache.misses", misses::sum);
+        metrics.registerGauge("throttling.sla.cache.l1.size", localCache::size);
+    }
+
+    @Override
+    public CompletableFuture<Sla> getSlaByToken(final String token) {
+        final CachedSla local = localCache.get(token);
+        if (Objects.nonNull(local)) {
+            if (local.isFresh(systemClock.millis(), ttlMillis)) {
+                localHits.increment();
+                return CompletableFuture.completedFuture(local.getSla());
+            }
+            localCache.remove(token, local);
+        }
+        return sharedStore.get(token)
+                //L2 is down. As if it doesn't have the token
+                .exceptionally(throwable -> null)
+                .thenCompose(shared -> {
+                    if (Objects.nonNull(shared) && shared.isFresh(systemClock.millis(), ttlMillis)) {
+                        sharedHits.increment();
+                        localCache.put(token, shared);
+                        return CompletableFuture.completedFuture(shared.getSla());
+                    }
+                    misses.increment();
+                    return delegate.getSlaByToken(token).thenApply(sla -> writeThrough(token, sla));
+                });
+    }
+
+    public long getLocalHits() {
+        return localHits.sum();
+    }
+
+    public long getSharedHits() {
+        return sharedHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private Sla writeThrough(String token, Sla sla) {
+        if (Objects.nonNull(sla)) {
+            final CachedSla cachedSla = new CachedSla(sla, systemClock.millis());
+            localCache.put(token, cachedSla);
+            sharedStore.put(token, cachedSla);
+        }
+        return sla;
+    }
+
+    @VisibleForTesting
+    void setSystemClock(Clock systemClock) {
+        this.systemClock = systemClock;
+    }
+}
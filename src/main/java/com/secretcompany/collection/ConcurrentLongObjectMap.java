@@ -0,0 +1,338 @@
+package com.secretcompany.collection;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Concurrent hash map of primitive long key to object value. For ex.: Sla of token id.
+ * No boxing of keys and no node per entry: keys and values of a segment lie in two flat arrays.
+ * Open addressing with linear probing.
+ *
+ * Keys are spread between segments. Each segment has its own {@link StampedLock}: reads are optimistic
+ * (no write to shared memory, retried under read lock if a writer has interfered), updates of a segment
+ * are serialized. Updates of different segments never block each other.
+ *
+ * Removal shifts the following entries back instead of leaving tombstones, so probes stay short with churn of keys.
+ * Segment grows and shrinks under its write lock.
+ * Key NO_KEY is reserved. Null values are not supported.
+ */
+public class ConcurrentLongObjectMap<V> {
+    public static final long NO_KEY = Long.MIN_VALUE;
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int MIN_CAPACITY = 8;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public ConcurrentLongObjectMap() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return value of the key or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        checkKey(key);
+        final long hash = spread(key);
+        final Segment segment = segmentFor(hash);
+        final long stamp = segment.lock.tryOptimisticRead();
+        Object value = segment.find(key, hash);
+        if (!segment.lock.validate(stamp)) {
+            final long readStamp = segment.lock.readLock();
+            try {
+                value = segment.find(key, hash);
+            } finally {
+                segment.lock.unlockRead(readStamp);
+            }
+        }
+        return (V) value;
+    }
+
+    /**
+     * @return previous value or null
+     */
+    public V put(long key, V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * @return present value or null if the value has been put
+     */
+    public V putIfAbsent(long key, V value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * @return removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        checkKey(key);
+        final long hash = spread(key);
+        final Segment segment = segmentFor(hash);
+        final long stamp = segment.lock.writeLock();
+        try {
+            return (V) segment.remove(key, hash, null);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove the entry only if its value is equal to the expected one.
+     * @return true if removed
+     */
+    public boolean remove(long key, V expected) {
+        checkKey(key);
+        Objects.requireNonNull(expected, "Expected value is required");
+        final long hash = spread(key);
+        final Segment segment = segmentFor(hash);
+        final long stamp = segment.lock.writeLock();
+        try {
+            return Objects.nonNull(segment.remove(key, hash, expected));
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replace each value by the function. Segment by segment: not atomic for the whole map.
+     * @param function - never returns null
+     */
+    @SuppressWarnings("unchecked")
+    public void replaceAll(UnaryOperator<V> function) {
+        Objects.requireNonNull(function, "Function is required");
+        for (Segment segment : segments) {
+            final long stamp = segment.lock.writeLock();
+            try {
+                final Object[] values = segment.values;
+                for (int i = 0; i < values.length; i++) {
+                    if (Objects.nonNull(values[i])) {
+                        values[i] = Objects.requireNonNull(function.apply((V) values[i]), "Value is required");
+                    }
+                }
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Remove each entry which value matches the filter. Segment by segment: not atomic for the whole map.
+     * @return number of removed entries
+     */
+    @SuppressWarnings("unchecked")
+    public int removeIf(Predicate<? super V> filter) {
+        Objects.requireNonNull(filter, "Filter is required");
+        int removed = 0;
+        for (Segment segment : segments) {
+            final long stamp = segment.lock.writeLock();
+            try {
+                removed += segment.removeIf((Predicate<Object>) filter);
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return number of entries. Not atomic in presence of concurrent updates.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(long key, V value, boolean onlyIfAbsent) {
+        checkKey(key);
+        Objects.requireNonNull(value, "Value is required");
+        final long hash = spread(key);
+        final Segment segment = segmentFor(hash);
+        final long stamp = segment.lock.writeLock();
+        try {
+            return (V) segment.put(key, hash, value, onlyIfAbsent);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) hash & (SEGMENTS - 1)];
+    }
+
+    private static void checkKey(long key) {
+        if (key == NO_KEY) {
+            throw new IllegalArgumentException("Key " + NO_KEY + " is reserved");
+        }
+    }
+
+    /**
+     * fmix64: keys could be sequential. Low bits choose the segment, the next ones the slot.
+     */
+    private static long spread(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Arrays are replaced on resize. Optimistic readers could see keys and values of different tables,
+     * so a read is bounded by the shorter one and validated by the stamp afterwards.
+     */
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private long[] keys = newKeys(MIN_CAPACITY);
+        private Object[] values = new Object[MIN_CAPACITY];
+        // written under write lock, read without it by size()
+        private volatile int size;
+
+        private Object find(long key, long hash) {
+            final long[] keys = this.keys;
+            final Object[] values = this.values;
+            final int capacity = Math.min(keys.length, values.length);
+            final int mask = capacity - 1;
+            int index = indexOf(hash, mask);
+            for (int probes = 0; probes < capacity; probes++, index = (index + 1) & mask) {
+                final long slotKey = keys[index];
+                if (slotKey == key) {
+                    return values[index];
+                }
+                if (slotKey == NO_KEY) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        private Object put(long key, long hash, Object value, boolean onlyIfAbsent) {
+            final int mask = keys.length - 1;
+            int index = indexOf(hash, mask);
+            while (keys[index] != NO_KEY) {
+                if (keys[index] == key) {
+                    final Object previous = values[index];
+                    if (!onlyIfAbsent) {
+                        values[index] = value;
+                    }
+                    return previous;
+                }
+                index = (index + 1) & mask;
+            }
+            //value first: optimistic reader which sees the key must see the value too
+            values[index] = value;
+            keys[index] = key;
+            size++;
+            //load factor 1/2
+            if (size * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            return null;
+        }
+
+        /**
+         * @param expected - null -> remove any value
+         */
+        private Object remove(long key, long hash, Object expected) {
+            final int mask = keys.length - 1;
+            int index = indexOf(hash, mask);
+            while (keys[index] != key) {
+                if (keys[index] == NO_KEY) {
+                    return null;
+                }
+                index = (index + 1) & mask;
+            }
+            final Object removed = values[index];
+            if (Objects.nonNull(expected) && !expected.equals(removed)) {
+                return null;
+            }
+            //shift back the entries of the probe sequence which would become unreachable
+            int free = index;
+            for (int next = (free + 1) & mask; keys[next] != NO_KEY; next = (next + 1) & mask) {
+                final int home = indexOf(spread(keys[next]), mask);
+                //entry stays if its home is within (free, next] cyclically
+                final boolean stays = free <= next ? free < home && home <= next : free < home || home <= next;
+                if (!stays) {
+                    keys[free] = keys[next];
+                    values[free] = values[next];
+                    free = next;
+                }
+            }
+            keys[free] = NO_KEY;
+            values[free] = null;
+            size--;
+            if (keys.length > MIN_CAPACITY && size * 8 < keys.length) {
+                resize(keys.length / 2);
+            }
+            return removed;
+        }
+
+        /**
+         * Matching keys are collected first: removal moves entries, so the filter sees each entry once.
+         */
+        private int removeIf(Predicate<Object> filter) {
+            long[] matched = null;
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != NO_KEY && filter.test(values[i])) {
+                    if (Objects.isNull(matched)) {
+                        matched = new long[size];
+                    }
+                    matched[count++] = keys[i];
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                remove(matched[i], spread(matched[i]), null);
+            }
+            return count;
+        }
+
+        private void resize(int capacity) {
+            final long[] oldKeys = keys;
+            final Object[] oldValues = values;
+            final long[] newKeys = newKeys(capacity);
+            final Object[] newValues = new Object[capacity];
+            final int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != NO_KEY) {
+                    int index = indexOf(spread(oldKeys[i]), mask);
+                    while (newKeys[index] != NO_KEY) {
+                        index = (index + 1) & mask;
+                    }
+                    newKeys[index] = oldKeys[i];
+                    newValues[index] = oldValues[i];
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+
+        private static int indexOf(long hash, int mask) {
+            return (int) (hash >>> SEGMENT_BITS) & mask;
+        }
+
+        private static long[] newKeys(int capacity) {
+            final long[] keys = new long[capacity];
+            Arrays.fill(keys, NO_KEY);
+            return keys;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.secretcompany.collection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Non-blocking counting semaphore split into stripes. For ex.: global limit of requests in flight.
+ *
+ * Permits are divided between stripes, stripes lie on separate cache lines. A thread acquires from its home stripe,
+ * so threads of different stripes don't contend for the same cache line. A thread whose stripe is exhausted takes
+ * a permit of another stripe: all permits are usable by any thread, total is never exceeded.
+ *
+ * Release should be done to the stripe the permit has been acquired from.
+ */
+public class StripedSemaphore {
+    public static final int NO_STRIPE = -1;
+
+    // longs between used cells: 128 bytes, two cache lines for adjacent line prefetch
+    private static final int PADDING = 16;
+
+    private final int permits;
+    private final int mask;
+    // cell of stripe i is at i * PADDING: permits acquired from the stripe
+    private final AtomicLongArray cells;
+    private final long[] capacities;
+
+    public StripedSemaphore(final int permits) {
+        this(permits, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes - rounded to power of two. Not more than permits: each stripe has at least one.
+     */
+    public StripedSemaphore(final int permits, final int stripes) {
+        if (permits <= 0 || stripes <= 0) {
+            throw new IllegalArgumentException("Permits and stripes should be > 0");
+        }
+        int count = Integer.highestOneBit(Math.min(stripes, permits));
+        this.permits = permits;
+        this.mask = count - 1;
+        this.cells = new AtomicLongArray(count * PADDING);
+        this.capacities = new long[count];
+        for (int i = 0; i < count; i++) {
+            //remainder goes to the first stripes
+            capacities[i] = permits / count + (i < permits % count ? 1 : 0);
+        }
+    }
+
+    /**
+     * @return stripe the permit has been acquired from or NO_STRIPE if there is no permit
+     */
+    public int tryAcquire() {
+        final int home = (int) Thread.currentThread().getId() & mask;
+        for (int i = 0; i <= mask; i++) {
+            final int stripe = (home + i) & mask;
+            final int cell = stripe * PADDING;
+            long acquired;
+            while ((acquired = cells.get(cell)) < capacities[stripe]) {
+                if (cells.compareAndSet(cell, acquired, acquired + 1)) {
+                    return stripe;
+                }
+            }
+        }
+        return NO_STRIPE;
+    }
+
+    public void release(int stripe) {
+        cells.decrementAndGet(stripe * PADDING);
+    }
+
+    /**
+     * @return acquired permits. Sum over stripes, not a snapshot
+     */
+    public long getAcquired() {
+        long acquired = 0;
+        for (int stripe = 0; stripe <= mask; stripe++) {
+            acquired += cells.get(stripe * PADDING);
+        }
+        return acquired;
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public int getStripes() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,42 @@
+package com.secretcompany.dto;
+
+import java.util.Objects;
+
+/**
+ * Immutable. Sla with the time it was fetched from SlaService, so any cache tier can tell if it's stale.
+ */
+public class CachedSla {
+    private final Sla sla;
+    private final long fetchedAtMillis;
+
+    public CachedSla(final Sla sla, final long fetchedAtMillis) {
+        Objects.requireNonNull(sla, "Sla is required");
+        this.sla = sla;
+        this.fetchedAtMillis = fetchedAtMillis;
+    }
+
+    public Sla getSla() {
+        return sla;
+    }
+
+    public long getFetchedAtMillis() {
+        return fetchedAtMillis;
+    }
+
+    public boolean isFresh(long currentMillis, long ttlMillis) {
+        return currentMillis - fetchedAtMillis < ttlMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CachedSla that = (CachedSla) o;
+        return fetchedAtMillis == that.fetchedAtMillis && sla.equals(that.sla);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sla, fetchedAtMillis);
+    }
+}
@@ -0,0 +1,11 @@
+package com.secretcompany.dto;
+
+/**
+ * Decision of a limiter which couldn't decide in time. For ex.: within bounded attempts under contention.
+ * 1. FAIL_OPEN - request is allowed. Availability over the limit: a hot key can't slow down requests.
+ * 2. FAIL_CLOSED - request is rejected. The limit over availability: nothing is allowed without a check.
+ */
+public enum FailurePolicy {
+    FAIL_OPEN,
+    FAIL_CLOSED
+}
@@ -0,0 +1,13 @@
+package com.secretcompany.dto;
+
+/**
+ * Classification of a throttling key. Each class competes for its own RPS.
+ * 1. UNAUTHORIZED - token is absent. All compete for UnAuthorized GuestRPS.
+ * 2. AUTHORIZED_WITHOUT_SLA - token is present but Sla hasn't arrived yet. All compete for Authorized GuestRPS.
+ * 3. SLA_USER - token and Sla are present. Each user has own RPS.
+ */
+public enum KeyClass {
+    UNAUTHORIZED,
+    AUTHORIZED_WITHOUT_SLA,
+    SLA_USER
+}
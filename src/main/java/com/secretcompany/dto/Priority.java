@@ -0,0 +1,14 @@
+package com.secretcompany.dto;
+
+/**
+ * Priority tier of Sla for global capacity. From the highest to the lowest.
+ * Each tier can have reserved share of global RPS and borrows spare capacity of lower tiers.
+ * 1. PREMIUM - paying users who must not be affected by anybody else.
+ * 2. STANDARD - default of Sla users.
+ * 3. GUEST - unauthorized users and authorized users without Sla.
+ */
+public enum Priority {
+    PREMIUM,
+    STANDARD,
+    GUEST
+}
@@ -1,20 +1,97 @@
 package com.secretcompany.dto;
 
 import com.google.common.base.MoreObjects;
+import com.secretcompany.intern.InternedKey;
+import com.secretcompany.intern.KeyInterner;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
  * Immutable
  */
 public class Sla {
+    /**
+     * RPS of a level without limit
+     */
+    public static final long NO_LIMIT = Long.MAX_VALUE;
+    /**
+     * Request isn't bound to any resource
+     */
+    public static final int NO_RESOURCE = -1;
+    /**
+     * Max number of resources with RPS: ids within 0..MAX_RESOURCES - 1
+     */
+    public static final int MAX_RESOURCES = 256;
+    private static final long[] NO_RESOURCE_RPS = new long[0];
+    // ids of users and tenants of all Slas
+    private static final KeyInterner USERS = new KeyInterner();
+    private static final KeyInterner TENANTS = new KeyInterner();
+
     private final String user;
     private final long rps;
+    //optional. Organisation of the user. Users of the same tenant share tenantRps.
+    private final String tenant;
+    private final long tenantRps;
+    //optional. Caps on top of RPS
+    private final long perMinute;
+    private final long perDay;
+    private final Priority priority;
+    //optional. RPS of the user per resource id on top of RPS. NO_LIMIT or absent -> resource isn't limited
+    private final long[] resourceRps;
+    //id of the user. Interned once per Sla, not per request. Keeps the id while the Sla is alive
+    private final InternedKey userKey;
+    //null if Sla doesn't have tenant
+    private final InternedKey tenantKey;
 
     public Sla(final String user, final long rps) {
-        Objects.requireNonNull(user, "USer should not be null");
-        this.user = user;
-        this.rps = rps;
+        this(user, rps, Priority.STANDARD);
+    }
+
+    public Sla(final String user, final long rps, final Priority priority) {
+        this(builder(user, rps).priority(priority));
+    }
+
+    /**
+     * @param tenant - nullable. User doesn't belong to any tenant if null.
+     * @param tenantRps - max RPS of all users of the tenant together or NO_LIMIT
+     */
+    public Sla(final String user, final long rps, final String tenant, final long tenantRps) {
+        this(builder(user, rps).tenant(tenant, tenantRps));
+    }
+
+    private Sla(final Builder builder) {
+        Objects.requireNonNull(builder.user, "USer should not be null");
+        Objects.requireNonNull(builder.priority, "Priority should not be null");
+        this.user = builder.user;
+        this.rps = builder.rps;
+        this.tenant = builder.tenant;
+        this.tenantRps = builder.tenantRps;
+        this.perMinute = builder.perMinute;
+        this.perDay = builder.perDay;
+        this.priority = builder.priority;
+        this.resourceRps = builder.resourceRps;
+        this.userKey = USERS.intern(user);
+        this.tenantKey = Objects.isNull(tenant) ? null : TENANTS.intern(tenant);
+    }
+
+    /**
+     * Sla with optional limits: everything else is unlimited, standard priority.
+     */
+    public static Builder builder(final String user, final long rps) {
+        return new Builder(user, rps);
+    }
+
+    /**
+     * @return builder with all limits of this Sla
+     */
+    public Builder toBuilder() {
+        return builder(user, rps)
+                .tenant(tenant, tenantRps)
+                .perMinute(perMinute)
+                .perDay(perDay)
+                .priority(priority)
+                .resourceRps(resourceRps);
     }
 
     public String getUser() {
@@ -25,17 +102,77 @@ public class Sla {
         return this.rps;
     }
 
+    /**
+     * @return tenant or null
+     */
+    public String getTenant() {
+        return this.tenant;
+    }
+
+    public long getTenantRps() {
+        return this.tenantRps;
+    }
+
+    public long getPerMinute() {
+        return this.perMinute;
+    }
+
+    public long getPerDay() {
+        return this.perDay;
+    }
+
+    public Priority getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * @return RPS of the resource or NO_LIMIT. NO_LIMIT for NO_RESOURCE too
+     */
+    public long getResourceRps(int resourceId) {
+        return resourceId >= 0 && resourceId < resourceRps.length ? resourceRps[resourceId] : NO_LIMIT;
+    }
+
+    /**
+     * @return id of the user > 0. The same for all live Slas of the user, different for different users.
+     */
+    public long getUserId() {
+        return this.userKey.getId();
+    }
+
+    /**
+     * @return interned user. Whoever keeps it keeps the user id the same even if all Slas of the user are gone.
+     */
+    public InternedKey getUserKey() {
+        return this.userKey;
+    }
+
+    /**
+     * @return id of the tenant > 0 or 0 if Sla doesn't have tenant. The same for all live Slas of the tenant.
+     */
+    public long getTenantId() {
+        return Objects.isNull(this.tenantKey) ? 0L : this.tenantKey.getId();
+    }
+
+    /**
+     * @return copy of RPS per resource id
+     */
+    public long[] getResourceRps() {
+        return resourceRps.clone();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Sla sla = (Sla) o;
-        return rps == sla.rps && Objects.equals(user, sla.user);
+        return rps == sla.rps && tenantRps == sla.tenantRps && perMinute == sla.perMinute && perDay == sla.perDay
+                && Objects.equals(user, sla.user) && Objects.equals(tenant, sla.tenant) && priority == sla.priority
+                && Arrays.equals(resourceRps, sla.resourceRps);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(user, rps);
+        return 31 * Objects.hash(user, rps, tenant, tenantRps, perMinute, perDay, priority) + Arrays.hashCode(resourceRps);
     }
 
     @Override
@@ -43,6 +180,83 @@ public class Sla {
         return MoreObjects.toStringHelper(this)
                 .add("user", user)
                 .add("rps", rps)
+                .add("tenant", tenant)
+                .add("tenantRps", tenantRps)
+                .add("perMinute", perMinute)
+                .add("perDay", perDay)
+                .add("priority", priority)
+                .add("resourceRps", Arrays.toString(resourceRps))
                 .toString();
     }
+
+    public static final class Builder {
+        private final String user;
+        private long rps;
+        private String tenant;
+        private long tenantRps = NO_LIMIT;
+        private long perMinute = NO_LIMIT;
+        private long perDay = NO_LIMIT;
+        private Priority priority = Priority.STANDARD;
+        private long[] resourceRps = NO_RESOURCE_RPS;
+
+        private Builder(final String user, final long rps) {
+            this.user = user;
+            this.rps = rps;
+        }
+
+        public Builder rps(final long rps) {
+            this.rps = rps;
+            return this;
+        }
+
+        /**
+         * @param tenant - nullable. User doesn't belong to any tenant if null.
+         * @param tenantRps - max RPS of all users of the tenant together or NO_LIMIT
+         */
+        public Builder tenant(final String tenant, final long tenantRps) {
+            this.tenant = tenant;
+            this.tenantRps = tenantRps;
+            return this;
+        }
+
+        /**
+         * @param perMinute - max requests of the user within a minute or NO_LIMIT
+         */
+        public Builder perMinute(final long perMinute) {
+            this.perMinute = perMinute;
+            return this;
+        }
+
+        /**
+         * @param perDay - max requests of the user within a day or NO_LIMIT
+         */
+        public Builder perDay(final long perDay) {
+            this.perDay = perDay;
+            return this;
+        }
+
+        /**
+         * @param priority - tier for global capacity
+         */
+        public Builder priority(final Priority priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * @param resourceRps - RPS per resource id: resourceRps[id]. Copied. At most MAX_RESOURCES entries.
+         */
+        public Builder resourceRps(final long... resourceRps) {
+            Objects.requireNonNull(resourceRps, "Resource RPS should not be null");
+            if (resourceRps.length > MAX_RESOURCES) {
+                throw new IllegalArgumentException("At most " + MAX_RESOURCES + " resources are supported");
+            }
+            this.resourceRps = resourceRps.length == 0 ? NO_RESOURCE_RPS : resourceRps.clone();
+            return this;
+        }
+
+        public Sla build() {
+            return new Sla(this);
+        }
+    }
 }
@@ -0,0 +1,10 @@
+package com.secretcompany.exception;
+
+/**
+ * Permit hasn't been acquired: waiting queue is full or max wait is exceeded.
+ */
+public class RequestThrottledException extends RuntimeException {
+    public RequestThrottledException(String message) {
+        super(message);
+    }
+}
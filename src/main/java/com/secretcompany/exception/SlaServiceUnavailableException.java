@@ -0,0 +1,10 @@
+package com.secretcompany.exception;
+
+/**
+ * Request to SlaService hasn't been sent at all: circuit breaker is open.
+ */
+public class SlaServiceUnavailableException extends RuntimeException {
+    public SlaServiceUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,216 @@
+package com.secretcompany.flow;
+
+import com.secretcompany.service.ThrottlingService;
+import com.secretcompany.timer.HashedWheelTimer;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Throttles items of reactive stream by their tokens with the same rules as {@link ThrottlingService}.
+ * Items are never dropped and their order is kept. Item above RPS waits until its token has a permit again,
+ * meanwhile nothing more is requested from upstream. So backpressure comes from RPS, not from a buffer.
+ *
+ * Upstream demand is min(downstream demand, prefetch) minus items which are requested but not emitted yet.
+ * Denied item is retried on the next tick of {@link HashedWheelTimer}, no thread is parked.
+ *
+ * Single subscriber. All signals to downstream are serialized by drain loop.
+ */
+public class ThrottlingProcessor<T> implements Flow.Processor<T, T> {
+    private final ThrottlingService throttlingService;
+    private final Function<? super T, String> tokenExtractor;
+    private final HashedWheelTimer timer;
+    private final int prefetch;
+
+    // items received from upstream but not emitted yet. Bounded by prefetch.
+    private final Queue<T> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean retryScheduled = new AtomicBoolean();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super T> downstream;
+    private volatile boolean done;
+    private volatile Throwable error;
+    private volatile boolean cancelled;
+    // downstream has requested non-positive number of items
+    private volatile Throwable badRequest;
+
+    // accessed by drain loop only
+    private long inFlight;
+
+    /**
+     * @param tokenExtractor - token of the item. Null token means unauthorized user.
+     * @param prefetch - max number of items requested from upstream but not emitted yet
+     */
+    public ThrottlingProcessor(final ThrottlingService throttlingService, final Function<? super T, String> tokenExtractor,
+                               final HashedWheelTimer timer, final int prefetch) {
+        Objects.requireNonNull(throttlingService, "Throttling service is required");
+        Objects.requireNonNull(tokenExtractor, "Token extractor is required");
+        Objects.requireNonNull(timer, "Timer is required");
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("Prefetch should be > 0");
+        }
+        this.throttlingService = throttlingService;
+        this.tokenExtractor = tokenExtractor;
+        this.timer = timer;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber is required");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+            return;
+        }
+        subscriber.onSubscribe(new DownstreamSubscription());
+        //assigned after onSubscribe, so no other signal can come before it
+        downstream = subscriber;
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription, "Subscription is required");
+        if (Objects.nonNull(upstream) || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(T item) {
+        Objects.requireNonNull(item, "Item is required");
+        buffer.add(item);
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        Objects.requireNonNull(throwable, "Throwable is required");
+        error = throwable;
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        done = true;
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            final Flow.Subscriber<? super T> subscriber = downstream;
+            final Flow.Subscription subscription = upstream;
+            if (!cancelled && Objects.nonNull(badRequest) && Objects.nonNull(subscriber)) {
+                cancelled = true;
+                subscriber.onError(badRequest);
+            }
+            if (cancelled) {
+                buffer.clear();
+            } else if (Objects.nonNull(subscriber)) {
+                emit(subscriber);
+                if (!cancelled && Objects.nonNull(subscription) && !done) {
+                    requestUpstream(subscription);
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void emit(Flow.Subscriber<? super T> subscriber) {
+        T item;
+        while (requested.get() > 0 && (item = buffer.peek()) != null) {
+            if (!throttlingService.isRequestAllowed(tokenExtractor.apply(item))) {
+                //keep the item and stop: order is preserved and upstream gets no new demand
+                scheduleRetry();
+                return;
+            }
+            buffer.poll();
+            inFlight--;
+            requested.decrementAndGet();
+            subscriber.onNext(item);
+            if (cancelled) {
+                return;
+            }
+        }
+        if (done && buffer.isEmpty()) {
+            cancelled = true;
+            if (Objects.nonNull(error)) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    private void requestUpstream(Flow.Subscription subscription) {
+        final long toRequest = Math.min(requested.get(), prefetch) - inFlight;
+        if (toRequest > 0) {
+            inFlight += toRequest;
+            subscription.request(toRequest);
+        }
+    }
+
+    private void scheduleRetry() {
+        if (retryScheduled.compareAndSet(false, true)) {
+            timer.schedule(() -> {
+                retryScheduled.set(false);
+                drain();
+            }, timer.getTickNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private class DownstreamSubscription implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("Demand should be > 0");
+                cancelUpstream();
+                drain();
+                return;
+            }
+            requested.accumulateAndGet(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            cancelUpstream();
+            drain();
+        }
+
+        private void cancelUpstream() {
+            final Flow.Subscription subscription = upstream;
+            if (Objects.nonNull(subscription)) {
+                subscription.cancel();
+            }
+        }
+    }
+}
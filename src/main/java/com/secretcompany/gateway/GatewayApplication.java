@@ -0,0 +1,132 @@
+package com.secretcompany.gateway;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.secretcompany.cache.FileSharedSlaStore;
+import com.secretcompany.cache.InMemorySharedSlaStore;
+import com.secretcompany.cache.SharedSlaStore;
+import com.secretcompany.cache.TieredSlaService;
+import com.secretcompany.dto.FailurePolicy;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.resilience.AimdLimitController;
+import com.secretcompany.mock.SlaServiceStubWithDelay;
+import com.secretcompany.resilience.CircuitBreaker;
+import com.secretcompany.resilience.ResilientSlaService;
+import com.secretcompany.service.impl.HierarchicalWindowLimiter;
+import com.secretcompany.service.impl.PriorityBudget;
+import com.secretcompany.service.impl.SlaResolver;
+import com.secretcompany.service.impl.WindowThrottlingServiceImpl;
+import com.secretcompany.timer.HashedWheelTimer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Starts {@link ThrottlingGateway} with settings from application.properties.
+ * Sla comes from {@link SlaServiceStubWithDelay} with random delay within 300 ms
+ * behind {@link ResilientSlaService}: timeout per call, circuit breaker and optional hedging.
+ * Sla is cached by {@link TieredSlaService}. Its shared tier is a directory if gateway.slaCacheDir is set.
+ * Global RPS is split between priority tiers by {@link PriorityBudget} if gateway.globalRps is set.
+ * Limits adapt to latency of the handler by {@link AimdLimitController} if gateway.adaptiveLatencyTargetMillis is set.
+ * Decisions never wait for contended windows if gateway.decisionMaxAttempts is set.
+ * Calls to SlaService and file IO of the shared tier run in their own bounded pools: a slow backend can't take threads
+ * of Sla handling, and calls above the queue capacity fail fast instead of piling up.
+ */
+public class GatewayApplication {
+
+    public static void main(String[] args) {
+        final Properties properties = loadProperties();
+        final int guestRps = Integer.parseInt(properties.getProperty("sla.guestRps"));
+        final int port = Integer.parseInt(properties.getProperty("gateway.port"));
+        final int workerThreads = Integer.parseInt(properties.getProperty("gateway.workerThreads"));
+        final int smoothingSlices = Integer.parseInt(properties.getProperty("gateway.smoothingSlices", "1"));
+        final Duration idleTimeout = Duration.ofMillis(Long.parseLong(properties.getProperty("gateway.idleTimeoutMillis", "60000")));
+        final Duration slaTimeout = Duration.ofMillis(Long.parseLong(properties.getProperty("gateway.slaTimeoutMillis", "1000")));
+        final int breakerFailures = Integer.parseInt(properties.getProperty("gateway.slaBreakerFailures", "5"));
+        final Duration breakerOpen = Duration.ofMillis(Long.parseLong(properties.getProperty("gateway.slaBreakerOpenMillis", "5000")));
+        final Duration hedgeDelay = Duration.ofMillis(Long.parseLong(properties.getProperty("gateway.slaHedgeDelayMillis", "0")));
+        final Duration slaCacheTtl = Duration.ofMillis(Long.parseLong(properties.getProperty("gateway.slaCacheTtlMillis", "60000")));
+        final String slaCacheDir = properties.getProperty("gateway.slaCacheDir", "").trim();
+        final long adaptiveLatencyTargetMillis = Long.parseLong(properties.getProperty("gateway.adaptiveLatencyTargetMillis", "0"));
+        final long globalRps = Long.parseLong(properties.getProperty("gateway.globalRps", "0"));
+        final double[] priorityShares = Arrays.stream(properties.getProperty("gateway.priorityShares", "0.5,0.3,0.1").split(","))
+                .mapToDouble(share -> Double.parseDouble(share.trim()))
+                .toArray();
+        final double adaptiveMaxErrorRate = Double.parseDouble(properties.getProperty("gateway.adaptiveMaxErrorRate", "0.01"));
+        final int decisionMaxAttempts = Integer.parseInt(properties.getProperty("gateway.decisionMaxAttempts", "0"));
+        final FailurePolicy decisionFailurePolicy = FailurePolicy.valueOf(properties.getProperty("gateway.decisionFailurePolicy", "FAIL_OPEN").trim());
+        final int slaThreads = Integer.parseInt(properties.getProperty("gateway.slaThreads", "16"));
+        final int slaQueueCapacity = Integer.parseInt(properties.getProperty("gateway.slaQueueCapacity", "1024"));
+
+        // coarse ticks: expiry and Sla timeouts don't need precision
+        final HashedWheelTimer timer = new HashedWheelTimer(100, TimeUnit.MILLISECONDS, 1024);
+        final HierarchicalWindowLimiter.Builder limiterBuilder = HierarchicalWindowLimiter.builder()
+                .slices(smoothingSlices)
+                .expiry(timer, idleTimeout)
+                .boundedDecisions(decisionMaxAttempts, decisionFailurePolicy);
+        if (globalRps > 0) {
+            limiterBuilder.priorityBudget(new PriorityBudget(globalRps, priorityShares));
+        }
+        final HierarchicalWindowLimiter limiter = limiterBuilder.build();
+        final ExecutorService slaExecutor = boundedExecutor("SlaCallThread-%s", slaThreads, slaQueueCapacity);
+        final ExecutorService ioExecutor = boundedExecutor("SlaCacheIoThread-%s", 2, slaQueueCapacity);
+        final ResilientSlaService resilientSlaService = new ResilientSlaService(new SlaServiceStubWithDelay(0, true),
+                slaExecutor, timer, slaTimeout, new CircuitBreaker(breakerFailures, breakerOpen), hedgeDelay,
+                ThrottlingMetrics.NOOP);
+        final SharedSlaStore sharedStore = slaCacheDir.isEmpty()
+                ? new InMemorySharedSlaStore()
+                : new FileSharedSlaStore(Paths.get(slaCacheDir), ioExecutor);
+        final TieredSlaService slaService = new TieredSlaService(resilientSlaService, sharedStore, slaCacheTtl);
+        //token outlives its windows: a token which comes back gets a new id and so a new token window
+        final SlaResolver slaResolver = new SlaResolver(slaService, ThrottlingMetrics.NOOP, timer, slaTimeout,
+                timer, idleTimeout.plusSeconds(1));
+        final WindowThrottlingServiceImpl throttlingService =
+                WindowThrottlingServiceImpl.builder(guestRps)
+                        .slaResolver(slaResolver)
+                        .limiter(limiter)
+                        .build();
+        AimdLimitController adaptiveLimit = null;
+        if (adaptiveLatencyTargetMillis > 0) {
+            adaptiveLimit = new AimdLimitController(timer, Duration.ofSeconds(1),
+                    Duration.ofMillis(adaptiveLatencyTargetMillis), adaptiveMaxErrorRate);
+            throttlingService.adaptTo(adaptiveLimit);
+        }
+        final ThrottlingGateway gateway = new ThrottlingGateway(throttlingService, port, workerThreads, adaptiveLimit)
+                .start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            gateway.close();
+            timer.close();
+            slaExecutor.shutdownNow();
+            ioExecutor.shutdownNow();
+        }));
+        System.out.println("Gateway is listening on " + gateway.getUrl());
+    }
+
+    /**
+     * Fixed pool with bounded queue. Task above the capacity is rejected: callers fail the call instead of waiting.
+     */
+    private static ExecutorService boundedExecutor(String nameFormat, int threads, int queueCapacity) {
+        ThreadFactoryBuilder threadFactoryBuilder = new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat);
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactoryBuilder.build(), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    static Properties loadProperties() {
+        final Properties properties = new Properties();
+        try (InputStream stream = GatewayApplication.class.getResourceAsStream("/application.properties")) {
+            properties.load(stream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return properties;
+    }
+}
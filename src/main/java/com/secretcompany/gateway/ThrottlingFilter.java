@@ -0,0 +1,66 @@
+package com.secretcompany.gateway;
+
+import com.secretcompany.service.DownstreamFeedback;
+import com.secretcompany.service.ThrottlingService;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Reads user's token from {@link #TOKEN_HEADER} and asks {@link ThrottlingService}.
+ * Responds with 429 Too Many Requests if request isn't allowed. Otherwise passes request to the next handler.
+ * Missing header means unauthorized user.
+ * Optionally latency of the next handler and 5xx responses are reported to {@link DownstreamFeedback}.
+ */
+public class ThrottlingFilter extends Filter {
+    public static final String TOKEN_HEADER = "X-Auth-Token";
+    public static final int TOO_MANY_REQUESTS = 429;
+
+    private final ThrottlingService throttlingService;
+    // null -> nobody is interested in the downstream
+    private final DownstreamFeedback feedback;
+
+    public ThrottlingFilter(final ThrottlingService throttlingService) {
+        this(throttlingService, null);
+    }
+
+    /**
+     * @param feedback - nullable. Gets outcome of each allowed request if present.
+     */
+    public ThrottlingFilter(final ThrottlingService throttlingService, final DownstreamFeedback feedback) {
+        Objects.requireNonNull(throttlingService, "ThrottlingService is required");
+        this.throttlingService = throttlingService;
+        this.feedback = feedback;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        final String token = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        if (throttlingService.isRequestAllowed(token)) {
+            if (Objects.isNull(feedback)) {
+                chain.doFilter(exchange);
+                return;
+            }
+            final long startNanos = System.nanoTime();
+            boolean error = true;
+            try {
+                chain.doFilter(exchange);
+                error = exchange.getResponseCode() >= 500;
+            } finally {
+                feedback.onDownstreamResponse(System.nanoTime() - startNanos, error);
+            }
+        } else {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            //-1 means no response body
+            exchange.sendResponseHeaders(TOO_MANY_REQUESTS, -1);
+            exchange.close();
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Throttles requests by " + TOKEN_HEADER + " header";
+    }
+}
@@ -0,0 +1,91 @@
+package com.secretcompany.gateway;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.secretcompany.service.DownstreamFeedback;
+import com.secretcompany.service.ThrottlingService;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal REST service behind {@link ThrottlingFilter}. Listens on loopback interface only.
+ * GET / responds with 200 OK if request is allowed and 429 otherwise.
+ */
+public class ThrottlingGateway implements AutoCloseable {
+    public static final String PATH = "/";
+    private static final byte[] OK_BODY = "OK".getBytes(StandardCharsets.UTF_8);
+
+    static {
+        // JDK HttpServer doesn't disable Nagle's algorithm by default.
+        // Small keep-alive responses are delayed by ~40 ms without it. Read once on first server creation.
+        if (Objects.isNull(System.getProperty("sun.net.httpserver.nodelay"))) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param port - 0 means any free port. See {@link #getPort()}
+     * @param workerThreads - number of threads which handle requests
+     */
+    public ThrottlingGateway(final ThrottlingService throttlingService, final int port, final int workerThreads) {
+        this(throttlingService, port, workerThreads, null);
+    }
+
+    /**
+     * @param feedback - nullable. Gets outcome of each allowed request if present.
+     */
+    public ThrottlingGateway(final ThrottlingService throttlingService, final int port, final int workerThreads,
+                             final DownstreamFeedback feedback) {
+        Objects.requireNonNull(throttlingService, "ThrottlingService is required");
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ThreadFactoryBuilder threadFactoryBuilder = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("GatewayWorkerThread-%s");
+        this.executor = Executors.newFixedThreadPool(workerThreads, threadFactoryBuilder.build());
+
+        HttpContext context = server.createContext(PATH, ThrottlingGateway::handle);
+        context.getFilters().add(new ThrottlingFilter(throttlingService, feedback));
+        server.setExecutor(executor);
+    }
+
+    public ThrottlingGateway start() {
+        server.start();
+        return this;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + getPort() + PATH;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, OK_BODY.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(OK_BODY);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.secretcompany.gateway.loadtest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Closed-loop load: fixed number of users, each sends the next request only after the previous response.
+ * Throughput is limited by service latency. Shows max throughput of the service.
+ */
+public class ClosedLoopLoadGenerator {
+    private final URL url;
+    private final int concurrency;
+    private final Duration duration;
+    private final Supplier<String> tokenSupplier;
+
+    /**
+     * @param tokenSupplier - token per request. Should be thread-safe. Null token means unauthorized user.
+     */
+    public ClosedLoopLoadGenerator(URL url, int concurrency, Duration duration, Supplier<String> tokenSupplier) {
+        Objects.requireNonNull(url, "URL is required");
+        Objects.requireNonNull(duration, "Duration is required");
+        Objects.requireNonNull(tokenSupplier, "Token supplier is required");
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency should be > 0");
+        }
+        this.url = url;
+        this.concurrency = concurrency;
+        this.duration = duration;
+        this.tokenSupplier = tokenSupplier;
+    }
+
+    public LoadTestResult run(String scenario) throws InterruptedException {
+        final LoadTestRecorder recorder = new LoadTestRecorder();
+        final HttpProbe probe = new HttpProbe(url);
+        final ThreadFactoryBuilder threadFactoryBuilder = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ClosedLoopUser-%s");
+        final ExecutorService users = Executors.newFixedThreadPool(concurrency, threadFactoryBuilder.build());
+
+        final long start = System.nanoTime();
+        final long deadline = start + duration.toNanos();
+        for (int i = 0; i < concurrency; i++) {
+            users.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    final long sent = System.nanoTime();
+                    final int status = probe.send(tokenSupplier.get());
+                    recorder.record(status, System.nanoTime() - sent);
+                }
+            });
+        }
+        users.shutdown();
+        users.awaitTermination(duration.toNanos() + TimeUnit.SECONDS.toNanos(30), TimeUnit.NANOSECONDS);
+
+        return recorder.toResult(scenario, System.nanoTime() - start);
+    }
+}
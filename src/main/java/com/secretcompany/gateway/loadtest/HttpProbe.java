@@ -0,0 +1,53 @@
+package com.secretcompany.gateway.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Objects;
+
+import static com.secretcompany.gateway.ThrottlingFilter.TOKEN_HEADER;
+
+/**
+ * Sends a single GET request. Response body is drained to keep connection alive.
+ */
+class HttpProbe {
+    static final int IO_ERROR = -1;
+
+    private final URL url;
+
+    HttpProbe(final URL url) {
+        Objects.requireNonNull(url, "URL is required");
+        this.url = url;
+    }
+
+    /**
+     * @param token - nullable. Null means unauthorized user.
+     * @return HTTP status or {@link #IO_ERROR}
+     */
+    int send(String token) {
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            if (Objects.nonNull(token)) {
+                connection.setRequestProperty(TOKEN_HEADER, token);
+            }
+            final int status = connection.getResponseCode();
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            return status;
+        } catch (IOException e) {
+            return IO_ERROR;
+        }
+    }
+
+    private static void drain(InputStream stream) throws IOException {
+        if (Objects.isNull(stream)) {
+            return;
+        }
+        try (InputStream body = stream) {
+            final byte[] buffer = new byte[256];
+            while (body.read(buffer) >= 0) {
+                //drain
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.secretcompany.gateway.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.secretcompany.gateway.ThrottlingFilter.TOO_MANY_REQUESTS;
+
+/**
+ * Collects responses of a load test run. Thread-safe.
+ * Latencies are kept as is, so percentiles are exact. Load test runs are bounded in time, so memory is bounded too.
+ */
+class LoadTestRecorder {
+    private final LongAdder ok = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private long[] latencies = new long[1024];
+    private int size;
+
+    void record(int status, long latencyNanos) {
+        if (status == 200) {
+            ok.increment();
+        } else if (status == TOO_MANY_REQUESTS) {
+            throttled.increment();
+        } else {
+            errors.increment();
+        }
+        synchronized (this) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = latencyNanos;
+        }
+    }
+
+    synchronized LoadTestResult toResult(String scenario, long elapsedNanos) {
+        return new LoadTestResult(scenario, ok.sum(), throttled.sum(), errors.sum(), elapsedNanos, Arrays.copyOf(latencies, size));
+    }
+}
@@ -0,0 +1,95 @@
+package com.secretcompany.gateway.loadtest;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable. Result of a single load test run. Latencies are in nanos.
+ */
+public class LoadTestResult {
+    private final String scenario;
+    private final long ok;
+    private final long throttled;
+    private final long errors;
+    private final long elapsedNanos;
+    private final long[] sortedLatencies;
+
+    public LoadTestResult(String scenario, long ok, long throttled, long errors, long elapsedNanos, long[] latencies) {
+        this.scenario = scenario;
+        this.ok = ok;
+        this.throttled = throttled;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+        this.sortedLatencies = latencies.clone();
+        Arrays.sort(this.sortedLatencies);
+    }
+
+    public String getScenario() {
+        return scenario;
+    }
+
+    public long getOk() {
+        return ok;
+    }
+
+    public long getThrottled() {
+        return throttled;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getTotal() {
+        return ok + throttled + errors;
+    }
+
+    /**
+     * @return completed requests per second including throttled ones
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : getTotal() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * @param percentile - within (0, 100]
+     * @return latency in nanos or 0 if nothing was recorded
+     */
+    public long getLatencyPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile should be within (0, 100]");
+        }
+        if (sortedLatencies.length == 0) {
+            return 0L;
+        }
+        int index = (int) Math.ceil(sortedLatencies.length * percentile / 100) - 1;
+        return sortedLatencies[Math.max(index, 0)];
+    }
+
+    /**
+     * @return single report line. Latencies are in micros.
+     */
+    public String format() {
+        return String.format("%-40s total=%-8d ok=%-8d 429=%-8d errors=%-6d rps=%-10.1f p50=%-7d p90=%-7d p99=%-7d p99.9=%-7d max=%d",
+                scenario, getTotal(), ok, throttled, errors, getThroughput(),
+                micros(getLatencyPercentile(50)), micros(getLatencyPercentile(90)), micros(getLatencyPercentile(99)),
+                micros(getLatencyPercentile(99.9)), micros(getLatencyPercentile(100)));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("scenario", scenario)
+                .add("ok", ok)
+                .add("throttled", throttled)
+                .add("errors", errors)
+                .add("elapsedNanos", elapsedNanos)
+                .toString();
+    }
+}
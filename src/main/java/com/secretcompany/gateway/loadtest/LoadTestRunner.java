@@ -0,0 +1,79 @@
+package com.secretcompany.gateway.loadtest;
+
+import com.google.common.collect.ImmutableList;
+import com.secretcompany.gateway.ThrottlingGateway;
+import com.secretcompany.mock.SlaServiceStubWithDelay;
+import com.secretcompany.service.ThrottlingService;
+import com.secretcompany.service.impl.WindowThrottlingServiceImpl;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_1;
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_2;
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_2_1;
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_2_2;
+
+/**
+ * Compares REST service with and without throttling under closed-loop and open-loop load.
+ * Gateway and load generators share the same JVM, so absolute numbers include client overhead.
+ * The difference between `throttling on` and `throttling off` is the end-to-end cost of throttling.
+ *
+ * Args (all optional): durationSeconds concurrency openLoopRps
+ */
+public class LoadTestRunner {
+    private static final List<String> SLA_TOKENS = ImmutableList.of(TOKEN_1_1, TOKEN_1_2, TOKEN_2_1, TOKEN_2_2);
+    private static final int GUEST_RPS = 20;
+    private static final int WORKER_THREADS = 16;
+
+    public static void main(String[] args) throws InterruptedException, MalformedURLException {
+        final Duration duration = Duration.ofSeconds(args.length > 0 ? Long.parseLong(args[0]) : 10);
+        final int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        final int openLoopRps = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        final ThrottlingService throttlingOff = token -> true;
+        final ThrottlingService throttlingOn = new WindowThrottlingServiceImpl(GUEST_RPS, new SlaServiceStubWithDelay(0, true));
+
+        final LoadTest closedLoop = (url, scenario) -> new ClosedLoopLoadGenerator(url, concurrency, duration, LoadTestRunner::nextToken).run(scenario);
+        final LoadTest openLoop = (url, scenario) -> new OpenLoopLoadGenerator(url, openLoopRps, duration, concurrency, LoadTestRunner::nextToken).run(scenario);
+
+        run("closed-loop, throttling off", throttlingOff, closedLoop);
+        run("closed-loop, throttling on", throttlingOn, closedLoop);
+        run("open-loop, throttling off", throttlingOff, openLoop);
+        run("open-loop, throttling on", throttlingOn, openLoop);
+    }
+
+    private static void run(String scenario, ThrottlingService throttlingService, LoadTest loadTest) throws InterruptedException, MalformedURLException {
+        try (ThrottlingGateway gateway = new ThrottlingGateway(throttlingService, 0, WORKER_THREADS).start()) {
+            final URL url = new URL(gateway.getUrl());
+            //warm up JIT and connections
+            new ClosedLoopLoadGenerator(url, 4, Duration.ofSeconds(2), LoadTestRunner::nextToken).run("warm up");
+
+            System.out.println(loadTest.run(url, scenario).format());
+        }
+    }
+
+    /**
+     * 10% unauthorized users, 60% users with Sla, 30% users with unknown tokens.
+     */
+    private static String nextToken() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int dice = random.nextInt(10);
+        if (dice == 0) {
+            return null;
+        } else if (dice < 7) {
+            return SLA_TOKENS.get(random.nextInt(SLA_TOKENS.size()));
+        } else {
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    @FunctionalInterface
+    private interface LoadTest {
+        LoadTestResult run(URL url, String scenario) throws InterruptedException;
+    }
+}
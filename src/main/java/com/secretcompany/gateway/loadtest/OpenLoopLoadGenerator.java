@@ -0,0 +1,70 @@
+package com.secretcompany.gateway.loadtest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Open-loop load: requests arrive with fixed rate regardless of responses, like real independent users.
+ * Latency is measured from the intended send time, so queueing on the client side is included
+ * and coordinated omission doesn't hide slow responses.
+ */
+public class OpenLoopLoadGenerator {
+    private final URL url;
+    private final int requestsPerSecond;
+    private final Duration duration;
+    private final int senderThreads;
+    private final Supplier<String> tokenSupplier;
+
+    /**
+     * @param senderThreads - max number of requests in flight
+     * @param tokenSupplier - token per request. Should be thread-safe. Null token means unauthorized user.
+     */
+    public OpenLoopLoadGenerator(URL url, int requestsPerSecond, Duration duration, int senderThreads, Supplier<String> tokenSupplier) {
+        Objects.requireNonNull(url, "URL is required");
+        Objects.requireNonNull(duration, "Duration is required");
+        Objects.requireNonNull(tokenSupplier, "Token supplier is required");
+        if (requestsPerSecond <= 0 || senderThreads <= 0) {
+            throw new IllegalArgumentException("Rate and number of sender threads should be > 0");
+        }
+        this.url = url;
+        this.requestsPerSecond = requestsPerSecond;
+        this.duration = duration;
+        this.senderThreads = senderThreads;
+        this.tokenSupplier = tokenSupplier;
+    }
+
+    public LoadTestResult run(String scenario) throws InterruptedException {
+        final LoadTestRecorder recorder = new LoadTestRecorder();
+        final HttpProbe probe = new HttpProbe(url);
+        final ThreadFactoryBuilder threadFactoryBuilder = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("OpenLoopSender-%s");
+        final ExecutorService senders = Executors.newFixedThreadPool(senderThreads, threadFactoryBuilder.build());
+
+        final long interval = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        final long total = duration.toNanos() / interval;
+        final long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            final long intended = start + i * interval;
+            final long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            final String token = tokenSupplier.get();
+            senders.execute(() -> {
+                final int status = probe.send(token);
+                recorder.record(status, System.nanoTime() - intended);
+            });
+        }
+        senders.shutdown();
+        senders.awaitTermination(30, TimeUnit.SECONDS);
+
+        return recorder.toResult(scenario, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,32 @@
+package com.secretcompany.intern;
+
+import com.secretcompany.collection.ConcurrentLongObjectMap;
+import com.secretcompany.dto.Sla;
+
+/**
+ * Packs (user, resource) into one long key: id of the user from its Sla in high bits, resource id in the low
+ * {@link #RESOURCE_BITS}. No "user:resource" string per request, composite keys fit primitive maps.
+ *
+ * User's id is interned by {@link KeyInterner} once per Sla, so encoding is a shift: no lookup per request.
+ * Ids are unique and sequential, so different users never share a key: 2^55 ids before the shift could overflow.
+ * Resource id is within range by construction: Sla has RPS of at most {@link Sla#MAX_RESOURCES} resources.
+ * Key is positive: never {@link ConcurrentLongObjectMap#NO_KEY}.
+ */
+public final class CompositeKeyEncoder {
+    public static final int MAX_RESOURCES = Sla.MAX_RESOURCES;
+    public static final int RESOURCE_BITS = Integer.numberOfTrailingZeros(MAX_RESOURCES);
+
+    private CompositeKeyEncoder() {
+    }
+
+    /**
+     * @param resourceId - within 0..MAX_RESOURCES - 1: a resource with RPS in the Sla
+     */
+    public static long encode(Sla sla, int resourceId) {
+        return sla.getUserId() << RESOURCE_BITS | resourceId & (MAX_RESOURCES - 1);
+    }
+
+    public static int resourceOf(long key) {
+        return (int) (key & (MAX_RESOURCES - 1));
+    }
+}
@@ -0,0 +1,31 @@
+package com.secretcompany.intern;
+
+/**
+ * Key with its id of {@link KeyInterner}. Key stays interned while its InternedKey is referenced.
+ * Identity equality: one instance per interned key.
+ */
+public final class InternedKey {
+    private final String key;
+    private final long id;
+
+    InternedKey(final String key, final long id) {
+        this.key = key;
+        this.id = id;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return id > 0. Unique among interned keys.
+     */
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return key + "#" + id;
+    }
+}
@@ -0,0 +1,43 @@
+package com.secretcompany.intern;
+
+import com.google.common.collect.MapMaker;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gives each key a sequential id: the same id for equal keys, different ids for different ones. No hash,
+ * so no collisions: keys are compared by equals once, when they are interned. For ex.: once per Sla, not per request.
+ *
+ * Keys are kept while their {@link InternedKey} is referenced (by Sla, windows of a limiter). Unreferenced ones
+ * are collected by GC, so memory is bounded by live keys. A key which comes back after that gets a new id.
+ * Ids are never reused: nothing else can get the id of a collected key.
+ * Thread-safe.
+ */
+public class KeyInterner {
+    private final ConcurrentMap<String, InternedKey> keys = new MapMaker().weakValues().makeMap();
+    private final AtomicLong lastId = new AtomicLong();
+
+    /**
+     * @return interned key. The same instance for equal keys while it's referenced.
+     */
+    public InternedKey intern(String key) {
+        Objects.requireNonNull(key, "Key is required");
+        final InternedKey interned = keys.get(key);
+        if (Objects.nonNull(interned)) {
+            return interned;
+        }
+        //ids could be skipped by a race. There are 2^63 of them
+        final InternedKey created = new InternedKey(key, lastId.incrementAndGet());
+        final InternedKey raced = keys.putIfAbsent(key, created);
+        return Objects.isNull(raced) ? created : raced;
+    }
+
+    /**
+     * @return number of interned keys. Could include collected ones which aren't cleaned up yet.
+     */
+    public int size() {
+        return keys.size();
+    }
+}
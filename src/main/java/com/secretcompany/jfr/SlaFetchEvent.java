@@ -0,0 +1,57 @@
+package com.secretcompany.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * JFR event per Sla resolution. Disabled by default.
+ * Event duration is time from the request to SlaService (or joining an ongoing one) until Sla arrives.
+ *
+ * Raw token is never recorded. Only its hash.
+ */
+@Name("com.secretcompany.SlaFetch")
+@Label("Sla Fetch")
+@Category("Throttling")
+@Description("Sla resolution through SlaService")
+@Enabled(false)
+@Threshold("10 ms")
+@StackTrace(false)
+public class SlaFetchEvent extends Event {
+
+    @Label("Token Hash")
+    int tokenHash;
+
+    @Label("Sla Present")
+    boolean slaPresent;
+
+    @Label("Coalesced")
+    @Description("Joined already ongoing request to SlaService for the same token")
+    boolean coalesced;
+
+    /**
+     * Commit the event when slaFuture completes. Does nothing if the event is disabled.
+     */
+    public void commitOnCompletion(String token, boolean coalesced, CompletableFuture<?> slaFuture) {
+        if (!isEnabled()) {
+            return;
+        }
+        slaFuture.whenComplete((sla, throwable) -> {
+            end();
+            if (shouldCommit()) {
+                this.tokenHash = token.hashCode();
+                this.slaPresent = Objects.nonNull(sla);
+                this.coalesced = coalesced;
+                commit();
+            }
+        });
+    }
+}
@@ -0,0 +1,93 @@
+package com.secretcompany.jfr;
+
+import com.secretcompany.dto.KeyClass;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event per isRequestAllowed call. Disabled by default.
+ * Enable it with src/main/resources/throttling.jfc or -XX:StartFlightRecording:settings=throttling.jfc
+ *
+ * Event duration is the whole decision. Phases split it into:
+ * 1. clock - reading current time
+ * 2. sla - Sla resolution (cache lookup and request to SlaService if needed)
+ * 3. counter - RPS counter update. Map contention shows up here.
+ *
+ * Phases are measured only if the event is enabled.
+ */
+@Name("com.secretcompany.ThrottleDecision")
+@Label("Throttle Decision")
+@Category("Throttling")
+@Description("Single throttling decision")
+@Enabled(false)
+@Threshold("1 ms")
+@StackTrace(false)
+public class ThrottleDecisionEvent extends Event {
+
+    @Label("Key Class")
+    String keyClass;
+
+    @Label("Allowed")
+    boolean allowed;
+
+    @Label("Clock")
+    @Timespan(Timespan.NANOSECONDS)
+    long clockNanos;
+
+    @Label("Sla Resolution")
+    @Timespan(Timespan.NANOSECONDS)
+    long slaNanos;
+
+    @Label("Counter Update")
+    @Timespan(Timespan.NANOSECONDS)
+    long counterNanos;
+
+    //not recorded. start of the current phase
+    private transient long phaseStart;
+
+    public void beginDecision() {
+        begin();
+        if (isEnabled()) {
+            phaseStart = System.nanoTime();
+        }
+    }
+
+    public void clockRead() {
+        if (isEnabled()) {
+            clockNanos = nextPhase();
+        }
+    }
+
+    public void slaResolved() {
+        if (isEnabled()) {
+            slaNanos = nextPhase();
+        }
+    }
+
+    public void commitDecision(KeyClass keyClass, boolean allowed) {
+        if (!isEnabled()) {
+            return;
+        }
+        counterNanos = nextPhase();
+        end();
+        if (shouldCommit()) {
+            this.keyClass = keyClass.name();
+            this.allowed = allowed;
+            commit();
+        }
+    }
+
+    private long nextPhase() {
+        final long now = System.nanoTime();
+        final long phase = now - phaseStart;
+        phaseStart = now;
+        return phase;
+    }
+}
@@ -0,0 +1,134 @@
+package com.secretcompany.metrics;
+
+import com.secretcompany.dto.KeyClass;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Simple in-memory metrics registry.
+ * Counters are LongAdders and latencies are {@link LatencyHistogram}s, so recording is lock-free.
+ * Gauges are evaluated only on scrape.
+ *
+ * Use {@link #snapshot()} or {@link #scrape()} to export collected values.
+ */
+public class InMemoryThrottlingMetrics implements ThrottlingMetrics {
+    private static final String PREFIX = "throttling.";
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final LongAdder[] allowed = newAdders(KeyClass.values().length);
+    private final LongAdder[] denied = newAdders(KeyClass.values().length);
+    private final LatencyHistogram[] decisionLatency = newHistograms(KeyClass.values().length);
+
+    private final LongAdder slaFetchPresent = new LongAdder();
+    private final LongAdder slaFetchAbsent = new LongAdder();
+    private final LatencyHistogram slaFetchLatency = new LatencyHistogram();
+
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordDecision(KeyClass keyClass, boolean allowed, long durationNanos) {
+        final int index = keyClass.ordinal();
+        if (allowed) {
+            this.allowed[index].increment();
+        } else {
+            this.denied[index].increment();
+        }
+        decisionLatency[index].record(durationNanos);
+    }
+
+    @Override
+    public void recordSlaFetch(long durationNanos, boolean slaPresent) {
+        if (slaPresent) {
+            slaFetchPresent.increment();
+        } else {
+            slaFetchAbsent.increment();
+        }
+        slaFetchLatency.record(durationNanos);
+    }
+
+    @Override
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public long getAllowed(KeyClass keyClass) {
+        return allowed[keyClass.ordinal()].sum();
+    }
+
+    public long getDenied(KeyClass keyClass) {
+        return denied[keyClass.ordinal()].sum();
+    }
+
+    public LatencyHistogram getDecisionLatency(KeyClass keyClass) {
+        return decisionLatency[keyClass.ordinal()];
+    }
+
+    public long getSlaFetches(boolean slaPresent) {
+        return slaPresent ? slaFetchPresent.sum() : slaFetchAbsent.sum();
+    }
+
+    public LatencyHistogram getSlaFetchLatency() {
+        return slaFetchLatency;
+    }
+
+    /**
+     * @return sorted metric name to value mapping. Latencies are in nanos.
+     */
+    public Map<String, Long> snapshot() {
+        final Map<String, Long> snapshot = new TreeMap<>();
+        for (KeyClass keyClass : KeyClass.values()) {
+            final String name = PREFIX + "decision." + keyClass.name().toLowerCase();
+            snapshot.put(name + ".allowed", getAllowed(keyClass));
+            snapshot.put(name + ".denied", getDenied(keyClass));
+            putHistogram(snapshot, name + ".latency", getDecisionLatency(keyClass));
+        }
+        snapshot.put(PREFIX + "sla.fetch.present", slaFetchPresent.sum());
+        snapshot.put(PREFIX + "sla.fetch.absent", slaFetchAbsent.sum());
+        putHistogram(snapshot, PREFIX + "sla.fetch.latency", slaFetchLatency);
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.getAsLong()));
+        return snapshot;
+    }
+
+    /**
+     * @return snapshot in plain text format. One "name value" pair per line.
+     */
+    public String scrape() {
+        final StringBuilder builder = new StringBuilder();
+        snapshot().forEach((name, value) -> builder.append(name).append(' ').append(value).append('\n'));
+        return builder.toString();
+    }
+
+    private static void putHistogram(Map<String, Long> snapshot, String name, LatencyHistogram histogram) {
+        final long count = histogram.getCount();
+        snapshot.put(name + ".count", count);
+        snapshot.put(name + ".mean", count == 0 ? 0L : histogram.getTotalNanos() / count);
+        for (double percentile : PERCENTILES) {
+            snapshot.put(name + ".p" + String.valueOf(percentile).replace(".0", ""), histogram.getPercentile(percentile));
+        }
+    }
+
+    private static LongAdder[] newAdders(int size) {
+        final LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static LatencyHistogram[] newHistograms(int size) {
+        final LatencyHistogram[] histograms = new LatencyHistogram[size];
+        for (int i = 0; i < size; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+}
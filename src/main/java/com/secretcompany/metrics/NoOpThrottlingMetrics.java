@@ -0,0 +1,31 @@
+package com.secretcompany.metrics;
+
+import com.secretcompany.dto.KeyClass;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Default metrics. Does nothing.
+ */
+public final class NoOpThrottlingMetrics implements ThrottlingMetrics {
+
+    NoOpThrottlingMetrics() {
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public void recordDecision(KeyClass keyClass, boolean allowed, long durationNanos) {
+    }
+
+    @Override
+    public void recordSlaFetch(long durationNanos, boolean slaPresent) {
+    }
+
+    @Override
+    public void registerGauge(String name, LongSupplier gauge) {
+    }
+}
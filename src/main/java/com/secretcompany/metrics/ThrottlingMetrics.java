@@ -0,0 +1,39 @@
+package com.secretcompany.metrics;
+
+import com.secretcompany.dto.KeyClass;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics SPI for throttling decisions and SlaService calls.
+ * Implementations should be lock-free. They are called on the decision hot path.
+ *
+ * If {@link #isEnabled()} returns false, callers skip time measurement at all, so {@link #NOOP} costs nothing.
+ */
+public interface ThrottlingMetrics {
+
+    ThrottlingMetrics NOOP = new NoOpThrottlingMetrics();
+
+    /**
+     * @return false if metrics should not be collected. Callers don't even read the clock in this case.
+     */
+    boolean isEnabled();
+
+    /**
+     * @param keyClass - class of the key which made a decision
+     * @param allowed - decision
+     * @param durationNanos - time spent in isRequestAllowed
+     */
+    void recordDecision(KeyClass keyClass, boolean allowed, long durationNanos);
+
+    /**
+     * @param durationNanos - time spent waiting for SlaService
+     * @param slaPresent - false if SlaService returned null or failed
+     */
+    void recordSlaFetch(long durationNanos, boolean slaPresent);
+
+    /**
+     * Register gauge which is evaluated lazily on scrape. For ex.: size of in-flight Sla requests or cache size.
+     */
+    void registerGauge(String name, LongSupplier gauge);
+}
@@ -0,0 +1,30 @@
+package com.secretcompany.mock;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.service.SlaChangeListener;
+import com.secretcompany.service.SlaUpdateSource;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * For testing purpose. Sla changes are published by the caller and delivered to all listeners in the caller thread.
+ */
+public class SlaUpdateBroadcaster implements SlaUpdateSource {
+    private final List<SlaChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void subscribe(SlaChangeListener listener) {
+        Objects.requireNonNull(listener, "Listener is required");
+        listeners.add(listener);
+    }
+
+    public void publishTokenSla(String token, Sla sla) {
+        listeners.forEach(listener -> listener.onTokenSla(token, sla));
+    }
+
+    public void publishUserSla(String user, Sla sla) {
+        listeners.forEach(listener -> listener.onUserSla(user, sla));
+    }
+}
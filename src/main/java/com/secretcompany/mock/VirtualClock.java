@@ -0,0 +1,58 @@
+package com.secretcompany.mock;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * For testing purpose. Clock which moves only when it is told to.
+ * Unlike Clock.fixed it's mutable, so the same instance can drive time for a whole simulation.
+ */
+public class VirtualClock extends Clock {
+    private final ZoneId zone;
+    private volatile long millis;
+
+    public VirtualClock(long startMillis) {
+        this(startMillis, ZoneOffset.UTC);
+    }
+
+    private VirtualClock(long startMillis, ZoneId zone) {
+        this.millis = startMillis;
+        this.zone = zone;
+    }
+
+    /**
+     * @param targetMillis - should not be in the past
+     */
+    public void advanceTo(long targetMillis) {
+        if (targetMillis < millis) {
+            throw new IllegalArgumentException("Virtual time cannot go back");
+        }
+        this.millis = targetMillis;
+    }
+
+    public void advance(long deltaMillis) {
+        advanceTo(millis + deltaMillis);
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new VirtualClock(millis, zone);
+    }
+}
@@ -0,0 +1,101 @@
+package com.secretcompany.mock;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.service.SlaService;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stub. For testing purpose.
+ * SlaService with latency in virtual time. No threads at all: responses are completed in the caller thread
+ * by {@link #completeDue()} once {@link VirtualClock} passes their due time.
+ * Not thread-safe. Intended for single threaded simulations.
+ */
+public class VirtualTimeSlaService implements SlaService {
+    private final VirtualClock clock;
+    private final long latencyMillis;
+    private final Map<String, Sla> tokenToSla;
+    private final PriorityQueue<PendingResponse> pending = new PriorityQueue<>();
+
+    private long calls;
+    private long sequence;
+
+    /**
+     * @param tokenToSla - known tokens. SlaService returns null for the others.
+     */
+    public VirtualTimeSlaService(final VirtualClock clock, final long latencyMillis, final Map<String, Sla> tokenToSla) {
+        Objects.requireNonNull(clock, "Clock is required");
+        Objects.requireNonNull(tokenToSla, "Token to Sla mapping is required");
+        if (latencyMillis < 0) {
+            throw new IllegalArgumentException("Latency should be >= 0");
+        }
+        this.clock = clock;
+        this.latencyMillis = latencyMillis;
+        this.tokenToSla = tokenToSla;
+    }
+
+    @Override
+    public CompletableFuture<Sla> getSlaByToken(final String token) {
+        calls++;
+        final CompletableFuture<Sla> response = new CompletableFuture<>();
+        pending.add(new PendingResponse(clock.millis() + latencyMillis, sequence++, token, response));
+        return response;
+    }
+
+    /**
+     * Complete all responses which are due at current virtual time. In order of their due time.
+     * @return number of completed responses
+     */
+    public int completeDue() {
+        int completed = 0;
+        final long now = clock.millis();
+        while (!pending.isEmpty() && pending.peek().dueMillis <= now) {
+            final PendingResponse response = pending.poll();
+            response.future.complete(tokenToSla.get(response.token));
+            completed++;
+        }
+        return completed;
+    }
+
+    /**
+     * @return due time of the earliest pending response or Long.MAX_VALUE if there are none
+     */
+    public long nextDueMillis() {
+        return pending.isEmpty() ? Long.MAX_VALUE : pending.peek().dueMillis;
+    }
+
+    /**
+     * @return number of calls to SlaService backend
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    private static class PendingResponse implements Comparable<PendingResponse> {
+        private final long dueMillis;
+        //keeps FIFO order for the same due time
+        private final long sequence;
+        private final String token;
+        private final CompletableFuture<Sla> future;
+
+        private PendingResponse(long dueMillis, long sequence, String token, CompletableFuture<Sla> future) {
+            this.dueMillis = dueMillis;
+            this.sequence = sequence;
+            this.token = token;
+            this.future = future;
+        }
+
+        @Override
+        public int compareTo(PendingResponse other) {
+            final int byDue = Long.compare(dueMillis, other.dueMillis);
+            return byDue != 0 ? byDue : Long.compare(sequence, other.sequence);
+        }
+    }
+}
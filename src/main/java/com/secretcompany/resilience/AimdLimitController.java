@@ -0,0 +1,180 @@
+package com.secretcompany.resilience;
+
+import com.secretcompany.service.DownstreamFeedback;
+import com.secretcompany.timer.HashedWheelTimer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.secretcompany.dto.Sla.NO_LIMIT;
+
+/**
+ * Additive increase / multiplicative decrease of limits by downstream feedback.
+ *
+ * Two scales within [minScale, 1]: one for guest RPS and one for RPS of Sla users. Limits are never above the contracted ones.
+ * Each tick judges responses reported since the previous one. Downstream is congested if error rate is over maxErrorRate
+ * or average latency is over the target.
+ * 1. Congested -> guest scale is multiplied by decreaseFactor. Sla scale only once guests are at minScale.
+ * 2. Healthy -> Sla scale is increased by increaseStep. Guest scale only once Sla users are back to their contracted RPS.
+ * 3. No responses -> nothing to judge by, scales are kept.
+ *
+ * Feedback is recorded by LongAdders: no lock for request threads. Scales are volatile and change on ticks only.
+ */
+public class AimdLimitController implements DownstreamFeedback, AutoCloseable {
+    public static final double DEFAULT_DECREASE_FACTOR = 0.7;
+    public static final double DEFAULT_INCREASE_STEP = 0.05;
+    public static final double DEFAULT_MIN_SCALE = 0.1;
+
+    private final long latencyTargetNanos;
+    private final double maxErrorRate;
+    private final double decreaseFactor;
+    private final double increaseStep;
+    private final double minScale;
+    // null -> tick is called by the owner
+    private final HashedWheelTimer timer;
+    private final long tickMillis;
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final List<Runnable> scaleListeners = new CopyOnWriteArrayList<>();
+
+    private volatile double guestScale = 1.0;
+    private volatile double slaScale = 1.0;
+    private volatile boolean stopped;
+
+    public AimdLimitController(final HashedWheelTimer timer, final Duration tickPeriod, final Duration latencyTarget,
+                               final double maxErrorRate) {
+        this(timer, tickPeriod, latencyTarget, maxErrorRate, DEFAULT_DECREASE_FACTOR, DEFAULT_INCREASE_STEP, DEFAULT_MIN_SCALE);
+    }
+
+    /**
+     * @param timer - nullable. {@link #tick()} is called every tickPeriod by this timer if present.
+     * @param maxErrorRate - share of failed responses within [0, 1] which is still healthy
+     * @param decreaseFactor - scale is multiplied by it on congestion. Within (0, 1)
+     * @param increaseStep - scale is increased by it when healthy. Within (0, 1]
+     * @param minScale - scales never go below it. Within (0, 1]
+     */
+    public AimdLimitController(final HashedWheelTimer timer, final Duration tickPeriod, final Duration latencyTarget,
+                               final double maxErrorRate, final double decreaseFactor, final double increaseStep,
+                               final double minScale) {
+        Objects.requireNonNull(tickPeriod, "Tick period is required");
+        Objects.requireNonNull(latencyTarget, "Latency target is required");
+        if (tickPeriod.isNegative() || tickPeriod.isZero()) {
+            throw new IllegalArgumentException("Tick period should be > 0");
+        }
+        if (latencyTarget.isNegative() || latencyTarget.isZero()) {
+            throw new IllegalArgumentException("Latency target should be > 0");
+        }
+        if (maxErrorRate < 0 || maxErrorRate > 1) {
+            throw new IllegalArgumentException("Max error rate should be within [0, 1]");
+        }
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("Decrease factor should be within (0, 1)");
+        }
+        if (increaseStep <= 0 || increaseStep > 1) {
+            throw new IllegalArgumentException("Increase step should be within (0, 1]");
+        }
+        if (minScale <= 0 || minScale > 1) {
+            throw new IllegalArgumentException("Min scale should be within (0, 1]");
+        }
+        this.latencyTargetNanos = latencyTarget.toNanos();
+        this.maxErrorRate = maxErrorRate;
+        this.decreaseFactor = decreaseFactor;
+        this.increaseStep = increaseStep;
+        this.minScale = minScale;
+        this.timer = timer;
+        this.tickMillis = tickPeriod.toMillis();
+        scheduleTick();
+    }
+
+    @Override
+    public void onDownstreamResponse(long latencyNanos, boolean error) {
+        responses.increment();
+        this.latencyNanos.add(latencyNanos);
+        if (error) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Judge responses since the previous tick and adjust scales. Listeners are called if any scale has changed.
+     */
+    public synchronized void tick() {
+        //adders are reset one by one. A response reported in between is judged by the next tick partially. Fine for a trend
+        final long count = responses.sumThenReset();
+        final long failed = errors.sumThenReset();
+        final long totalLatencyNanos = latencyNanos.sumThenReset();
+        if (count == 0) {
+            return;
+        }
+        final double previousGuestScale = guestScale;
+        final double previousSlaScale = slaScale;
+        if (failed > count * maxErrorRate || totalLatencyNanos / count > latencyTargetNanos) {
+            //guests give way first
+            if (previousGuestScale > minScale) {
+                guestScale = Math.max(minScale, previousGuestScale * decreaseFactor);
+            } else {
+                slaScale = Math.max(minScale, previousSlaScale * decreaseFactor);
+            }
+        } else {
+            //Sla users are restored first
+            if (previousSlaScale < 1.0) {
+                slaScale = Math.min(1.0, previousSlaScale + increaseStep);
+            } else {
+                guestScale = Math.min(1.0, previousGuestScale + increaseStep);
+            }
+        }
+        if (guestScale != previousGuestScale || slaScale != previousSlaScale) {
+            scaleListeners.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * @param listener - called by the ticking thread after scales have changed
+     */
+    public void addScaleListener(final Runnable listener) {
+        Objects.requireNonNull(listener, "Listener is required");
+        scaleListeners.add(listener);
+    }
+
+    public double getGuestScale() {
+        return guestScale;
+    }
+
+    public double getSlaScale() {
+        return slaScale;
+    }
+
+    /**
+     * @return rps multiplied by the scale, but at least 1 for a positive limit. NO_LIMIT stays NO_LIMIT,
+     * 0 (nothing is allowed, for ex.: a blocked resource) stays 0.
+     */
+    public static long scale(long rps, double scale) {
+        if (rps == NO_LIMIT || rps <= 0 || scale >= 1.0) {
+            return rps;
+        }
+        return Math.max(1L, (long) (rps * scale));
+    }
+
+    /**
+     * Stop ticking by the timer. The timer itself is not closed.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+    }
+
+    private void scheduleTick() {
+        if (Objects.isNull(timer) || stopped) {
+            return;
+        }
+        timer.schedule(() -> {
+            tick();
+            scheduleTick();
+        }, tickMillis, TimeUnit.MILLISECONDS);
+    }
+}
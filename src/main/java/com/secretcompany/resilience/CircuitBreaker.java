@@ -0,0 +1,119 @@
+package com.secretcompany.resilience;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker by consecutive failures.
+ *
+ * CLOSED: all calls are permitted. After failureThreshold consecutive failures it becomes OPEN.
+ * OPEN: all calls are rejected till openDuration passes. Then the first caller gets the only trial call: HALF_OPEN.
+ * HALF_OPEN: the trial call is in progress, the others are rejected. Success -> CLOSED, failure -> OPEN again.
+ *
+ * Every permitted call should end with {@link #onSuccess(long)} or {@link #onFailure(long)} with its permit.
+ * Otherwise HALF_OPEN is never left, so calls should have a timeout. Permit of the trial call is unique, so results
+ * of calls made before opening don't decide HALF_OPEN: only the trial call does.
+ *
+ * Lock-free. State and time of the last opening are packed into one long, so they are always changed together.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    // call isn't permitted
+    public static final long NO_PERMISSION = -1L;
+
+    private static final int STATE_BITS = 2;
+    private static final long STATE_MASK = (1L << STATE_BITS) - 1;
+    private static final State[] STATES = State.values();
+
+    private final int failureThreshold;
+    private final long openMillis;
+    // (openedAtMillis << STATE_BITS) | state
+    private final AtomicLong stateAndTime = new AtomicLong(pack(State.CLOSED, 0L));
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private Clock systemClock = Clock.systemUTC();
+
+    /**
+     * @param failureThreshold - consecutive failures which open the breaker
+     * @param openDuration - time to reject all calls before the trial one
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        Objects.requireNonNull(openDuration, "Open duration is required");
+        if (failureThreshold <= 0 || openDuration.isNegative()) {
+            throw new IllegalArgumentException("Failure threshold should be > 0 and open duration should be >= 0");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openDuration.toMillis();
+    }
+
+    /**
+     * @return permit of the call or NO_PERMISSION. Caller should report its result with the permit then.
+     */
+    public long acquirePermission() {
+        final long current = stateAndTime.get();
+        final State state = stateOf(current);
+        if (state == State.CLOSED) {
+            return current;
+        }
+        if (state == State.HALF_OPEN) {
+            return NO_PERMISSION;
+        }
+        // open. Only one caller wins the trial call
+        final long now = systemClock.millis();
+        final long trial = pack(State.HALF_OPEN, now);
+        return now - (current >>> STATE_BITS) >= openMillis && stateAndTime.compareAndSet(current, trial) ? trial : NO_PERMISSION;
+    }
+
+    /**
+     * @param permit - of the succeeded call
+     */
+    public void onSuccess(long permit) {
+        failures.set(0);
+        final long current = stateAndTime.get();
+        //late success of a call made before opening doesn't close the breaker. Only the trial call does.
+        if (stateOf(current) == State.HALF_OPEN && current == permit) {
+            stateAndTime.compareAndSet(current, pack(State.CLOSED, 0L));
+        }
+    }
+
+    /**
+     * @param permit - of the failed call
+     */
+    public void onFailure(long permit) {
+        final long current = stateAndTime.get();
+        final State state = stateOf(current);
+        //late failure of a call made before opening doesn't reopen the breaker while the trial call is in progress
+        if ((state == State.HALF_OPEN && current == permit)
+                || (state == State.CLOSED && failures.incrementAndGet() >= failureThreshold)) {
+            if (stateAndTime.compareAndSet(current, pack(State.OPEN, systemClock.millis()))) {
+                failures.set(0);
+            }
+        }
+    }
+
+    public State getState() {
+        return stateOf(stateAndTime.get());
+    }
+
+    @VisibleForTesting
+    void setSystemClock(Clock systemClock) {
+        this.systemClock = systemClock;
+    }
+
+    private static long pack(State state, long millis) {
+        return (millis << STATE_BITS) | state.ordinal();
+    }
+
+    private static State stateOf(long stateAndTime) {
+        return STATES[(int) (stateAndTime & STATE_MASK)];
+    }
+}
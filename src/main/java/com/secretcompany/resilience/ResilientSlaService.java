@@ -0,0 +1,172 @@
+package com.secretcompany.resilience;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.exception.SlaServiceUnavailableException;
+import com.secretcompany.metrics.LatencyHistogram;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.service.SlaService;
+import com.secretcompany.timer.HashedWheelTimer;
+import com.secretcompany.timer.Timeout;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decorator of SlaService which doesn't let slow or failing backend pile up requests.
+ *
+ * 1. Timeout per call: response is failed with TimeoutException after callTimeout even if backend never responds.
+ * 2. Circuit breaker: while backend fails (timeouts included) new calls fail fast with {@link SlaServiceUnavailableException}
+ *    without calling backend. Throttling services keep cached Sla, tokens without Sla compete for guest RPS.
+ * 3. Optional hedging: if there is no response after p95 of observed latency (not less than hedgeDelay),
+ *    the same request is sent once more. The first response wins. Circuit breaker counts the whole call once.
+ *
+ * Backend is called in callExecutor. SlaService which blocks the calling thread (like LongRunningSlaService)
+ * occupies threads of callExecutor only: neither the caller nor the timer thread waits for it.
+ */
+public class ResilientSlaService implements SlaService {
+    // p95 is recalculated once per this number of successful calls
+    private static final int HEDGE_REFRESH_CALLS = 64;
+    private static final double HEDGE_PERCENTILE = 95;
+
+    private final SlaService delegate;
+    private final Executor callExecutor;
+    private final HashedWheelTimer timer;
+    private final long callTimeoutMillis;
+    private final CircuitBreaker circuitBreaker;
+    // 0 -> no hedging
+    private final long minHedgeDelayNanos;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong successes = new AtomicLong();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile long hedgeDelayNanos;
+
+    public ResilientSlaService(final SlaService delegate, final Executor callExecutor, final HashedWheelTimer timer,
+                               final Duration callTimeout, final CircuitBreaker circuitBreaker) {
+        this(delegate, callExecutor, timer, callTimeout, circuitBreaker, Duration.ZERO, ThrottlingMetrics.NOOP);
+    }
+
+    /**
+     * @param hedgeDelay - zero -> no hedging. Otherwise the lower bound of delay before the hedged request.
+     */
+    public ResilientSlaService(final SlaService delegate, final Executor callExecutor, final HashedWheelTimer timer,
+                               final Duration callTimeout, final CircuitBreaker circuitBreaker, final Duration hedgeDelay,
+                               final ThrottlingMetrics metrics) {
+        Objects.requireNonNull(delegate, "SlaService is required");
+        Objects.requireNonNull(callExecutor, "Executor is required");
+        Objects.requireNonNull(timer, "Timer is required");
+        Objects.requireNonNull(callTimeout, "Call timeout is required");
+        Objects.requireNonNull(circuitBreaker, "Circuit breaker is required");
+        Objects.requireNonNull(hedgeDelay, "Hedge delay is required");
+        Objects.requireNonNull(metrics, "Metrics are required");
+        if (callTimeout.isNegative() || callTimeout.isZero() || hedgeDelay.isNegative()) {
+            throw new IllegalArgumentException("Call timeout should be > 0 and hedge delay should be >= 0");
+        }
+        this.delegate = delegate;
+        this.callExecutor = callExecutor;
+        this.timer = timer;
+        this.callTimeoutMillis = callTimeout.toMillis();
+        this.circuitBreaker = circuitBreaker;
+        this.minHedgeDelayNanos = hedgeDelay.toNanos();
+        this.hedgeDelayNanos = minHedgeDelayNanos;
+
+        metrics.registerGauge("throttling.sla.breaker.open", () -> circuitBreaker.getState() == CircuitBreaker.State.CLOSED ? 0L : 1L);
+        metrics.registerGauge("throttling.sla.hedged", hedged::sum);
+        metrics.registerGauge("throttling.sla.rejected", rejected::sum);
+    }
+
+    @Override
+    public CompletableFuture<Sla> getSlaByToken(final String token) {
+        final long permit = circuitBreaker.acquirePermission();
+        if (permit == CircuitBreaker.NO_PERMISSION) {
+            rejected.increment();
+            final CompletableFuture<Sla> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new SlaServiceUnavailableException("Circuit breaker is open"));
+            return failed;
+        }
+        final long startNanos = System.nanoTime();
+        final CompletableFuture<Sla> response = new CompletableFuture<>();
+        final Timeout timeout = timer.schedule(() -> response.completeExceptionally(new TimeoutException("Sla request timed out")),
+                callTimeoutMillis, TimeUnit.MILLISECONDS);
+        final long hedgeDelay = hedgeDelayNanos;
+        final Timeout hedge = hedgeDelay > 0 && TimeUnit.NANOSECONDS.toMillis(hedgeDelay) < callTimeoutMillis
+                ? timer.schedule(() -> hedge(token, response), hedgeDelay, TimeUnit.NANOSECONDS)
+                : null;
+        //caller sees the response once circuit breaker knows about it
+        final CompletableFuture<Sla> result = response.whenComplete((sla, throwable) -> {
+            //answered: don't keep the tasks in the wheel until they are due
+            timeout.cancel();
+            if (Objects.nonNull(hedge)) {
+                hedge.cancel();
+            }
+            onComplete(permit, startNanos, throwable);
+        });
+        //called after the tasks are scheduled: backend may respond in this thread
+        call(token, response);
+        return result;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public long getHedged() {
+        return hedged.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private void hedge(String token, CompletableFuture<Sla> response) {
+        if (!response.isDone()) {
+            hedged.increment();
+            call(token, response);
+        }
+    }
+
+    /**
+     * The first completion of backend's response wins. Late one is ignored by CompletableFuture.
+     */
+    private void call(String token, CompletableFuture<Sla> response) {
+        try {
+            callExecutor.execute(() -> {
+                try {
+                    delegate.getSlaByToken(token).whenComplete((sla, throwable) -> {
+                        if (Objects.nonNull(throwable)) {
+                            response.completeExceptionally(throwable);
+                        } else {
+                            response.complete(sla);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    response.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            //executor is saturated or shut down
+            response.completeExceptionally(e);
+        }
+    }
+
+    private void onComplete(long permit, long startNanos, Throwable throwable) {
+        if (Objects.nonNull(throwable)) {
+            circuitBreaker.onFailure(permit);
+            return;
+        }
+        circuitBreaker.onSuccess(permit);
+        if (minHedgeDelayNanos > 0) {
+            latency.record(System.nanoTime() - startNanos);
+            if (successes.incrementAndGet() % HEDGE_REFRESH_CALLS == 0) {
+                hedgeDelayNanos = Math.max(minHedgeDelayNanos, latency.getPercentile(HEDGE_PERCENTILE));
+            }
+        }
+    }
+}
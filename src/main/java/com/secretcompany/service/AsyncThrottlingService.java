@@ -0,0 +1,16 @@
+package com.secretcompany.service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Delays requests instead of rejecting them. For clients which prefer to wait a bit, for ex. internal batch clients.
+ */
+@FunctionalInterface
+public interface AsyncThrottlingService {
+
+    /**
+     * @return future which completes once request is within allowed RPS. Completes exceptionally with
+     * RequestThrottledException if permit isn't available within max wait or too many requests are waiting already.
+     */
+    CompletableFuture<Void> acquire(final String token);
+}
@@ -0,0 +1,15 @@
+package com.secretcompany.service;
+
+/**
+ * Limits requests in flight instead of requests per second. Slow requests don't pile up:
+ * 100 RPS of 10 second requests are 1000 requests in flight.
+ */
+@FunctionalInterface
+public interface ConcurrencyThrottlingService {
+
+    /**
+     * @return permit to release once request has completed, or null if too many requests are in flight.
+     * Null is a valid resource of try-with-resources.
+     */
+    Permit tryAcquireConcurrent(final String token);
+}
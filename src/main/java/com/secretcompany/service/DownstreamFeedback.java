@@ -0,0 +1,13 @@
+package com.secretcompany.service;
+
+/**
+ * Outcome of a request which has been allowed and passed to the downstream. Called by request threads, should be short.
+ */
+public interface DownstreamFeedback {
+
+    /**
+     * @param latencyNanos - time the downstream took to respond
+     * @param error - true if the downstream failed or timed out
+     */
+    void onDownstreamResponse(final long latencyNanos, final boolean error);
+}
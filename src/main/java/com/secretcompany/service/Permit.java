@@ -0,0 +1,15 @@
+package com.secretcompany.service;
+
+/**
+ * Request in flight. Released once the request has completed: explicitly or by try-with-resources.
+ * Release is idempotent.
+ */
+public interface Permit extends AutoCloseable {
+
+    void release();
+
+    @Override
+    default void close() {
+        release();
+    }
+}
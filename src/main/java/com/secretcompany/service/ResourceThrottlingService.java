@@ -0,0 +1,15 @@
+package com.secretcompany.service;
+
+/**
+ * Different limits per API resource (for ex.: /search and /upload) for the same user.
+ * Resource ids are small ordinals defined by the API, for ex.: ordinal of an enum of endpoints.
+ */
+@FunctionalInterface
+public interface ResourceThrottlingService {
+
+    /**
+     * @param resourceId - within 0..255 or {@link com.secretcompany.dto.Sla#NO_RESOURCE}
+     * @return true if request is within RPS of the user and RPS of the user for the resource, false otherwise
+     */
+    boolean isRequestAllowed(final String token, final int resourceId);
+}
@@ -0,0 +1,19 @@
+package com.secretcompany.service;
+
+import com.secretcompany.dto.Sla;
+
+/**
+ * Receives Sla changes pushed by {@link SlaUpdateSource}. Called by the source's thread, should be short.
+ */
+public interface SlaChangeListener {
+
+    /**
+     * @param sla - new Sla of the token. Null if the token has been revoked.
+     */
+    void onTokenSla(final String token, final Sla sla);
+
+    /**
+     * @param sla - new Sla of all tokens of the user
+     */
+    void onUserSla(final String user, final Sla sla);
+}
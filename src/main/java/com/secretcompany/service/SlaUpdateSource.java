@@ -0,0 +1,13 @@
+package com.secretcompany.service;
+
+/**
+ * Source of Sla which pushes changes instead of being polled by {@link SlaService#getSlaByToken(String)}.
+ */
+@FunctionalInterface
+public interface SlaUpdateSource {
+
+    /**
+     * Listener gets all changes published after subscription.
+     */
+    void subscribe(final SlaChangeListener listener);
+}
@@ -0,0 +1,227 @@
+package com.secretcompany.service.impl;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.secretcompany.collection.StripedSemaphore;
+import com.secretcompany.dto.KeyClass;
+import com.secretcompany.dto.Sla;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.service.ConcurrencyThrottlingService;
+import com.secretcompany.service.Permit;
+import org.apache.commons.lang3.StringUtils;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.secretcompany.dto.Sla.NO_LIMIT;
+
+/**
+ * Requests in flight per user and globally. The same Sla resolution and key classes as RPS limits:
+ * 1. No token -> UnAuthorized Users. All compete for guest concurrency.
+ * 2. Token, No Sla -> Authorized Users w/o SLA. All compete for own guest concurrency.
+ * 3. Token and Sla -> each user has own concurrency: RPS of the Sla during max latency (Little's law), at least 1.
+ *
+ * Sla comes from {@link SlaResolver}, which can be shared with {@link WindowThrottlingServiceImpl}.
+ *
+ * Global limit is {@link StripedSemaphore}: acquire and release by many threads don't contend for one counter.
+ * Per user counter is contended only by requests of the same user, at most its concurrency of them.
+ * Counter of a user exists only while the user has requests in flight: it's removed once it falls to zero,
+ * so the number of counters is bounded by requests in flight, not by all users ever seen.
+ */
+public class ConcurrencyThrottlingServiceImpl implements ConcurrencyThrottlingService {
+    // counter of a user which has fallen to zero and is being removed
+    private static final int RETIRED = -1;
+
+    private final SlaResolver slaResolver;
+    private final int guestConcurrency;
+    private final long maxLatencyMillis;
+    private final StripedSemaphore globalPermits;
+    private final AtomicInteger unauthorizedInFlight = new AtomicInteger();
+    private final AtomicInteger authorizedWithoutSlaInFlight = new AtomicInteger();
+    private final Map<String, AtomicInteger> userToInFlightMap = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    public ConcurrencyThrottlingServiceImpl(final SlaResolver slaResolver, final int guestConcurrency,
+                                            final Duration maxLatency, final int globalConcurrency) {
+        this(slaResolver, guestConcurrency, maxLatency, globalConcurrency, ThrottlingMetrics.NOOP);
+    }
+
+    /**
+     * @param guestConcurrency - requests in flight of each guest class
+     * @param maxLatency - expected max latency of a request. Concurrency of Sla user is RPS * maxLatency
+     * @param globalConcurrency - requests in flight of all users together
+     */
+    public ConcurrencyThrottlingServiceImpl(final SlaResolver slaResolver, final int guestConcurrency,
+                                            final Duration maxLatency, final int globalConcurrency,
+                                            final ThrottlingMetrics metrics) {
+        Objects.requireNonNull(slaResolver, "Sla resolver is required");
+        Objects.requireNonNull(maxLatency, "Max latency is required");
+        Objects.requireNonNull(metrics, "Metrics are required");
+        if (guestConcurrency <= 0 || globalConcurrency <= 0) {
+            throw new IllegalArgumentException("Guest and global concurrency should be > 0");
+        }
+        if (maxLatency.isNegative() || maxLatency.isZero()) {
+            throw new IllegalArgumentException("Max latency should be > 0");
+        }
+        this.slaResolver = slaResolver;
+        this.guestConcurrency = guestConcurrency;
+        this.maxLatencyMillis = maxLatency.toMillis();
+        this.globalPermits = new StripedSemaphore(globalConcurrency);
+
+        metrics.registerGauge("throttling.concurrency.inflight", globalPermits::getAcquired);
+        metrics.registerGauge("throttling.concurrency.rejected", rejected::sum);
+        metrics.registerGauge("throttling.concurrency.users", userToInFlightMap::size);
+    }
+
+    @Override
+    public Permit tryAcquireConcurrent(String token) {
+        if (StringUtils.isNotBlank(token)) {
+            final Sla sla = slaResolver.resolve(token).getSla();
+            if (Objects.nonNull(sla)) {
+                return tryAcquireUser(sla.getUser(), concurrencyOf(sla));
+            }
+            return tryAcquire(null, authorizedWithoutSlaInFlight, guestConcurrency);
+        }
+        return tryAcquire(null, unauthorizedInFlight, guestConcurrency);
+    }
+
+    /**
+     * Counter which has just been retired is removed and replaced by a new one.
+     */
+    private Permit tryAcquireUser(String user, int limit) {
+        while (true) {
+            AtomicInteger inFlight = userToInFlightMap.get(user);
+            if (Objects.isNull(inFlight)) {
+                inFlight = userToInFlightMap.computeIfAbsent(user, u -> new AtomicInteger());
+            }
+            final int acquired = tryIncrement(inFlight, limit);
+            if (acquired == RETIRED) {
+                userToInFlightMap.remove(user, inFlight);
+                continue;
+            }
+            if (acquired == 0) {
+                rejected.increment();
+                return null;
+            }
+            return acquireGlobal(user, inFlight);
+        }
+    }
+
+    private Permit tryAcquire(String user, AtomicInteger inFlight, int limit) {
+        if (tryIncrement(inFlight, limit) == 0) {
+            rejected.increment();
+            return null;
+        }
+        return acquireGlobal(user, inFlight);
+    }
+
+    private Permit acquireGlobal(String user, AtomicInteger inFlight) {
+        final int stripe = globalPermits.tryAcquire();
+        if (stripe == StripedSemaphore.NO_STRIPE) {
+            release(userToInFlightMap, user, inFlight);
+            rejected.increment();
+            return null;
+        }
+        return new InFlightPermit(userToInFlightMap, user, inFlight, globalPermits, stripe);
+    }
+
+    /**
+     * @return requests in flight of the key class. Of all Sla users for SLA_USER
+     */
+    public long getInFlight(KeyClass keyClass) {
+        switch (keyClass) {
+            case UNAUTHORIZED:
+                return unauthorizedInFlight.get();
+            case AUTHORIZED_WITHOUT_SLA:
+                return authorizedWithoutSlaInFlight.get();
+            default:
+                return userToInFlightMap.values().stream().mapToLong(inFlight -> Math.max(0, inFlight.get())).sum();
+        }
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private int concurrencyOf(Sla sla) {
+        if (sla.getRps() == NO_LIMIT) {
+            return Integer.MAX_VALUE;
+        }
+        //ceil of rps * latency in seconds. In double: no overflow of long
+        final double concurrency = Math.ceil(sla.getRps() * (maxLatencyMillis / 1000.0));
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, concurrency));
+    }
+
+    /**
+     * @return users with requests in flight
+     */
+    @VisibleForTesting
+    int getUsers() {
+        return userToInFlightMap.size();
+    }
+
+    /**
+     * @return 1 if incremented, 0 if the limit is reached, RETIRED if the counter is retired
+     */
+    private static int tryIncrement(AtomicInteger inFlight, int limit) {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current == RETIRED) {
+                return RETIRED;
+            }
+            if (current >= limit) {
+                return 0;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return 1;
+    }
+
+    /**
+     * Counter of a user is retired and removed once it falls to zero. Retiring fails if a request has just
+     * incremented it: the counter is kept then.
+     * @param user - null for counters of guest classes, they are never removed
+     */
+    private static void release(Map<String, AtomicInteger> userToInFlightMap, String user, AtomicInteger inFlight) {
+        if (inFlight.decrementAndGet() == 0 && Objects.nonNull(user) && inFlight.compareAndSet(0, RETIRED)) {
+            userToInFlightMap.remove(user, inFlight);
+        }
+    }
+
+    /**
+     * Counter of the key class and stripe of the global permit. No AtomicBoolean per permit: field updater
+     */
+    private static class InFlightPermit implements Permit {
+        private static final AtomicIntegerFieldUpdater<InFlightPermit> RELEASED =
+                AtomicIntegerFieldUpdater.newUpdater(InFlightPermit.class, "released");
+
+        private final Map<String, AtomicInteger> userToInFlightMap;
+        // null for guest classes
+        private final String user;
+        private final AtomicInteger inFlight;
+        private final StripedSemaphore globalPermits;
+        private final int stripe;
+        private volatile int released;
+
+        private InFlightPermit(Map<String, AtomicInteger> userToInFlightMap, String user, AtomicInteger inFlight,
+                               StripedSemaphore globalPermits, int stripe) {
+            this.userToInFlightMap = userToInFlightMap;
+            this.user = user;
+            this.inFlight = inFlight;
+            this.globalPermits = globalPermits;
+            this.stripe = stripe;
+        }
+
+        @Override
+        public void release() {
+            if (RELEASED.compareAndSet(this, 0, 1)) {
+                ConcurrencyThrottlingServiceImpl.release(userToInFlightMap, user, inFlight);
+                globalPermits.release(stripe);
+            }
+        }
+    }
+}
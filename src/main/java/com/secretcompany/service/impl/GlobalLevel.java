@@ -0,0 +1,57 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.dto.Priority;
+
+import java.util.Objects;
+
+import static com.secretcompany.dto.Sla.NO_LIMIT;
+import static com.secretcompany.service.impl.Window.REJECTED;
+import static com.secretcompany.service.impl.Window.SKIPPED;
+import static com.secretcompany.service.impl.Window.UNDECIDED;
+
+/**
+ * Global level: a single window of the whole gateway and optional {@link PriorityBudget}. Budget splits global RPS
+ * between priority tiers of Sla, so guests can't take capacity reserved for Sla users during a flood.
+ * Budget is checked after global RPS if both are set.
+ */
+final class GlobalLevel {
+    private final long rps;
+    private final Window window = new Window();
+    // null -> no priority tiers
+    private final PriorityBudget priorityBudget;
+    // 0 -> blocking
+    private final int maxAttempts;
+
+    /**
+     * @param priorityBudget - nullable. Global RPS per priority tier if present. rps is usually NO_LIMIT then.
+     */
+    GlobalLevel(final long rps, final PriorityBudget priorityBudget, final int maxAttempts) {
+        this.rps = rps;
+        this.priorityBudget = priorityBudget;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return window start, SKIPPED, REJECTED or UNDECIDED. Nothing is consumed if rejected.
+     */
+    long acquire(long currentMillis, Priority priority) {
+        final long start = rps == NO_LIMIT ? SKIPPED : window.acquire(currentMillis, rps, maxAttempts);
+        if (start == REJECTED || start == UNDECIDED) {
+            return start;
+        }
+        if (Objects.nonNull(priorityBudget) && !priorityBudget.tryAcquire(currentMillis, priority)) {
+            if (start != SKIPPED) {
+                window.release(start, maxAttempts);
+            }
+            return REJECTED;
+        }
+        return start;
+    }
+
+    /**
+     * @return number of windows: 1 if limited
+     */
+    int size() {
+        return rps == NO_LIMIT ? 0 : 1;
+    }
+}
@@ -0,0 +1,163 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.collection.ConcurrentLongObjectMap;
+import com.secretcompany.sketch.CountMinSketch;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.secretcompany.service.impl.Window.REJECTED;
+import static com.secretcompany.service.impl.Window.RETIRED;
+import static com.secretcompany.service.impl.Window.WINDOW_MILLIS;
+
+/**
+ * Approximate per-key RPS in fixed memory. For keys which can't be counted exactly: millions of random tokens.
+ * Keys are token ids of {@link ResolvedToken}.
+ *
+ * 1. Each second (aligned to epoch) has its own {@link CountMinSketch}. Two sketches are reused in turns.
+ *    Request is denied once estimate exceeds RPS. Estimate is never below the real count, so a key never gets more
+ *    than RPS. Light key can be denied by mistake only if estimate error is above its spare RPS (see sketch bounds).
+ * 2. Key which has used more than a half of RPS within a second is a heavy hitter. Up to topK heavy hitters get exact
+ *    windows starting with the next second and are no longer counted by sketch. So heavy keys don't pollute sketch
+ *    and don't increase the error for the rest of keys. Within a second key is counted either by sketch or by its
+ *    exact window, never by both.
+ *
+ * 3. Heavy hitters which haven't sent a request for a whole second are evicted when the sketch of the next second
+ *    is cleared, not on a request: requests never scan the exact windows.
+ *
+ * Memory: two sketches + topK exact windows whatever the number of keys is.
+ */
+public class HeavyHitterLimiter {
+    private final CountMinSketch[] sketches;
+    private final AtomicLongArray sketchSeconds = new AtomicLongArray(new long[]{Long.MIN_VALUE, Long.MIN_VALUE});
+    private final int topK;
+    private final ConcurrentLongObjectMap<HeavyWindow> heavyHitters = new ConcurrentLongObjectMap<>();
+
+    public HeavyHitterLimiter() {
+        this(4096, 4, 1024);
+    }
+
+    /**
+     * @param width - width of each sketch
+     * @param depth - depth of each sketch
+     * @param topK - max number of heavy hitters with exact windows
+     */
+    public HeavyHitterLimiter(final int width, final int depth, final int topK) {
+        if (topK < 0) {
+            throw new IllegalArgumentException("TopK should be >= 0");
+        }
+        this.sketches = new CountMinSketch[]{new CountMinSketch(width, depth), new CountMinSketch(width, depth)};
+        this.topK = topK;
+    }
+
+    /**
+     * @return true if key is within RPS. Nothing is consumed otherwise.
+     */
+    public boolean tryAcquire(long currentMillis, long key, long rps) {
+        final long second = Math.floorDiv(currentMillis, WINDOW_MILLIS);
+
+        final HeavyWindow promoted = heavyHitters.get(key);
+        //exact window of heavy hitter starts with the next second after promotion
+        if (Objects.nonNull(promoted) && currentMillis >= promoted.fromMillis) {
+            //aligned to the second: window of the next second starts with full RPS
+            final long acquired = promoted.acquire(second * WINDOW_MILLIS, rps, 0);
+            //retired if it has been just evicted. Count by sketch then.
+            if (acquired != RETIRED) {
+                return acquired != REJECTED;
+            }
+        }
+
+        final CountMinSketch sketch = sketchOf(second);
+        final long estimate = sketch.add(key, 1);
+        if (estimate > rps) {
+            sketch.add(key, -1);
+            return false;
+        }
+        if (estimate > rps / 2 && estimate > 1) {
+            promote(key, second + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Return permit back. For ex.: request is rejected on another level.
+     */
+    public void release(long currentMillis, long key) {
+        final long second = Math.floorDiv(currentMillis, WINDOW_MILLIS);
+        final HeavyWindow promoted = heavyHitters.get(key);
+        if (Objects.nonNull(promoted) && currentMillis >= promoted.fromMillis) {
+            promoted.release(second * WINDOW_MILLIS, 0);
+            return;
+        }
+        final int slot = (int) (second & 1);
+        if (sketchSeconds.get(slot) == second) {
+            sketches[slot].add(key, -1);
+        }
+    }
+
+    /**
+     * @return number of keys with exact windows. About topK at most: concurrent promotions can exceed it a bit.
+     */
+    public int getHeavyHitters() {
+        return heavyHitters.size();
+    }
+
+    /**
+     * Exact window starting with the given second.
+     */
+    private void promote(long key, long second) {
+        //full: stays in sketch till windows unused for a second are evicted at rollover. O(1) per request
+        if (heavyHitters.size() >= topK) {
+            return;
+        }
+        heavyHitters.putIfAbsent(key, new HeavyWindow(second * WINDOW_MILLIS));
+    }
+
+    /**
+     * Sketch of the given second. Sketch of second - 2 is cleared and reused.
+     * Once per second, so heavy hitters are evicted here too.
+     */
+    private CountMinSketch sketchOf(long second) {
+        final int slot = (int) (second & 1);
+        final CountMinSketch sketch = sketches[slot];
+        if (sketchSeconds.get(slot) != second) {
+            synchronized (sketch) {
+                if (sketchSeconds.get(slot) < second) {
+                    sketch.clear();
+                    sketchSeconds.set(slot, second);
+                    evictIdle(second);
+                }
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * Active heavy hitter renews its window each second. Window which has ended before the previous second
+     * hasn't been used for a whole second: make room for current heavy hitters. O(topK) once per second.
+     * Evicted window is retired: a request which has already found it counts by sketch instead.
+     */
+    private void evictIdle(long second) {
+        final long now = second * WINDOW_MILLIS;
+        heavyHitters.removeIf(window -> window.retireIfIdle(now, WINDOW_MILLIS) <= 0);
+    }
+
+    /**
+     * Exact window of a heavy hitter: windows aligned to seconds, the first one is the second after promotion.
+     */
+    private static final class HeavyWindow extends Window {
+        private final long fromMillis;
+
+        private HeavyWindow(final long fromMillis) {
+            this.fromMillis = fromMillis;
+        }
+
+        /**
+         * Window which hasn't started yet is active till the end of its first second.
+         */
+        @Override
+        long getActiveUntilMillis() {
+            return Math.max(super.getActiveUntilMillis(), fromMillis + WINDOW_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.secretcompany.service.impl;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.secretcompany.dto.FailurePolicy;
+import com.secretcompany.dto.Sla;
+import com.secretcompany.intern.CompositeKeyEncoder;
+import com.secretcompany.timer.HashedWheelTimer;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.secretcompany.collection.ConcurrentLongObjectMap.NO_KEY;
+import static com.secretcompany.dto.Sla.NO_LIMIT;
+import static com.secretcompany.dto.Sla.NO_RESOURCE;
+import static com.secretcompany.service.impl.Window.REJECTED;
+import static com.secretcompany.service.impl.Window.SKIPPED;
+import static com.secretcompany.service.impl.Window.UNDECIDED;
+import static com.secretcompany.service.impl.Window.WINDOW_MILLIS;
+
+/**
+ * One second windows on several levels checked in one pass: token -> resource -> user -> tenant -> global.
+ * Levels are checked from the most specific to the global one. The first level which rejects the request stops the check
+ * and all permits consumed so far are returned back. So upper levels are never
+ * over-consumed by requests which are rejected on lower levels. Level with NO_LIMIT (or without key) is skipped.
+ *
+ * Each level keeps a mutable {@link Window} per primitive key (token id of {@link ResolvedToken}, user and tenant ids
+ * of Sla), so a decision neither allocates nor writes to the maps. See {@link TokenLevel}, {@link UserLevel},
+ * {@link GlobalLevel} for the optional features of each level.
+ *
+ * Fast path for users which have exhausted their windows: rejected by a single volatile read, no lock.
+ *
+ * Optional bounded decisions: lock of each level's window is tried at most N times. Level which is still contended
+ * after that is undecided: permits consumed so far are returned and the request is decided by {@link FailurePolicy}.
+ */
+public class HierarchicalWindowLimiter {
+    /**
+     * Token id of a request without token: token level is skipped.
+     */
+    public static final long NO_TOKEN = NO_KEY;
+
+    private final TokenLevel tokens;
+    // (user, resource) key -> window
+    private final WindowLevel resources;
+    private final UserLevel users;
+    // tenant id -> window. Tenant id could change once all Slas of the tenant are gone: a window is one second only
+    private final WindowLevel tenants;
+    private final GlobalLevel global;
+    private final FailurePolicy failurePolicy;
+    private final LongAdder undecided = new LongAdder();
+
+    /**
+     * Only per-user limits.
+     */
+    public HierarchicalWindowLimiter() {
+        this(builder());
+    }
+
+    private HierarchicalWindowLimiter(final Builder builder) {
+        final long idleMillis = builder.idleTimeout.toMillis();
+        this.tokens = new TokenLevel(builder.tokenRps, builder.approximateTokenLimiter, builder.expiryTimer, idleMillis,
+                builder.maxAttempts);
+        this.resources = new WindowLevel(builder.expiryTimer, idleMillis, builder.maxAttempts);
+        this.users = new UserLevel(builder.slices, builder.leaseSize, builder.maxOverAdmission, builder.expiryTimer,
+                idleMillis, builder.maxAttempts);
+        this.tenants = new WindowLevel(builder.expiryTimer, idleMillis, builder.maxAttempts);
+        this.global = new GlobalLevel(builder.globalRps, builder.priorityBudget, builder.maxAttempts);
+        this.failurePolicy = builder.failurePolicy;
+    }
+
+    /**
+     * Everything is optional: no token and global limits, no smoothing, leasing, expiry or priority tiers,
+     * blocking decisions.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param tokenId - id of {@link ResolvedToken} or NO_TOKEN. Token level is skipped for NO_TOKEN.
+     * @param sla - user level and tenant level. Tenant level is skipped if Sla doesn't have tenant.
+     * @return true if all levels allow the request. Permits are consumed on all levels or none of them.
+     * In bounded mode a request with an undecided level consumes nothing and is decided by the failure policy.
+     */
+    public boolean tryAcquire(long currentMillis, long tokenId, Sla sla) {
+        return tryAcquire(currentMillis, tokenId, sla, NO_RESOURCE);
+    }
+
+    /**
+     * The same with resource level: per-resource RPS of the user from Sla. Skipped for NO_RESOURCE
+     * or resource without RPS in Sla. Keyed by (user, resource) packed into a long by {@link CompositeKeyEncoder}.
+     * @param resourceId - within 0..{@link CompositeKeyEncoder#MAX_RESOURCES} - 1 or NO_RESOURCE
+     */
+    public boolean tryAcquire(long currentMillis, long tokenId, Sla sla, int resourceId) {
+        Objects.requireNonNull(sla, "Sla is required");
+
+        //fast path. Read only
+        final UserWindows user = users.windowsOf(sla);
+        if (users.isDenied(user, sla, currentMillis)) {
+            return false;
+        }
+
+        final long tokenStart = tokens.acquire(currentMillis, tokenId);
+        if (isRejected(tokenStart)) {
+            return rejected(tokenStart);
+        }
+
+        final long resourceRps = sla.getResourceRps(resourceId);
+        final long resourceKey = resourceRps == NO_LIMIT ? NO_KEY : CompositeKeyEncoder.encode(sla, resourceId);
+        final long resourceStart = resourceKey == NO_KEY ? SKIPPED : resources.acquire(resourceKey, resourceRps, currentMillis);
+        if (isRejected(resourceStart)) {
+            tokens.release(currentMillis, tokenId, tokenStart);
+            return rejected(resourceStart);
+        }
+
+        final long userStart = users.acquire(user, sla, currentMillis);
+        if (isRejected(userStart)) {
+            resources.release(resourceKey, resourceStart);
+            tokens.release(currentMillis, tokenId, tokenStart);
+            return rejected(userStart);
+        }
+
+        final long tenantId = sla.getTenantId();
+        final long tenantStart = Objects.isNull(sla.getTenant()) || sla.getTenantRps() == NO_LIMIT
+                ? SKIPPED : tenants.acquire(tenantId, sla.getTenantRps(), currentMillis);
+        if (isRejected(tenantStart)) {
+            users.release(sla, userStart, currentMillis);
+            resources.release(resourceKey, resourceStart);
+            tokens.release(currentMillis, tokenId, tokenStart);
+            return rejected(tenantStart);
+        }
+
+        final long globalStart = global.acquire(currentMillis, sla.getPriority());
+        if (isRejected(globalStart)) {
+            tenants.release(tenantId, tenantStart);
+            users.release(sla, userStart, currentMillis);
+            resources.release(resourceKey, resourceStart);
+            tokens.release(currentMillis, tokenId, tokenStart);
+            return rejected(globalStart);
+        }
+        return true;
+    }
+
+    /**
+     * Permits of all levels are already returned.
+     * @param acquired - REJECTED or UNDECIDED if a level couldn't be decided within bounded attempts
+     */
+    private boolean rejected(long acquired) {
+        if (acquired != UNDECIDED) {
+            return false;
+        }
+        this.undecided.increment();
+        return failurePolicy == FailurePolicy.FAIL_OPEN;
+    }
+
+    private static boolean isRejected(long acquired) {
+        return acquired == REJECTED || acquired == UNDECIDED;
+    }
+
+    /**
+     * Apply changed Sla to the current windows of the user and its tenant instead of waiting for the next ones.
+     * Permits consumed within current windows are kept: remaining = new limit - consumed.
+     * Nothing is done if the Sla belongs to another user now. Tenant window is changed only if the tenant is the same.
+     */
+    public void applySla(long currentMillis, Sla previous, Sla updated) {
+        Objects.requireNonNull(previous, "Previous Sla is required");
+        Objects.requireNonNull(updated, "Updated Sla is required");
+        if (!Objects.equals(previous.getUser(), updated.getUser())) {
+            return;
+        }
+        users.rebase(currentMillis, previous, updated);
+        if (Objects.nonNull(updated.getTenant()) && Objects.equals(previous.getTenant(), updated.getTenant())) {
+            tenants.rebase(updated.getTenantId(), previous.getTenantRps(), updated.getTenantRps());
+        }
+    }
+
+    /**
+     * @return number of windows on all levels
+     */
+    public int size() {
+        return tokens.size() + resources.size() + users.size() + tenants.size() + global.size();
+    }
+
+    /**
+     * @return requests decided by the failure policy: some level couldn't be decided within bounded attempts
+     */
+    public long getUndecided() {
+        return undecided.sum();
+    }
+
+    /**
+     * Clock of idle windows expiry. Should be the same as the one of tryAcquire's currentMillis.
+     */
+    @VisibleForTesting
+    void setSystemClock(Clock systemClock) {
+        tokens.setSystemClock(systemClock);
+        resources.setSystemClock(systemClock);
+        users.setSystemClock(systemClock);
+        tenants.setSystemClock(systemClock);
+    }
+
+    /**
+     * Windows of the user: for ex. to hold their lock from a test.
+     */
+    @VisibleForTesting
+    UserWindows getUserWindows(Sla sla) {
+        return users.windowsOf(sla);
+    }
+
+    public static final class Builder {
+        private long tokenRps = NO_LIMIT;
+        private long globalRps = NO_LIMIT;
+        private int slices = 1;
+        private HeavyHitterLimiter approximateTokenLimiter;
+        private int leaseSize = 1;
+        private long maxOverAdmission = NO_LIMIT;
+        private HashedWheelTimer expiryTimer;
+        private Duration idleTimeout = Duration.ZERO;
+        private PriorityBudget priorityBudget;
+        private int maxAttempts;
+        private FailurePolicy failurePolicy = FailurePolicy.FAIL_CLOSED;
+
+        private Builder() {
+        }
+
+        /**
+         * @param tokenRps - max RPS of any single token or NO_LIMIT
+         */
+        public Builder tokenRps(final long tokenRps) {
+            this.tokenRps = tokenRps;
+            return this;
+        }
+
+        /**
+         * @param globalRps - max RPS of the whole gateway or NO_LIMIT
+         */
+        public Builder globalRps(final long globalRps) {
+            this.globalRps = globalRps;
+            return this;
+        }
+
+        /**
+         * @param slices - number of slices of one second user window. 1 means no smoothing. For ex.: 10 slices by 100 ms.
+         */
+        public Builder slices(final int slices) {
+            this.slices = slices;
+            return this;
+        }
+
+        /**
+         * @param approximateTokenLimiter - token level is counted approximately by it
+         */
+        public Builder approximateTokens(final HeavyHitterLimiter approximateTokenLimiter) {
+            this.approximateTokenLimiter = Objects.requireNonNull(approximateTokenLimiter, "Approximate token limiter is required");
+            return this;
+        }
+
+        /**
+         * @param leaseSize - max permits leased by a thread at once for hot users. 1 means no leasing.
+         * @param maxOverAdmission - max permits in leases of a user at once or NO_LIMIT
+         */
+        public Builder leasing(final int leaseSize, final long maxOverAdmission) {
+            this.leaseSize = leaseSize;
+            this.maxOverAdmission = maxOverAdmission;
+            return this;
+        }
+
+        /**
+         * @param expiryTimer - idle windows are removed by this timer
+         * @param idleTimeout - window is removed once it has been idle for this time after its end
+         */
+        public Builder expiry(final HashedWheelTimer expiryTimer, final Duration idleTimeout) {
+            this.expiryTimer = Objects.requireNonNull(expiryTimer, "Expiry timer is required");
+            this.idleTimeout = Objects.requireNonNull(idleTimeout, "Idle timeout is required");
+            return this;
+        }
+
+        /**
+         * @param priorityBudget - global RPS per priority tier. globalRps is usually NO_LIMIT then.
+         */
+        public Builder priorityBudget(final PriorityBudget priorityBudget) {
+            this.priorityBudget = Objects.requireNonNull(priorityBudget, "Priority budget is required");
+            return this;
+        }
+
+        /**
+         * @param maxAttempts - 0 -> blocking decisions. Otherwise max CAS attempts of each level of a decision
+         * @param failurePolicy - decision of a request with a level which couldn't be decided within maxAttempts
+         */
+        public Builder boundedDecisions(final int maxAttempts, final FailurePolicy failurePolicy) {
+            this.maxAttempts = maxAttempts;
+            this.failurePolicy = Objects.requireNonNull(failurePolicy, "Failure policy is required");
+            return this;
+        }
+
+        public HierarchicalWindowLimiter build() {
+            if (maxAttempts < 0) {
+                throw new IllegalArgumentException("Max attempts should be >= 0");
+            }
+            if (idleTimeout.isNegative()) {
+                throw new IllegalArgumentException("Idle timeout should be >= 0");
+            }
+            if (leaseSize < 1) {
+                throw new IllegalArgumentException("Lease size should be >= 1");
+            }
+            if (maxOverAdmission < 1) {
+                throw new IllegalArgumentException("Max over-admission should be >= 1");
+            }
+            if (tokenRps < 0 || globalRps < 0) {
+                throw new IllegalArgumentException("RPS should be >= 0");
+            }
+            if (slices < 1 || slices > WINDOW_MILLIS) {
+                throw new IllegalArgumentException("Slices should be within 1..1000");
+            }
+            return new HierarchicalWindowLimiter(this);
+        }
+    }
+}
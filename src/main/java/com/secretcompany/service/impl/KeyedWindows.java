@@ -0,0 +1,98 @@
+package com.secretcompany.service.impl;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.secretcompany.collection.ConcurrentLongObjectMap;
+import com.secretcompany.timer.HashedWheelTimer;
+
+import java.time.Clock;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static com.secretcompany.service.impl.Window.WINDOW_MILLIS;
+
+/**
+ * Mutable window per primitive key of a level of {@link HierarchicalWindowLimiter}.
+ *
+ * Optional expiry of idle windows by {@link HashedWheelTimer}. Expiry is scheduled once when the key's window
+ * is published. When it fires, window is retired under its lock and removed by conditional remove if it has been idle
+ * long enough, otherwise expiry is scheduled again for the time the window becomes idle. Request which meets
+ * a retired window removes it as well and takes a new one. No scans of the map, amortized O(1) per key.
+ */
+class KeyedWindows<W extends Window> {
+    private final ConcurrentLongObjectMap<W> windows = new ConcurrentLongObjectMap<>();
+    // null -> windows never expire
+    private final HashedWheelTimer expiryTimer;
+    private final long idleMillis;
+    private Clock systemClock = Clock.systemUTC();
+
+    /**
+     * @param expiryTimer - nullable. Idle windows are removed by this timer if present.
+     * @param idleMillis - window is removed once it has been idle for this time after its end
+     */
+    KeyedWindows(final HashedWheelTimer expiryTimer, final long idleMillis) {
+        this.expiryTimer = expiryTimer;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * @return window of the key or null
+     */
+    final W get(long key) {
+        return windows.get(key);
+    }
+
+    /**
+     * @return the window of the key: created one or the one put by another thread meanwhile
+     */
+    final W publish(long key, W created) {
+        final W present = windows.putIfAbsent(key, created);
+        if (Objects.nonNull(present)) {
+            return present;
+        }
+        if (Objects.nonNull(expiryTimer)) {
+            scheduleExpiry(key, created, WINDOW_MILLIS + idleMillis);
+        }
+        return created;
+    }
+
+    /**
+     * Expiry has just retired the window: help to remove it.
+     */
+    final void remove(long key, W retired) {
+        windows.remove(key, retired);
+    }
+
+    final int size() {
+        return windows.size();
+    }
+
+    /**
+     * Called once the new window is published, so the first check is not earlier than the window could become idle.
+     * Expiry is checked again when it fires, so it can't be too early.
+     */
+    private void scheduleExpiry(long key, W window, long delayMillis) {
+        expiryTimer.schedule(() -> expire(key, window), Math.max(0L, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs in the timer thread.
+     */
+    private void expire(long key, W window) {
+        final long delay = window.retireIfIdle(systemClock.millis(), idleMillis);
+        if (delay > 0) {
+            //still active
+            scheduleExpiry(key, window, Math.max(delay, idleMillis));
+        } else {
+            //could have been removed by a request which has met it retired
+            windows.remove(key, window);
+        }
+    }
+
+    /**
+     * Clock of idle windows expiry. Should be the same as the one of the decisions.
+     */
+    @VisibleForTesting
+    final void setSystemClock(Clock systemClock) {
+        this.systemClock = systemClock;
+    }
+}
@@ -0,0 +1,124 @@
+package com.secretcompany.service.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Leases of a hot user: batches of permits already consumed from its {@link UserWindows} and spent without touching
+ * the windows. One lease per stripe, stripes lie on separate cache lines. A thread spends the lease of its home stripe,
+ * so threads of different stripes don't contend for the same cache line.
+ *
+ * Lease is valid till the end of the windows it has been taken from. New lease is taken and unspent permits
+ * are given back under the lock of the windows, see {@link UserWindows#lease}. Spending is lock-free.
+ */
+final class PermitLeases {
+    // longs between stripes: 128 bytes, two cache lines for adjacent line prefetch
+    private static final int PADDING = 16;
+    // offsets within a stripe
+    private static final int REMAINING = 0;
+    private static final int START = 1;
+    private static final int LEASED_AT = 2;
+    private static final int UNTIL = 3;
+
+    private final int mask;
+    private final AtomicLongArray cells;
+
+    PermitLeases() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes - rounded down to power of two
+     */
+    PermitLeases(final int stripes) {
+        final int count = Integer.highestOneBit(Math.max(1, stripes));
+        this.mask = count - 1;
+        this.cells = new AtomicLongArray(count * PADDING);
+    }
+
+    /**
+     * @return home stripe of the current thread
+     */
+    int stripe() {
+        return (int) Thread.currentThread().getId() & mask;
+    }
+
+    /**
+     * Lock-free.
+     * @return true if a permit of the current thread's lease is taken
+     */
+    boolean tryTake(long current) {
+        final int cell = stripe() * PADDING;
+        long remaining;
+        while ((remaining = cells.get(cell + REMAINING)) > 0 && current < cells.get(cell + UNTIL)) {
+            if (cells.compareAndSet(cell + REMAINING, remaining, remaining - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read only. Exhausted windows don't deny a thread which still has permits leased from them.
+     */
+    boolean hasPermits(long current) {
+        final int cell = stripe() * PADDING;
+        return cells.get(cell + REMAINING) > 0 && current < cells.get(cell + UNTIL);
+    }
+
+    /**
+     * Permit taken from the current thread's lease goes back to it. For ex.: request is rejected on another level.
+     * The lease could have been given back meanwhile: then the permit goes back with the next one.
+     */
+    void release() {
+        cells.incrementAndGet(stripe() * PADDING + REMAINING);
+    }
+
+    /**
+     * Guarded by the lock of the windows.
+     * @return unspent permits of the stripe's lease. The lease is empty afterwards, its times are kept
+     */
+    long drain(int stripe) {
+        return cells.getAndSet(stripe * PADDING + REMAINING, 0L);
+    }
+
+    /**
+     * Guarded by the lock of the windows. Times are written before permits: a thread which sees the permits
+     * sees the times of their lease.
+     */
+    void lease(int stripe, long permits, long startMillis, long leasedAtMillis, long untilMillis) {
+        final int cell = stripe * PADDING;
+        cells.set(cell + START, startMillis);
+        cells.set(cell + LEASED_AT, leasedAtMillis);
+        cells.set(cell + UNTIL, untilMillis);
+        cells.set(cell + REMAINING, permits);
+    }
+
+    /**
+     * @return second window start of the stripe's lease
+     */
+    long getStartMillis(int stripe) {
+        return cells.get(stripe * PADDING + START);
+    }
+
+    /**
+     * @return time the stripe's lease has been taken at: minute and day windows of the lease
+     */
+    long getLeasedAtMillis(int stripe) {
+        return cells.get(stripe * PADDING + LEASED_AT);
+    }
+
+    /**
+     * @return unspent permits of all leases. Sum over stripes, not a snapshot
+     */
+    long getLeased() {
+        long leased = 0;
+        for (int stripe = 0; stripe <= mask; stripe++) {
+            leased += cells.get(stripe * PADDING + REMAINING);
+        }
+        return leased;
+    }
+
+    int getStripes() {
+        return mask + 1;
+    }
+}
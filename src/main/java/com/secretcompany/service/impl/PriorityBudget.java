@@ -0,0 +1,123 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.dto.Priority;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Global RPS split between {@link Priority} tiers. Each tier has reserved share of RPS, the rest is a pool for everybody.
+ * Tier takes a permit from:
+ * 1. own reserve
+ * 2. the unreserved pool
+ * 3. reserves of lower tiers, the nearest one first.
+ * So spare capacity is borrowed top-down: guests never take capacity reserved for Sla users, premium users can use
+ * everything guests haven't used. A flood of guests exhausts guest reserve and the pool only.
+ * Reserve of a higher tier isn't lent to lower ones even if it's idle within the second.
+ *
+ * One second windows aligned to epoch. Lock-free: counter of each reserve packs (second, consumed) into one long
+ * and is updated by CAS. Counters lie on separate cache lines, so tiers don't contend with each other.
+ */
+public class PriorityBudget {
+    private static final long WINDOW_MILLIS = 1000L;
+    private static final long CONSUMED_MASK = 0xFFFFFFFFL;
+    // longs between used counters: 128 bytes
+    private static final int PADDING = 16;
+    private static final Priority[] TIERS = Priority.values();
+    private static final int POOL = TIERS.length;
+
+    private final long rps;
+    // capacity of reserve of each tier and of the pool (last)
+    private final long[] capacities = new long[TIERS.length + 1];
+    private final AtomicLongArray counters = new AtomicLongArray((TIERS.length + 1) * PADDING);
+
+    /**
+     * @param rps - global RPS. Within 1..2^32-1
+     * @param shares - reserved share of RPS per tier in order of {@link Priority}. Within [0, 1], sum <= 1.
+     *               The rest is the unreserved pool.
+     */
+    public PriorityBudget(final long rps, final double... shares) {
+        Objects.requireNonNull(shares, "Shares are required");
+        if (rps <= 0 || rps > CONSUMED_MASK) {
+            throw new IllegalArgumentException("RPS should be within 1.." + CONSUMED_MASK);
+        }
+        if (shares.length != TIERS.length) {
+            throw new IllegalArgumentException("Share is required for each of " + TIERS.length + " tiers");
+        }
+        long reserved = 0;
+        for (int tier = 0; tier < TIERS.length; tier++) {
+            if (shares[tier] < 0 || shares[tier] > 1) {
+                throw new IllegalArgumentException("Share should be within [0, 1]");
+            }
+            capacities[tier] = (long) (rps * shares[tier]);
+            reserved += capacities[tier];
+        }
+        if (reserved > rps) {
+            throw new IllegalArgumentException("Sum of shares should be <= 1");
+        }
+        this.rps = rps;
+        capacities[POOL] = rps - reserved;
+    }
+
+    /**
+     * @return true if there is a permit for the tier. Consumed from own reserve, the pool or a lower tier.
+     */
+    public boolean tryAcquire(long currentMillis, Priority priority) {
+        final long second = Math.floorDiv(currentMillis, WINDOW_MILLIS);
+        final int tier = priority.ordinal();
+        if (tryAcquire(tier, second) || tryAcquire(POOL, second)) {
+            return true;
+        }
+        for (int lower = tier + 1; lower < TIERS.length; lower++) {
+            if (tryAcquire(lower, second)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return permits consumed from reserve of the tier within the second. Including ones borrowed by higher tiers.
+     */
+    public long getConsumed(long currentMillis, Priority priority) {
+        return consumed(priority.ordinal(), Math.floorDiv(currentMillis, WINDOW_MILLIS));
+    }
+
+    /**
+     * @return permits consumed from the unreserved pool within the second
+     */
+    public long getPoolConsumed(long currentMillis) {
+        return consumed(POOL, Math.floorDiv(currentMillis, WINDOW_MILLIS));
+    }
+
+    public long getRps() {
+        return rps;
+    }
+
+    private boolean tryAcquire(int counter, long second) {
+        final long capacity = capacities[counter];
+        if (capacity == 0) {
+            return false;
+        }
+        final int cell = counter * PADDING;
+        while (true) {
+            final long packed = counters.get(cell);
+            final long packedSecond = packed >>> 32;
+            //another thread could have already started the next second. Count the request there
+            final long window = Math.max(packedSecond, second);
+            //counter of a past second is the new window with nothing consumed
+            final long consumed = packedSecond == window ? packed & CONSUMED_MASK : 0L;
+            if (consumed >= capacity) {
+                return false;
+            }
+            if (counters.compareAndSet(cell, packed, (window << 32) | (consumed + 1))) {
+                return true;
+            }
+        }
+    }
+
+    private long consumed(int counter, long second) {
+        final long packed = counters.get(counter * PADDING);
+        return packed >>> 32 == second ? packed & CONSUMED_MASK : 0L;
+    }
+}
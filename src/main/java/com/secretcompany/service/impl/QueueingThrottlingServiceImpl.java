@@ -0,0 +1,186 @@
+package com.secretcompany.service.impl;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.secretcompany.exception.RequestThrottledException;
+import com.secretcompany.service.AsyncThrottlingService;
+import com.secretcompany.service.ThrottlingService;
+import com.secretcompany.timer.HashedWheelTimer;
+import com.secretcompany.timer.Timeout;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queueing (leaky bucket) mode on top of any {@link ThrottlingService}: the same Sla resolution and RPS rules,
+ * but requests above RPS wait in a bounded FIFO queue per token instead of being rejected.
+ *
+ * No thread is parked per waiting request. Single {@link HashedWheelTimer} thread:
+ * 1. retries the head of each non-empty queue every tick and completes waiters while permits are available
+ * 2. fails waiters which exceeded max wait.
+ * Futures are completed in the timer thread, so dependent actions should be async or short.
+ *
+ * New request doesn't overtake waiting ones: it gets permit immediately only if its queue is empty.
+ * Queue of a token exists only while its requests wait: it's created by the first request which has to wait
+ * and removed once drained.
+ */
+public class QueueingThrottlingServiceImpl implements AsyncThrottlingService {
+    // queue key for requests without token
+    private static final String UNAUTHORIZED_USERS = UUID.randomUUID().toString();
+    private static final int RETIRED = -1;
+
+    private final ThrottlingService throttlingService;
+    private final HashedWheelTimer timer;
+    private final long maxWaitNanos;
+    private final int queueCapacity;
+    private final Map<String, WaitQueue> tokenToWaitQueueMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxWait - max time to wait for a permit
+     * @param queueCapacity - max number of waiting requests per token
+     */
+    public QueueingThrottlingServiceImpl(final ThrottlingService throttlingService, final HashedWheelTimer timer,
+                                         final Duration maxWait, final int queueCapacity) {
+        Objects.requireNonNull(throttlingService, "Throttling service is required");
+        Objects.requireNonNull(timer, "Timer is required");
+        Objects.requireNonNull(maxWait, "Max wait is required");
+        if (maxWait.isNegative() || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Max wait should be >= 0 and queue capacity should be > 0");
+        }
+        this.throttlingService = throttlingService;
+        this.timer = timer;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public CompletableFuture<Void> acquire(String token) {
+        final String key = Objects.isNull(token) ? UNAUTHORIZED_USERS : token;
+
+        //fast path. Nobody is waiting, so we don't overtake anyone. No queue is created for the token.
+        final WaitQueue present = tokenToWaitQueueMap.get(key);
+        if ((Objects.isNull(present) || present.size.get() <= 0) && throttlingService.isRequestAllowed(token)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (maxWaitNanos == 0) {
+            return failed("Request is throttled");
+        }
+
+        WaitQueue queue;
+        int size;
+        do {
+            queue = tokenToWaitQueueMap.computeIfAbsent(key, WaitQueue::new);
+            size = queue.tryEnqueue(queueCapacity);
+            if (size == RETIRED) {
+                //drained and being removed. Help and take a new one
+                tokenToWaitQueueMap.remove(key, queue);
+            }
+        } while (size == RETIRED);
+        if (size > queueCapacity) {
+            return failed("Too many requests are waiting for token");
+        }
+
+        final Waiter waiter = new Waiter();
+        waiter.timeout = timer.schedule(() -> waiter.future.completeExceptionally(
+                new RequestThrottledException("Max wait is exceeded")), maxWaitNanos, TimeUnit.NANOSECONDS);
+        queue.waiters.add(waiter);
+        scheduleDrain(queue);
+        return waiter.future;
+    }
+
+    /**
+     * @return number of tokens with waiting requests
+     */
+    @VisibleForTesting
+    int getWaitQueues() {
+        return tokenToWaitQueueMap.size();
+    }
+
+    private void scheduleDrain(WaitQueue queue) {
+        if (queue.drainScheduled.compareAndSet(false, true)) {
+            timer.schedule(() -> drain(queue), timer.getTickNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Runs in the timer thread only. Release waiters in FIFO order while permits are available.
+     */
+    private void drain(WaitQueue queue) {
+        Waiter waiter;
+        while ((waiter = queue.waiters.peek()) != null) {
+            if (!waiter.future.isDone()) {
+                if (!throttlingService.isRequestAllowed(queue.token)) {
+                    break;
+                }
+                waiter.timeout.cancel();
+                waiter.future.complete(null);
+            }
+            //completed or failed by max wait
+            queue.waiters.poll();
+            queue.size.decrementAndGet();
+        }
+
+        queue.drainScheduled.set(false);
+        //waiter could be added after the loop but before the flag was reset
+        if (!queue.waiters.isEmpty()) {
+            scheduleDrain(queue);
+            return;
+        }
+        //drained: queue isn't kept per token forever. Fails if a waiter is being added, it schedules the next drain then
+        if (queue.size.compareAndSet(0, RETIRED)) {
+            tokenToWaitQueueMap.remove(queue.key, queue);
+        }
+    }
+
+    private static CompletableFuture<Void> failed(String message) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(new RequestThrottledException(message));
+        return future;
+    }
+
+    /**
+     * Waiting requests of a single token.
+     */
+    private static class WaitQueue {
+        private final String key;
+        // null for unauthorized users
+        private final String token;
+        private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+        // ConcurrentLinkedQueue.size is O(n). RETIRED once the queue is drained and removed
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+        private WaitQueue(String key) {
+            this.key = key;
+            this.token = UNAUTHORIZED_USERS.equals(key) ? null : key;
+        }
+
+        /**
+         * @return size with the new waiter, > capacity if full (nothing is added then) or RETIRED
+         */
+        private int tryEnqueue(int capacity) {
+            while (true) {
+                final int current = size.get();
+                if (current == RETIRED || current >= capacity) {
+                    return current == RETIRED ? RETIRED : capacity + 1;
+                }
+                if (size.compareAndSet(current, current + 1)) {
+                    return current + 1;
+                }
+            }
+        }
+    }
+
+    private static class Waiter {
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private volatile Timeout timeout;
+    }
+}
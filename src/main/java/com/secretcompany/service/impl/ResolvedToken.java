@@ -0,0 +1,108 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.dto.Sla;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Token known to {@link SlaResolver}: its Sla, request to SlaService in progress and a compact id.
+ * One entry per token, found by a single lookup of the token. Everything downstream (for ex.: token level
+ * of {@link HierarchicalWindowLimiter}) is keyed by the id, so the token String is hashed once per request.
+ *
+ * Id is unique within the process: tokens of different resolvers never share an id.
+ * A token which comes back after expiry gets a new id.
+ */
+public final class ResolvedToken {
+    private static final AtomicLong LAST_ID = new AtomicLong();
+    private static final AtomicReferenceFieldUpdater<ResolvedToken, Sla> SLA =
+            AtomicReferenceFieldUpdater.newUpdater(ResolvedToken.class, Sla.class, "sla");
+    private static final AtomicReferenceFieldUpdater<ResolvedToken, SlaRequest> REQUEST =
+            AtomicReferenceFieldUpdater.newUpdater(ResolvedToken.class, SlaRequest.class, "request");
+
+    private final String token;
+    private final long id;
+    // null -> Sla hasn't arrived yet or has been revoked
+    private volatile Sla sla;
+    // null -> no request to SlaService in progress
+    private volatile SlaRequest request;
+    private volatile long lastAccessMillis;
+
+    ResolvedToken(final String token, final long nowMillis) {
+        this.token = token;
+        this.id = LAST_ID.incrementAndGet();
+        this.lastAccessMillis = nowMillis;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return id > 0
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return Sla or null if it hasn't arrived yet
+     */
+    public Sla getSla() {
+        return sla;
+    }
+
+    /**
+     * @return previous Sla or null
+     */
+    Sla setSla(Sla sla) {
+        return SLA.getAndSet(this, sla);
+    }
+
+    void setSlaIfAbsent(Sla sla) {
+        SLA.compareAndSet(this, null, sla);
+    }
+
+    /**
+     * @return true if replaced: the current Sla is still the expected one
+     */
+    boolean replaceSla(Sla expected, Sla sla) {
+        return SLA.compareAndSet(this, expected, sla);
+    }
+
+    SlaRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return false if another request is in progress
+     */
+    boolean startRequest(SlaRequest started) {
+        return REQUEST.compareAndSet(this, null, started);
+    }
+
+    void endRequest(SlaRequest ended) {
+        REQUEST.compareAndSet(this, ended, null);
+    }
+
+    long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    /**
+     * Written at most 4 times per idle timeout: hot tokens don't write shared memory on each request.
+     * So the last access is up to 1/4 of idle timeout older than the last request.
+     */
+    void touch(long nowMillis, long idleMillis) {
+        if (nowMillis - lastAccessMillis >= idleMillis / 4) {
+            lastAccessMillis = nowMillis;
+        }
+    }
+
+    /**
+     * Request to SlaService. Own type, so the field updater isn't raw.
+     */
+    static final class SlaRequest extends CompletableFuture<Sla> {
+    }
+}
@@ -0,0 +1,321 @@
+package com.secretcompany.service.impl;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.secretcompany.dto.Sla;
+import com.secretcompany.jfr.SlaFetchEvent;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.service.SlaChangeListener;
+import com.secretcompany.service.SlaService;
+import com.secretcompany.service.SlaUpdateSource;
+import com.secretcompany.service.impl.ResolvedToken.SlaRequest;
+import com.secretcompany.timer.HashedWheelTimer;
+import com.secretcompany.timer.Timeout;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static com.secretcompany.config.ThrottlingConfiguration.CUSTOM_FORK_JOIN_POOL;
+
+/**
+ * Sla of tokens: requests to SlaService and cached responses. Can be shared by several throttling services
+ * of the same process (for ex.: one per API product with its own guest RPS). Then a token is requested once
+ * at a time for all of them and its Sla is cached once.
+ *
+ * One {@link ResolvedToken} per token holds its Sla, request in progress and id. Request is one String lookup:
+ * limiters are keyed by the id of the resolved token, so the token isn't hashed again downstream.
+ *
+ * Optional expiry of idle tokens by {@link HashedWheelTimer}: scheduled once when token is seen first, rescheduled
+ * when it fires for a token which has been used since then. Cached Sla goes together with the token, so memory
+ * is bounded by tokens seen within the idle timeout, even under a flood of random tokens.
+ *
+ * Optionally request to SlaService is failed by timeout, so a token is never stuck with a request which never completes.
+ *
+ * Optionally Sla changes are pushed by {@link SlaUpdateSource}. Then SlaService is asked only for tokens without Sla.
+ * Services get (previous, updated) Sla of each change to apply it to their current windows.
+ */
+public class SlaResolver implements SlaChangeListener {
+    private final SlaService slaService;
+    private final ThrottlingMetrics metrics;
+    // null -> no timeout of requests to SlaService
+    private final HashedWheelTimer slaTimer;
+    private final long slaTimeoutMillis;
+    // null -> tokens never expire
+    private final HashedWheelTimer expiryTimer;
+    private final long idleMillis;
+    private final Map<String, ResolvedToken> tokens = new ConcurrentHashMap<>();
+    private final AtomicInteger requestsInFlight = new AtomicInteger();
+    private final List<BiConsumer<Sla, Sla>> changeCallbacks = new CopyOnWriteArrayList<>();
+    private final Set<SlaUpdateSource> sources = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    // true -> Sla changes are pushed, known tokens are not polled
+    private volatile boolean slaPushed;
+    // Sla handling always runs on separate thread pool
+    private Executor slaExecutor = CUSTOM_FORK_JOIN_POOL;
+    private Clock systemClock = Clock.systemUTC();
+
+    public SlaResolver(final SlaService slaService, final ThrottlingMetrics metrics) {
+        this(slaService, metrics, null, Duration.ZERO, null, Duration.ZERO);
+    }
+
+    /**
+     * @param slaTimer - nullable. Requests to SlaService are failed by this timer after slaTimeout if present.
+     * @param expiryTimer - nullable. Tokens without requests for idleTimeout are forgotten by this timer if present.
+     * @param idleTimeout - > 0 with expiry timer. Not less than one second plus idle timeout of limiter's windows:
+     *                    token which comes back gets a new id and so a new token window.
+     */
+    public SlaResolver(final SlaService slaService, final ThrottlingMetrics metrics,
+                       final HashedWheelTimer slaTimer, final Duration slaTimeout,
+                       final HashedWheelTimer expiryTimer, final Duration idleTimeout) {
+        Objects.requireNonNull(slaService, "SlaService is required");
+        Objects.requireNonNull(metrics, "Metrics are required");
+        Objects.requireNonNull(slaTimeout, "Sla timeout is required");
+        Objects.requireNonNull(idleTimeout, "Idle timeout is required");
+        if (Objects.nonNull(expiryTimer) && (idleTimeout.isNegative() || idleTimeout.isZero())) {
+            throw new IllegalArgumentException("Idle timeout should be > 0");
+        }
+        this.slaService = slaService;
+        this.metrics = metrics;
+        this.slaTimer = slaTimer;
+        this.slaTimeoutMillis = slaTimeout.toMillis();
+        this.expiryTimer = expiryTimer;
+        this.idleMillis = idleTimeout.toMillis();
+
+        metrics.registerGauge("throttling.sla.inflight", requestsInFlight::get);
+        metrics.registerGauge("throttling.cache.tokens", tokens::size);
+        metrics.registerGauge("throttling.cache.slas",
+                () -> tokens.values().stream().filter(resolved -> Objects.nonNull(resolved.getSla())).count());
+    }
+
+    /**
+     * Request to SlaService is started if there is no one in progress for the token. Only for tokens without Sla
+     * if changes are pushed. Never waits for it.
+     * @return the token with cached Sla or with null Sla if it hasn't arrived yet
+     */
+    public ResolvedToken resolve(String token) {
+        final ResolvedToken resolved = resolvedOf(token);
+        if (!slaPushed || Objects.isNull(resolved.getSla())) {
+            //could be handled in the calling thread: Sla is read from the token afterwards
+            fetch(resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * @return request to SlaService for the token. The ongoing one if there is any.
+     * Can be used as SlaService of a service with its own cache, for ex.: {@code resolver::fetch}.
+     */
+    public CompletableFuture<Sla> fetch(String token) {
+        return fetch(resolvedOf(token));
+    }
+
+    /**
+     * Rare: once per token. Concurrent calls for the same token get the same entry.
+     */
+    private ResolvedToken resolvedOf(String token) {
+        Objects.requireNonNull(token, "Token is required");
+        final ResolvedToken resolved = tokens.get(token);
+        if (Objects.nonNull(resolved)) {
+            if (Objects.nonNull(expiryTimer)) {
+                resolved.touch(systemClock.millis(), idleMillis);
+            }
+            return resolved;
+        }
+        final ResolvedToken created = new ResolvedToken(token, systemClock.millis());
+        final ResolvedToken raced = tokens.putIfAbsent(token, created);
+        if (Objects.nonNull(raced)) {
+            return raced;
+        }
+        if (Objects.nonNull(expiryTimer)) {
+            //once per token. Rescheduled by the expiry itself while the token is used
+            scheduleExpiry(created, idleMillis);
+        }
+        return created;
+    }
+
+    private CompletableFuture<Sla> fetch(ResolvedToken resolved) {
+        final SlaFetchEvent event = new SlaFetchEvent();
+        event.begin();
+        final String token = resolved.getToken();
+
+        // request for this token is in progress. Plain read, nothing to allocate.
+        final SlaRequest ongoing = resolved.getRequest();
+        if (Objects.nonNull(ongoing)) {
+            event.commitOnCompletion(token, true, ongoing);
+            return ongoing;
+        }
+
+        final SlaRequest slaFuture = new SlaRequest();
+        if (!resolved.startRequest(slaFuture)) {
+            // another thread has just started request for the same token. Or it has already ended: look again
+            return fetch(resolved);
+        }
+        requestsInFlight.incrementAndGet();
+        event.commitOnCompletion(token, false, slaFuture);
+        //SlaService may never respond. Timeout releases the token for the next request to SlaService
+        final Timeout timeout = Objects.isNull(slaTimer) ? null
+                : slaTimer.schedule(() -> slaFuture.completeExceptionally(new TimeoutException("Sla request timed out")),
+                        slaTimeoutMillis, TimeUnit.MILLISECONDS);
+
+        // only the thread which registered the request gets here. Handle response once per request, not per call.
+        slaFuture.whenCompleteAsync((sla, throwable) -> {
+            if (Objects.nonNull(timeout)) {
+                //answered in time: don't keep the timeout in the wheel until it's due
+                timeout.cancel();
+            }
+            //when SlaService returns RealUserName we should
+            //  1. cache Sla in the token and then
+            //  2. end the request, so the next one can start. Even if SlaService failed.
+            //token could have expired meanwhile: then Sla goes away with the forgotten entry
+            if (Objects.nonNull(sla)) {
+                if (slaPushed) {
+                    //pushed change could have come while the request was in progress. It's newer
+                    resolved.setSlaIfAbsent(sla);
+                } else {
+                    resolved.setSla(sla);
+                }
+            }
+            resolved.endRequest(slaFuture);
+            requestsInFlight.decrementAndGet();
+        }, slaExecutor);
+
+        proceedSlaService(token).whenComplete((sla, throwable) -> {
+            if (Objects.nonNull(throwable)) {
+                slaFuture.completeExceptionally(throwable);
+            } else {
+                slaFuture.complete(sla);
+            }
+        });
+        return slaFuture;
+    }
+
+    private CompletableFuture<Sla> proceedSlaService(String token) {
+        //always run on separate thread pool. We aru using custom FORK_JOIN_POOL to avoid problem with default one in Java Stream API
+        final CompletableFuture<Sla> slaFuture = CompletableFuture.completedFuture(0)
+                .thenComposeAsync((v) -> slaService.getSlaByToken(token), slaExecutor);
+        if (!metrics.isEnabled()) {
+            return slaFuture;
+        }
+        final long startNanos = System.nanoTime();
+        return slaFuture.whenComplete((sla, throwable) ->
+                metrics.recordSlaFetch(System.nanoTime() - startNanos, Objects.nonNull(sla)));
+    }
+
+    /**
+     * Receive Sla changes from the source. The same source is subscribed once, even if several services ask for it.
+     */
+    public void subscribe(final SlaUpdateSource source) {
+        Objects.requireNonNull(source, "Sla update source is required");
+        this.slaPushed = true;
+        if (sources.add(source)) {
+            source.subscribe(this);
+        }
+    }
+
+    /**
+     * @param callback - gets (previous, updated) Sla of each pushed change of a known token or user
+     */
+    public void addChangeCallback(final BiConsumer<Sla, Sla> callback) {
+        Objects.requireNonNull(callback, "Callback is required");
+        changeCallbacks.add(callback);
+    }
+
+    @Override
+    public void onTokenSla(String token, Sla sla) {
+        //revoked token competes for default RPS again. Unknown one has nothing to revoke
+        final ResolvedToken resolved = Objects.isNull(sla) ? tokens.get(token) : resolvedOf(token);
+        if (Objects.nonNull(resolved)) {
+            notifyChanged(resolved.setSla(sla), sla);
+        }
+    }
+
+    /**
+     * Changes are rare: all cached tokens are scanned instead of keeping user -> tokens index.
+     * Tokens of the user which aren't cached yet get the new Sla from SlaService.
+     */
+    @Override
+    public void onUserSla(String user, Sla sla) {
+        Objects.requireNonNull(sla, "Sla is required");
+        Sla previous = null;
+        for (ResolvedToken resolved : tokens.values()) {
+            final Sla current = resolved.getSla();
+            if (Objects.nonNull(current) && Objects.equals(current.getUser(), user)
+                    && resolved.replaceSla(current, sla) && Objects.isNull(previous)) {
+                previous = current;
+            }
+        }
+        notifyChanged(previous, sla);
+    }
+
+    private void scheduleExpiry(ResolvedToken resolved, long delayMillis) {
+        expiryTimer.schedule(() -> expire(resolved), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs in the timer thread. Last access lags behind by up to 1/4 of idle timeout, see {@link ResolvedToken#touch}:
+     * so token is forgotten once it has been idle for the whole timeout. It comes back as a new one with a new id.
+     */
+    private void expire(ResolvedToken resolved) {
+        final long delay = resolved.getLastAccessMillis() + idleMillis + idleMillis / 4 - systemClock.millis();
+        if (delay > 0) {
+            scheduleExpiry(resolved, delay);
+            return;
+        }
+        tokens.remove(resolved.getToken(), resolved);
+    }
+
+    private void notifyChanged(Sla previous, Sla updated) {
+        if (Objects.nonNull(previous) && Objects.nonNull(updated)) {
+            changeCallbacks.forEach(callback -> callback.accept(previous, updated));
+        }
+    }
+
+    /**
+     * Replace Sla thread pool. For ex.: direct executor to handle Sla deterministically in the caller thread.
+     */
+    @VisibleForTesting
+    void setSlaExecutor(Executor slaExecutor) {
+        this.slaExecutor = slaExecutor;
+    }
+
+    /**
+     * Clock of token expiry.
+     */
+    @VisibleForTesting
+    void setSystemClock(Clock systemClock) {
+        this.systemClock = systemClock;
+    }
+
+    /**
+     * Sla as if SlaService has already responded it for the token.
+     */
+    @VisibleForTesting
+    void putSla(String token, Sla sla) {
+        resolvedOf(token).setSla(sla);
+    }
+
+    /**
+     * @return number of known tokens
+     */
+    public int size() {
+        return tokens.size();
+    }
+
+    @VisibleForTesting
+    int getRequestsInFlight() {
+        return requestsInFlight.get();
+    }
+}
@@ -2,34 +2,40 @@ package com.secretcompany.service.impl;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
+import com.secretcompany.dto.KeyClass;
 import com.secretcompany.dto.Sla;
 import com.secretcompany.dto.UserData;
 import com.secretcompany.dto.UserTokenInfo;
 import com.secretcompany.exception.MultipleValuesUserDataException;
 import com.secretcompany.exception.NullableUserDataException;
+import com.secretcompany.jfr.SlaFetchEvent;
+import com.secretcompany.jfr.ThrottleDecisionEvent;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.service.SlaChangeListener;
 import com.secretcompany.service.SlaService;
+import com.secretcompany.service.SlaUpdateSource;
 import com.secretcompany.service.ThrottlingService;
+import com.secretcompany.timer.HashedWheelTimer;
+import com.secretcompany.timer.Timeout;
 import lombok.NonNull;
 import org.apache.commons.lang3.StringUtils;
 
 import java.time.Clock;
-import java.time.Instant;
-import java.util.HashSet;
+import java.time.Duration;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.secretcompany.config.ThrottlingConfiguration.CUSTOM_FORK_JOIN_POOL;
 import static com.secretcompany.service.ThrottlingConstants.AUTHORIZED_USER_ID;
 import static com.secretcompany.service.ThrottlingConstants.UNAUTHORIZED_USER_ID;
-import static java.util.stream.Collectors.toSet;
 
 /**
  * ThrottlingServiceImpl Rules:
@@ -43,10 +49,17 @@ import static java.util.stream.Collectors.toSet;
  * We make a request to SlaService IFF:
  * 1. For particular Token we don't have ongoing request to SlaService.
  * 2. On each request to ThrottlingService if it satisfies the previous statement.
+ *
+ * Optionally with {@link HashedWheelTimer}:
+ * 1. Request to SlaService is failed by timeout, so a token is never stuck with a request which never completes.
+ * 2. Token which hasn't been used for idle timeout is removed from the cache and from its user's tokens.
+ *    Expiry is scheduled once per cached token and rescheduled while it's in use. Sla is requested again if it comes back.
+ *
+ * Optionally Sla changes are pushed by {@link SlaUpdateSource}. Then SlaService is asked only for tokens which aren't cached.
  */
 
 //Not production ready yet.
-    //1. Unbound Cache (ConcurrentHashMap) may produce OutOfMemoryError
+    //1. Unbound Cache (ConcurrentHashMap) may produce OutOfMemoryError. Unless idle tokens expire (see timer constructor)
     //2. Do not handle if SlaService change `accountId`. This requires remapping. Assume it never happens.
     //3. Send SlaService request on each token (if no one exists). We can improve it and send by userId. But it can cost. If there are a lot of users with one token.
 
@@ -58,13 +71,23 @@ import static java.util.stream.Collectors.toSet;
 
     // Improvements:
         //Replace ThrottlingService on AdvancedThrottlingService with also apply additional String userId param to simplify and improve solution.
-public class ThrottlingServiceImpl implements ThrottlingService {
+public class ThrottlingServiceImpl implements ThrottlingService, SlaChangeListener {
     private static final String DUMMY_KEY = UUID.randomUUID().toString();
     private static final String DUMMY_KEY_FOR_AUTHORIZED_USERS = UUID.randomUUID().toString();
 
     private final int guestRps;
     private final SlaService slaService;
+    private final ThrottlingMetrics metrics;
+    // null -> no timeout of requests to SlaService and cached tokens never expire
+    private final HashedWheelTimer timer;
+    private final long slaTimeoutMillis;
+    private final long idleMillis;
+    // true -> Sla changes are pushed, cached tokens are not polled
+    private volatile boolean slaPushed;
+    private volatile boolean applyToLiveWindows;
     private Clock systemClock;
+    // Sla handling always runs on separate thread pool
+    private Executor slaExecutor = CUSTOM_FORK_JOIN_POOL;
 
     // TODO LinkedHashMap can be used as LRU Cache. But we don't have a concurrent version. Consider using org.springframework.cache.concurrent.ConcurrentMapCache
     private final Map<String, UserData> tokenToUserDataMap = new ConcurrentHashMap<>();
@@ -76,85 +99,132 @@ public class ThrottlingServiceImpl implements ThrottlingService {
     private final Map<String, CompletableFuture<Sla>> requestToSlaPerToken = new ConcurrentHashMap<>();
 
     public ThrottlingServiceImpl(int guestRps, final SlaService slaService) {
+        this(guestRps, slaService, ThrottlingMetrics.NOOP);
+    }
+
+    public ThrottlingServiceImpl(int guestRps, final SlaService slaService, final ThrottlingMetrics metrics) {
+        this(guestRps, slaService, metrics, null, Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * @param timer - nullable. Timeout of requests to SlaService and expiry of idle tokens if present.
+     * @param idleTimeout - token is removed from the cache once it hasn't been used for this time
+     */
+    public ThrottlingServiceImpl(int guestRps, final SlaService slaService, final ThrottlingMetrics metrics,
+                                 final HashedWheelTimer timer, final Duration slaTimeout, final Duration idleTimeout) {
+        Objects.requireNonNull(slaTimeout, "Sla timeout is required");
+        Objects.requireNonNull(idleTimeout, "Idle timeout is required");
+        this.timer = timer;
+        this.slaTimeoutMillis = slaTimeout.toMillis();
+        this.idleMillis = idleTimeout.toMillis();
         this.guestRps = guestRps;
         this.systemClock = Clock.systemUTC();
         this.slaService = slaService;
+        this.metrics = metrics;
 
         //populate cache to avoid returning null
         tokenToUserDataMap.put(DUMMY_KEY, new UserData(getSecondFromEpoch(), createGuestSla(), guestRps, DUMMY_KEY));
         tokenToUserDataMap.put(DUMMY_KEY_FOR_AUTHORIZED_USERS, new UserData(getSecondFromEpoch(), createAuthorizedDefaultSla(), guestRps, DUMMY_KEY_FOR_AUTHORIZED_USERS));
+
+        metrics.registerGauge("throttling.sla.inflight", requestToSlaPerToken::size);
+        metrics.registerGauge("throttling.cache.tokens", tokenToUserDataMap::size);
+        metrics.registerGauge("throttling.cache.users", userToUserDataMap::size);
     }
 
     @Override
     public boolean isRequestAllowed(final String token) {
+        // don't even read the clock if metrics are disabled
+        final long startNanos = metrics.isEnabled() ? System.nanoTime() : 0L;
+        // JFR event is disabled by default. Disabled event costs nothing.
+        final ThrottleDecisionEvent event = new ThrottleDecisionEvent();
+        event.beginDecision();
+
         // get current second from start of Epoch. It's an ID for current second.
         long secondFromEpoch = getSecondFromEpoch();
+        event.clockRead();
 
         // check current token is blank
-        Optional<String> userToken = Optional.ofNullable(token)
-                .filter(StringUtils::isNotBlank);
-
-        if (userToken.isPresent()) {
+        if (StringUtils.isNotBlank(token)) {
             //compute only if we have Sla for token, otherwise return null. Null for authorized users which still does not have Sla
 
             UserData userData = tokenToUserDataMap.get(token);
 
-            // do request to SlaService if no one exists for the same token.
-            checkSlaService(token);
+            // do request to SlaService if no one exists for the same token. Only for unknown tokens if changes are pushed
+            if (!slaPushed || Objects.isNull(userData)) {
+                checkSlaService(token);
+            }
+            event.slaResolved();
 
             if (Objects.nonNull(userData)) {
-                // retrieve user from Sla and then retrieve all entries by UserId.
-                @NonNull UserTokenInfo userTokenInfo = userToUserDataMap.compute(userData.getSla().getUser(), (k, v) -> computeUserTokenInfo(token, userData, v));
-                final Set<UserData> allTokensByUser = new HashSet<>();
+                // retrieve user from Sla and then retrieve all entries by UserId. Known token: plain read, nothing to allocate
+                final String user = userData.getSla().getUser();
+                UserTokenInfo userTokenInfo = userToUserDataMap.get(user);
+                if (Objects.isNull(userTokenInfo) || !userTokenInfo.getTokens().contains(token)) {
+                    userTokenInfo = userToUserDataMap.compute(user, (k, v) -> computeUserTokenInfo(token, userData, v));
+                }
+                // count tokens of the user and their remaining RPS in place: no collections per call
+                int tokens = 0;
+                long remainingRps = 0;
+                Sla currentSla = null;
                 for (String usersToken: userTokenInfo.getTokens()) {
-                    if (Objects.equals(usersToken, token)) {
-                        //compute rps only for current token.
-                        @NonNull UserData slaData = tokenToUserDataMap.computeIfPresent(usersToken, (t, ud) -> computeUserData(secondFromEpoch, ud));
-                        allTokensByUser.add(slaData);
-                    } else {
-                        @NonNull UserData slaData = tokenToUserDataMap.get(usersToken);
-                        allTokensByUser.add(slaData);
+                    //compute rps only for current token.
+                    final UserData slaData = Objects.equals(usersToken, token)
+                            ? tokenToUserDataMap.computeIfPresent(usersToken, (t, ud) -> computeUserData(secondFromEpoch, ud))
+                            : tokenToUserDataMap.get(usersToken);
+                    //token could have just expired. It doesn't count anymore
+                    if (Objects.isNull(slaData)) {
+                        continue;
+                    }
+                    tokens++;
+                    remainingRps += slaData.getRps();
+                    if (slaData.getSecondId() == secondFromEpoch) {
+                        //tokens of the user used within current second should have the same Sla
+                        if (Objects.isNull(currentSla)) {
+                            currentSla = slaData.getSla();
+                        } else if (!Objects.equals(currentSla, slaData.getSla())) {
+                            throw new MultipleValuesUserDataException();
+                        }
                     }
-                }
-                Map<Sla, Set<UserData>> collect = allTokensByUser.stream()
-                        .filter(ud -> Objects.equals(ud.getSecondId(), secondFromEpoch))
-                        .collect(Collectors.groupingBy(UserData::getSla, Collectors.mapping(Function.identity(), toSet())));
-                if (collect.size() > 1) {
-                    throw new MultipleValuesUserDataException();
                 }
 
-                return countUserRpsThroughAllTokens(userData, allTokensByUser);
+                return recordDecision(KeyClass.SLA_USER, countUserRpsThroughAllTokens(userData, tokens, remainingRps), startNanos, event);
             } else {
                 // userData == null
                 // computedData always is not null
                 @NonNull UserData computedData = tokenToUserDataMap.computeIfPresent(DUMMY_KEY_FOR_AUTHORIZED_USERS, (k, v) -> computeUserData(secondFromEpoch, v));
                 // all authorized but without Sla users should compete between each other. Default RPS == GuestRPS
-                return checkRemainingRps(computedData) >= 0;
+                return recordDecision(KeyClass.AUTHORIZED_WITHOUT_SLA, checkRemainingRps(computedData) >= 0, startNanos, event);
             }
 
         } else {
+            event.slaResolved();
             // Token is absent. All unauthorized users compete for GuestRPS.
             // UserData always should not be null.
             @NonNull UserData newUserData = tokenToUserDataMap.computeIfPresent(DUMMY_KEY, (k, v) -> computeUserData(secondFromEpoch, v));
 
-            return checkRemainingRps(newUserData) >= 0;
+            return recordDecision(KeyClass.UNAUTHORIZED, checkRemainingRps(newUserData) >= 0, startNanos, event);
         }
     }
 
-    private boolean countUserRpsThroughAllTokens(UserData userData, Set<UserData> allTokensByUser) {
-        // each token of the same user has own RPS
-        final long existingRpsThroughAllTokenRps = allTokensByUser.stream()
-                .mapToLong(UserData::getRps)
-                .sum();
+    private boolean recordDecision(KeyClass keyClass, boolean allowed, long startNanos, ThrottleDecisionEvent event) {
+        if (metrics.isEnabled()) {
+            metrics.recordDecision(keyClass, allowed, System.nanoTime() - startNanos);
+        }
+        event.commitDecision(keyClass, allowed);
+        return allowed;
+    }
 
-        //count of existing tokens per user
-        int size = allTokensByUser.size();
+    /**
+     * @param tokens - count of existing tokens per user
+     * @param remainingRps - sum of remaining RPS of the tokens. Each token of the same user has own RPS
+     */
+    private boolean countUserRpsThroughAllTokens(UserData userData, int tokens, long remainingRps) {
         //max Sla RPS
         final long maxRpsByUser = userData.getSla().getRps();
 
-        long total = maxRpsByUser * size;
+        long total = maxRpsByUser * tokens;
 
-        return total - existingRpsThroughAllTokenRps <= maxRpsByUser;
+        return total - remainingRps <= maxRpsByUser;
     }
 
     private UserTokenInfo computeUserTokenInfo(String token, UserData userData, UserTokenInfo v) {
@@ -169,6 +239,104 @@ public class ThrottlingServiceImpl implements ThrottlingService {
         }
     }
 
+    private UserTokenInfo withoutToken(String token, UserTokenInfo v) {
+        final Set<String> tokens = ImmutableSet.copyOf(v.getTokens().stream()
+                .filter(t -> !Objects.equals(t, token))
+                .iterator());
+        //the last token of the user. Forget the user
+        return tokens.isEmpty() ? null : new UserTokenInfo(v.getUserName(), tokens);
+    }
+
+    /**
+     * Runs in the timer thread. Remove token which hasn't been used for idle timeout.
+     */
+    private void expireToken(String token) {
+        final UserData userData = tokenToUserDataMap.get(token);
+        if (Objects.isNull(userData)) {
+            return;
+        }
+        final long delay = (userData.getSecondId() + 1) * 1000L + idleMillis - systemClock.millis();
+        if (delay > 0) {
+            timer.schedule(() -> expireToken(token), delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        final String user = userData.getSla().getUser();
+        //forget the token in user's tokens first: user's RPS is never counted through a token which isn't cached
+        userToUserDataMap.computeIfPresent(user, (k, v) -> withoutToken(token, v));
+        if (!tokenToUserDataMap.remove(token, userData)) {
+            //token has just been used again. Keep it
+            userToUserDataMap.compute(user, (k, v) -> computeUserTokenInfo(token, userData, v));
+            timer.schedule(() -> expireToken(token), Math.max(1000L, idleMillis), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private UserData computeSla(String token, Sla sla, UserData ud, boolean pushed) {
+        if (Objects.nonNull(ud)) {
+            // existing entry for this token.
+            // should update token and support existing values of ud (currently computed UserData)
+            // also, we support remaining RPS even if New SLA has new one. To simplify solution.
+            // Pushed change can be applied to current second: requests consumed by the token are kept.
+            final long rps = pushed && applyToLiveWindows ? rebase(ud, sla) : ud.getRps();
+            return new UserData(ud.getSecondId(), sla, rps, ud.getToken());
+
+        } else {
+            //no entry yet for this token
+            //create new UserData with secondFromEpoch
+            if (Objects.nonNull(timer)) {
+                //not earlier than the token could become idle: entry is in the cache by then
+                timer.schedule(() -> expireToken(token), 1000L + idleMillis, TimeUnit.MILLISECONDS);
+            }
+            return new UserData(getSecondFromEpoch(), sla, sla.getRps(), token);
+        }
+    }
+
+    /**
+     * @return remaining RPS of the token as if current second had been started with the new Sla
+     */
+    private static long rebase(UserData ud, Sla sla) {
+        final Sla previous = ud.getSla();
+        if (!Objects.equals(previous.getUser(), sla.getUser()) || previous.getRps() == Sla.NO_LIMIT || sla.getRps() == Sla.NO_LIMIT) {
+            return ud.getRps();
+        }
+        return ud.getRps() + sla.getRps() - previous.getRps();
+    }
+
+    /**
+     * Receive Sla changes from the source. SlaService is asked only for tokens which aren't cached.
+     * @param applyToLiveWindows - true -> change is applied to the current second of the token.
+     *                           false -> current second keeps the previous RPS, the next one gets the new one.
+     */
+    public void subscribe(final SlaUpdateSource source, final boolean applyToLiveWindows) {
+        Objects.requireNonNull(source, "Sla update source is required");
+        this.applyToLiveWindows = applyToLiveWindows;
+        this.slaPushed = true;
+        source.subscribe(this);
+    }
+
+    @Override
+    public void onTokenSla(String token, Sla sla) {
+        if (Objects.nonNull(sla)) {
+            tokenToUserDataMap.compute(token, (t, ud) -> computeSla(token, sla, ud, true));
+            return;
+        }
+        //revoked token competes for default RPS again
+        final UserData removed = tokenToUserDataMap.remove(token);
+        if (Objects.nonNull(removed)) {
+            userToUserDataMap.computeIfPresent(removed.getSla().getUser(), (k, v) -> withoutToken(token, v));
+        }
+    }
+
+    /**
+     * Changes are rare: all cached tokens are scanned. Tokens of the user which aren't cached yet get the new Sla from SlaService.
+     */
+    @Override
+    public void onUserSla(String user, Sla sla) {
+        Objects.requireNonNull(sla, "Sla is required");
+        tokenToUserDataMap.replaceAll((token, ud) -> Objects.equals(ud.getSla().getUser(), user)
+                ? computeSla(token, sla, ud, true)
+                : ud);
+    }
+
     private UserData computeUserData(long secondFromEpoch, UserData v) {
         long secondId = v.getSecondId();
         if (secondId == secondFromEpoch) {
@@ -181,47 +349,77 @@ public class ThrottlingServiceImpl implements ThrottlingService {
     }
 
     private void checkSlaService(String token) {
-        requestToSlaPerToken.computeIfAbsent(token, proceedSlaService(token))
-                .thenAcceptAsync(sla -> {
-                    if (Objects.isNull(sla)) {
-                        //Sla Service does not have any mappings for this token
-                        return;
+        final SlaFetchEvent event = new SlaFetchEvent();
+        event.begin();
+
+        // request for this token is in progress. Plain read, nothing to allocate.
+        final CompletableFuture<Sla> ongoing = requestToSlaPerToken.get(token);
+        if (Objects.nonNull(ongoing)) {
+            event.commitOnCompletion(token, true, ongoing);
+            return;
+        }
+
+        final CompletableFuture<Sla> slaFuture = new CompletableFuture<>();
+        final CompletableFuture<Sla> raced = requestToSlaPerToken.putIfAbsent(token, slaFuture);
+        if (Objects.nonNull(raced)) {
+            // another thread has just started request for the same token
+            event.commitOnCompletion(token, true, raced);
+            return;
+        }
+        event.commitOnCompletion(token, false, slaFuture);
+        //SlaService may never respond. Timeout releases the token for the next request to SlaService
+        final Timeout timeout = Objects.isNull(timer) ? null
+                : timer.schedule(() -> slaFuture.completeExceptionally(new TimeoutException("Sla request timed out")),
+                        slaTimeoutMillis, TimeUnit.MILLISECONDS);
+
+        // only the thread which registered the request gets here. Handle response once per request, not per call.
+        slaFuture.whenCompleteAsync((sla, throwable) -> {
+            if (Objects.nonNull(timeout)) {
+                //answered in time: don't keep the timeout in the wheel until it's due
+                timeout.cancel();
+            }
+            //when SlaService returns RealUserName we should
+            //  1. add entry to tokenToUserDataMap and then
+            //  2. Cleanup requestToSlaPerToken to avoid memory leak. Even if SlaService failed.
+            if (Objects.nonNull(sla)) {
+                tokenToUserDataMap.compute(token, (t, ud) -> {
+                    if (Objects.nonNull(ud) && slaPushed) {
+                        //pushed change could have come while the request was in progress. It's newer
+                        return ud;
                     }
-                    //when SlaService returns RealUserName we should
-                    //  1. add entry to tokenToUserDataMap and then
-                    //  2. Cleanup requestToSlaPerToken to avoid memory leak.
-
-                    //1. add to tokenToUserDataMap Sla
-                    tokenToUserDataMap.compute(token, (t, ud) -> {
-                        if (Objects.nonNull(ud)) {
-                            // existing entry for this token.
-                            // should update token and support existing values of ud (currently computed UserData)
-                            // also, we support remaining RPS even if New SLA has new one. To simplify solution.
-                            return new UserData(ud.getSecondId(), sla, ud.getRps(), ud.getToken());
-
-                        } else {
-                            //no entry yet for this token
-                            //create new UserData with secondFromEpoch
-                            return new UserData(getSecondFromEpoch(), sla, sla.getRps(), token);
-                        }
-                    });
+                    return computeSla(token, sla, ud, false);
+                });
+            }
+            requestToSlaPerToken.remove(token, slaFuture);
+        }, slaExecutor);
 
-                }, CUSTOM_FORK_JOIN_POOL)
-                // 2. cleanup request pool after completion to avoid memory leak.
-                .thenRunAsync(() -> requestToSlaPerToken.remove(token), CUSTOM_FORK_JOIN_POOL);
+        proceedSlaService(token).whenComplete((sla, throwable) -> {
+            if (Objects.nonNull(throwable)) {
+                slaFuture.completeExceptionally(throwable);
+            } else {
+                slaFuture.complete(sla);
+            }
+        });
     }
 
-    private Function<String, CompletableFuture<Sla>> proceedSlaService(String token) {
+    private CompletableFuture<Sla> proceedSlaService(String token) {
         //always run on separate thread pool. We aru using custom FORK_JOIN_POOL to avoid problem with default one in Java Stream API
-        return (t) ->
-                CompletableFuture.completedFuture(0)
-                        .thenComposeAsync((v) -> slaService.getSlaByToken(token), CUSTOM_FORK_JOIN_POOL);
+        final CompletableFuture<Sla> slaFuture = CompletableFuture.completedFuture(0)
+                .thenComposeAsync((v) -> slaService.getSlaByToken(token), slaExecutor);
+        if (!metrics.isEnabled()) {
+            return slaFuture;
+        }
+        final long startNanos = System.nanoTime();
+        return slaFuture.whenComplete((sla, throwable) ->
+                metrics.recordSlaFetch(System.nanoTime() - startNanos, Objects.nonNull(sla)));
     }
 
     private long checkRemainingRps(@NonNull UserData newUserData) {
-        return Optional.ofNullable(newUserData)
-                .map(UserData::getRps)
-                .orElseThrow(NullableUserDataException::new);
+        //plain check: Optional boxes RPS on each call
+        if (Objects.isNull(newUserData)) {
+            throw new NullableUserDataException();
+        }
+        return newUserData.getRps();
     }
 
     /**
@@ -230,7 +428,8 @@ public class ThrottlingServiceImpl implements ThrottlingService {
      * Use this always increase sequence as Id of current second.
      */
     private long getSecondFromEpoch() {
-        return Instant.now(systemClock).getEpochSecond();
+        // the same as Instant.now(systemClock).getEpochSecond() without allocating Instant
+        return Math.floorDiv(systemClock.millis(), 1000L);
     }
 
     private Sla createGuestSla() {
@@ -255,6 +454,14 @@ public class ThrottlingServiceImpl implements ThrottlingService {
         this.systemClock = systemClock;
     }
 
+    /**
+     * Replace Sla thread pool. For ex.: direct executor to handle Sla deterministically in the caller thread.
+     */
+    @VisibleForTesting
+    void setSlaExecutor(Executor slaExecutor) {
+        this.slaExecutor = slaExecutor;
+    }
+
     @VisibleForTesting
     Map<String, UserData> getTokenToUserDataMap() {
         return tokenToUserDataMap;
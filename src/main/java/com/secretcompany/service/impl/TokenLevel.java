@@ -0,0 +1,72 @@
+package com.secretcompany.service.impl;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.secretcompany.timer.HashedWheelTimer;
+
+import java.time.Clock;
+import java.util.Objects;
+
+import static com.secretcompany.dto.Sla.NO_LIMIT;
+import static com.secretcompany.service.impl.HierarchicalWindowLimiter.NO_TOKEN;
+import static com.secretcompany.service.impl.Window.REJECTED;
+import static com.secretcompany.service.impl.Window.SKIPPED;
+
+/**
+ * Token level: the same RPS for every token id. Counted by exact window per token or approximately
+ * by {@link HeavyHitterLimiter} in fixed memory: for abusive traffic with millions of random tokens.
+ */
+final class TokenLevel {
+    private final long rps;
+    // null -> approximate
+    private final WindowLevel windows;
+    // null -> exact
+    private final HeavyHitterLimiter approximate;
+
+    /**
+     * @param approximate - nullable. Tokens are counted approximately by it if present.
+     */
+    TokenLevel(final long rps, final HeavyHitterLimiter approximate, final HashedWheelTimer expiryTimer,
+               final long idleMillis, final int maxAttempts) {
+        this.rps = rps;
+        this.approximate = approximate;
+        this.windows = Objects.isNull(approximate) ? new WindowLevel(expiryTimer, idleMillis, maxAttempts) : null;
+    }
+
+    /**
+     * @return window start (current time if approximate), SKIPPED, REJECTED or UNDECIDED
+     */
+    long acquire(long current, long tokenId) {
+        if (tokenId == NO_TOKEN || rps == NO_LIMIT) {
+            return SKIPPED;
+        }
+        if (Objects.nonNull(approximate)) {
+            return approximate.tryAcquire(current, tokenId, rps) ? current : REJECTED;
+        }
+        return windows.acquire(tokenId, rps, current);
+    }
+
+    void release(long current, long tokenId, long acquired) {
+        if (acquired <= SKIPPED) {
+            return;
+        }
+        if (Objects.nonNull(approximate)) {
+            approximate.release(current, tokenId);
+        } else {
+            windows.release(tokenId, acquired);
+        }
+    }
+
+    /**
+     * @return number of exact windows
+     */
+    int size() {
+        return Objects.isNull(windows) ? 0 : windows.size();
+    }
+
+    @VisibleForTesting
+    void setSystemClock(Clock systemClock) {
+        if (Objects.nonNull(windows)) {
+            windows.setSystemClock(systemClock);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.timer.HashedWheelTimer;
+
+import java.util.Objects;
+
+import static com.secretcompany.dto.Sla.NO_LIMIT;
+import static com.secretcompany.service.impl.UserWindows.LEASE_FRACTION;
+import static com.secretcompany.service.impl.Window.RETIRED;
+
+/**
+ * User level: all windows of a user in one {@link UserWindows}, keyed by user id of Sla.
+ * User's windows are kept till the end of its minute and day caps, so caps are not reset by expiry.
+ *
+ * Optional permit leasing for hot users (RPS >= 16 * lease size): a thread takes a batch of permits from user's
+ * windows at once and spends them without touching the windows, see {@link PermitLeases}. Permits in leases
+ * of a user are capped by maxOverAdmission: they are admitted without checking the windows again,
+ * so a Sla lowered meanwhile is exceeded by at most that many requests.
+ */
+final class UserLevel extends KeyedWindows<UserWindows> {
+    // result of acquire other than window start: permit is taken from the lease
+    static final long LEASED = Long.MIN_VALUE + 4;
+
+    private final int slices;
+    // 1 -> no leasing
+    private final int leaseSize;
+    // max permits in leases of a user at once
+    private final long maxOverAdmission;
+    // 0 -> blocking
+    private final int maxAttempts;
+
+    /**
+     * @param slices - number of slices of one second window, see {@link UserWindows#acquire}
+     */
+    UserLevel(final int slices, final int leaseSize, final long maxOverAdmission, final HashedWheelTimer expiryTimer,
+              final long idleMillis, final int maxAttempts) {
+        super(expiryTimer, idleMillis);
+        this.slices = slices;
+        this.leaseSize = leaseSize;
+        this.maxOverAdmission = maxOverAdmission;
+        this.maxAttempts = maxAttempts;
+    }
+
+    UserWindows windowsOf(Sla sla) {
+        final UserWindows windows = get(sla.getUserId());
+        return Objects.nonNull(windows) ? windows : publish(sla.getUserId(), new UserWindows(sla.getUserKey()));
+    }
+
+    /**
+     * Read only. Thread with leased permits spends them even if the windows are exhausted.
+     * @return true if the user has exhausted its windows
+     */
+    boolean isDenied(UserWindows user, Sla sla, long currentMillis) {
+        return currentMillis < user.getDeniedUntilMillis() && !(isLeasing(sla) && hasLeasedPermits(user, currentMillis));
+    }
+
+    /**
+     * @param user - windows of the user found by the caller. Replaced by the new ones if retired meanwhile
+     * @return start of user's second window, LEASED, REJECTED or UNDECIDED. Nothing is consumed if rejected.
+     */
+    long acquire(UserWindows user, Sla sla, long currentMillis) {
+        if (isLeasing(sla)) {
+            return acquireLeased(user, sla, currentMillis);
+        }
+        UserWindows windows = user;
+        long acquired;
+        while ((acquired = windows.acquire(currentMillis, sla, slices, maxAttempts)) == RETIRED) {
+            //expiry has just retired it: help to remove and take the new one
+            remove(sla.getUserId(), windows);
+            windows = windowsOf(sla);
+        }
+        return acquired;
+    }
+
+    /**
+     * Return permit back. Leased permit goes back to the lease.
+     */
+    void release(Sla sla, long acquired, long currentMillis) {
+        final UserWindows windows = get(sla.getUserId());
+        if (Objects.isNull(windows)) {
+            return;
+        }
+        final PermitLeases leases = windows.getLeases();
+        if (isLeasing(sla) && Objects.nonNull(leases)) {
+            leases.release();
+        } else {
+            windows.release(acquired, currentMillis, 1, maxAttempts);
+        }
+    }
+
+    /**
+     * Permits already leased by threads stay consumed and are spent: see maxOverAdmission.
+     */
+    void rebase(long currentMillis, Sla previous, Sla updated) {
+        final UserWindows windows = get(updated.getUserId());
+        if (Objects.nonNull(windows)) {
+            windows.rebase(currentMillis, previous, updated);
+        }
+    }
+
+    private boolean isLeasing(Sla sla) {
+        return leaseSize > 1 && sla.getRps() != NO_LIMIT && sla.getRps() >= leaseSize * LEASE_FRACTION;
+    }
+
+    private static boolean hasLeasedPermits(UserWindows user, long currentMillis) {
+        final PermitLeases leases = user.getLeases();
+        return Objects.nonNull(leases) && leases.hasPermits(currentMillis);
+    }
+
+    /**
+     * Spend the lease of current thread's stripe or take a new one.
+     * @return LEASED if permit came from the lease, user's second window start if new lease is taken,
+     * REJECTED or UNDECIDED
+     */
+    private long acquireLeased(UserWindows user, Sla sla, long currentMillis) {
+        final PermitLeases leases = user.getLeases();
+        if (Objects.nonNull(leases) && leases.tryTake(currentMillis)) {
+            return LEASED;
+        }
+        UserWindows windows = user;
+        long acquired;
+        while ((acquired = windows.lease(currentMillis, sla, leaseSize, maxOverAdmission, slices, maxAttempts)) == RETIRED) {
+            //expiry has just retired it: help to remove and take the new one
+            remove(sla.getUserId(), windows);
+            windows = windowsOf(sla);
+        }
+        return acquired;
+    }
+}
@@ -0,0 +1,288 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.intern.InternedKey;
+
+import java.util.Objects;
+
+import static com.secretcompany.dto.Sla.NO_LIMIT;
+
+/**
+ * All windows of a single user under one lock: so they are updated together.
+ *
+ * Second window starts with the first request of the user. Minute and day windows are coarse buckets aligned to epoch:
+ * only bucket number and remaining requests are kept. Caps with NO_LIMIT are never counted down.
+ *
+ * Keeps the interned user: its id, the key of the windows, stays the same while the windows are alive.
+ *
+ * Hot user can lease permits to threads, see {@link PermitLeases}. Leased permits are consumed from the windows at once.
+ * Unspent ones go back to the minute and day windows when the second window rolls over, so they aren't lost.
+ */
+final class UserWindows extends Window {
+    static final long MINUTE_MILLIS = 60 * WINDOW_MILLIS;
+    static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+    // lease is at most this fraction of remaining permits: permits stuck in leases of other threads are bounded
+    static final long LEASE_FRACTION = 16;
+
+    private final InternedKey user;
+    // guarded by lock. Before epoch: the first acquire starts new buckets
+    private long minuteBucket = -1;
+    private long minuteRemaining;
+    private long dayBucket = -1;
+    private long dayRemaining;
+    // end of the latest exhausted window: nothing is allowed till then. Read without lock by the fast path
+    private volatile long deniedUntilMillis = Long.MIN_VALUE;
+    // created with the first lease: only hot users lease. Read without lock by the lease fast path
+    private volatile PermitLeases leases;
+
+    UserWindows(final InternedKey user) {
+        this.user = user;
+    }
+
+    InternedKey getUser() {
+        return user;
+    }
+
+    long getDeniedUntilMillis() {
+        return deniedUntilMillis;
+    }
+
+    /**
+     * @return null if the user has never leased
+     */
+    PermitLeases getLeases() {
+        return leases;
+    }
+
+    /**
+     * @param slices - 1 -> no smoothing. Otherwise by the end of slice i (0-based) user may consume at most
+     *               RPS * (i + 1) / slices of the second window
+     * @return second window start, REJECTED, UNDECIDED or RETIRED. Nothing is consumed if rejected.
+     */
+    long acquire(long current, Sla sla, int slices, int maxAttempts) {
+        if (!tryLock(maxAttempts)) {
+            return UNDECIDED;
+        }
+        try {
+            if (retired) {
+                return RETIRED;
+            }
+            rollOver(current, sla);
+            return tryConsume(current, sla, 1, slices) ? startMillis : REJECTED;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * New lease for the current thread's stripe. Unspent permits of its previous lease go back first.
+     * Lease is at most leaseSize, 1/16 of remaining permits and the room left under maxLeased.
+     * One permit of the lease is spent by the caller.
+     * @param maxLeased - max permits in leases of the user at once
+     * @return second window start, REJECTED, UNDECIDED or RETIRED. Nothing is consumed if rejected.
+     */
+    long lease(long current, Sla sla, long leaseSize, long maxLeased, int slices, int maxAttempts) {
+        if (!tryLock(maxAttempts)) {
+            return UNDECIDED;
+        }
+        try {
+            if (retired) {
+                return RETIRED;
+            }
+            if (Objects.isNull(leases)) {
+                leases = new PermitLeases();
+            }
+            rollOver(current, sla);
+            final int stripe = leases.stripe();
+            returnUnspent(stripe);
+            long permits = Math.max(1L, Math.min(Math.min(leaseSize, getRemainingHint() / LEASE_FRACTION),
+                    maxLeased - leases.getLeased()));
+            if (!tryConsume(current, sla, permits, slices)) {
+                //not enough permits for a whole lease. Try a single one
+                if (permits == 1 || !tryConsume(current, sla, 1, slices)) {
+                    return REJECTED;
+                }
+                permits = 1;
+            }
+            leases.lease(stripe, permits - 1, startMillis, current, Math.min(startMillis + WINDOW_MILLIS,
+                    Math.min((minuteBucket + 1) * MINUTE_MILLIS, (dayBucket + 1) * DAY_MILLIS)));
+            return startMillis;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Guarded by lock. Start new windows which are due. Unspent leases of the previous second window go back
+     * before the minute and day windows roll over.
+     */
+    private void rollOver(long current, Sla sla) {
+        if (current >= startMillis + WINDOW_MILLIS) {
+            if (Objects.nonNull(leases)) {
+                for (int stripe = 0; stripe < leases.getStripes(); stripe++) {
+                    returnUnspent(stripe);
+                }
+            }
+            //here we should support existing RPS. If Sla comes with new RPS we will support it in the next window
+            startMillis = current;
+            remaining = sla.getRps();
+        }
+        //buckets never go back. Even if another thread has read the clock a bit later than this one
+        final long minute = Math.floorDiv(current, MINUTE_MILLIS);
+        if (minute > minuteBucket) {
+            minuteBucket = minute;
+            minuteRemaining = sla.getPerMinute();
+        }
+        final long day = Math.floorDiv(current, DAY_MILLIS);
+        if (day > dayBucket) {
+            dayBucket = day;
+            dayRemaining = sla.getPerDay();
+        }
+    }
+
+    /**
+     * Guarded by lock.
+     * @return false if rejected: nothing is consumed
+     */
+    private boolean tryConsume(long current, Sla sla, long permits, int slices) {
+        if (remaining < permits || minuteRemaining < permits || dayRemaining < permits
+                || isAheadOfSlice(current, sla.getRps(), permits, slices)) {
+            return false;
+        }
+        remaining = consume(remaining, permits);
+        minuteRemaining = consume(minuteRemaining, permits);
+        dayRemaining = consume(dayRemaining, permits);
+        publishDeniedUntil(current);
+        return true;
+    }
+
+    /**
+     * Guarded by lock. Unspent permits of the stripe's lease go back to the windows they have been taken from,
+     * if those haven't been replaced by the next ones.
+     */
+    private void returnUnspent(int stripe) {
+        final long unspent = leases.drain(stripe);
+        if (unspent <= 0) {
+            return;
+        }
+        final long leasedAt = leases.getLeasedAtMillis(stripe);
+        if (leases.getStartMillis(stripe) == startMillis) {
+            remaining = consume(remaining, -unspent);
+        }
+        if (Math.floorDiv(leasedAt, MINUTE_MILLIS) == minuteBucket) {
+            minuteRemaining = consume(minuteRemaining, -unspent);
+        }
+        if (Math.floorDiv(leasedAt, DAY_MILLIS) == dayBucket) {
+            dayRemaining = consume(dayRemaining, -unspent);
+        }
+    }
+
+    /**
+     * Return permits back to the windows which haven't been replaced by the next ones.
+     */
+    void release(long start, long current, long permits, int maxAttempts) {
+        if (!tryLock(maxAttempts)) {
+            return;
+        }
+        if (startMillis == start) {
+            remaining = consume(remaining, -permits);
+        }
+        if (minuteBucket == Math.floorDiv(current, MINUTE_MILLIS)) {
+            minuteRemaining = consume(minuteRemaining, -permits);
+        }
+        if (dayBucket == Math.floorDiv(current, DAY_MILLIS)) {
+            dayRemaining = consume(dayRemaining, -permits);
+        }
+        //permit is available again if rejected by another level
+        publishDeniedUntil(current);
+        unlock();
+    }
+
+    /**
+     * Apply changed Sla of the user to the current windows: permits consumed within them are kept.
+     */
+    void rebase(long current, Sla previous, Sla updated) {
+        tryLock(0);
+        remaining = rebaseCap(remaining, previous.getRps(), updated.getRps());
+        minuteRemaining = rebaseCap(minuteRemaining, previous.getPerMinute(), updated.getPerMinute());
+        dayRemaining = rebaseCap(dayRemaining, previous.getPerDay(), updated.getPerDay());
+        //user could have got permits back or lost the rest of them
+        publishDeniedUntil(current);
+        unlock();
+    }
+
+    /**
+     * Read without lock: it's just a hint.
+     * @return the least of remaining requests of the windows
+     */
+    long getRemainingHint() {
+        return Math.min(remaining, Math.min(minuteRemaining, dayRemaining));
+    }
+
+    /**
+     * Windows without limit (NO_LIMIT) don't count.
+     */
+    @Override
+    long getActiveUntilMillis() {
+        long until = super.getActiveUntilMillis();
+        if (minuteRemaining != NO_LIMIT) {
+            until = Math.max(until, (minuteBucket + 1) * MINUTE_MILLIS);
+        }
+        if (dayRemaining != NO_LIMIT) {
+            until = Math.max(until, (dayBucket + 1) * DAY_MILLIS);
+        }
+        return until;
+    }
+
+    /**
+     * @return true if user would consume more than allowed by the end of current slice
+     */
+    private boolean isAheadOfSlice(long current, long rps, long permits, int slices) {
+        if (slices == 1 || rps == NO_LIMIT) {
+            return false;
+        }
+        //another thread could have already started the next window. Treat it as the first slice
+        final long elapsed = Math.max(0L, current - startMillis);
+        final long slice = Math.min(slices - 1, elapsed * slices / WINDOW_MILLIS);
+        //ceil, so user with RPS < slices isn't blocked in the first slices
+        final long allowed = (rps * (slice + 1) + slices - 1) / slices;
+        //Sla RPS could be changed within the window. It's fine: window itself keeps the existing RPS
+        final long consumed = rps - remaining + permits;
+        return consumed > allowed;
+    }
+
+    /**
+     * User has consumed the last request of a window. Nothing is allowed till the end of the latest exhausted one
+     * or of the second window if there are permits in leases.
+     */
+    private void publishDeniedUntil(long current) {
+        long until = Long.MIN_VALUE;
+        if (remaining <= 0) {
+            until = startMillis + WINDOW_MILLIS;
+        }
+        if (minuteRemaining <= 0) {
+            until = Math.max(until, (minuteBucket + 1) * MINUTE_MILLIS);
+        }
+        if (dayRemaining <= 0) {
+            until = Math.max(until, (dayBucket + 1) * DAY_MILLIS);
+        }
+        if (Objects.nonNull(leases) && leases.getLeased() > 0) {
+            //unspent leases go back at the end of the second window: let requests in to take them
+            until = Math.min(until, startMillis + WINDOW_MILLIS);
+        }
+        if (until > current || deniedUntilMillis != Long.MIN_VALUE) {
+            deniedUntilMillis = until > current ? until : Long.MIN_VALUE;
+        }
+    }
+
+    private static long consume(long remaining, long permits) {
+        return remaining == NO_LIMIT ? NO_LIMIT : remaining - permits;
+    }
+
+    /**
+     * Caps: NO_LIMIT is never counted down.
+     */
+    private static long rebaseCap(long remaining, long previousLimit, long updatedLimit) {
+        return updatedLimit == NO_LIMIT ? NO_LIMIT : rebase(remaining, previousLimit, updatedLimit);
+    }
+}
@@ -0,0 +1,142 @@
+package com.secretcompany.service.impl;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * One second window of a single key of {@link HierarchicalWindowLimiter}. Mutable: the level keeps one instance
+ * per key and updates it in place, so a decision neither allocates nor writes to the map.
+ *
+ * Fields are guarded by a spin lock of an int field: critical sections are a few arithmetic operations,
+ * much shorter than parking a thread. Window removed from its map by expiry is retired and never consumes
+ * permits again: acquirer takes the new window of the key instead.
+ */
+class Window {
+    static final long WINDOW_MILLIS = 1000L;
+    // results of acquire other than window start
+    static final long REJECTED = Long.MIN_VALUE;
+    static final long UNDECIDED = Long.MIN_VALUE + 1;
+    static final long RETIRED = Long.MIN_VALUE + 2;
+    // result of a level which isn't checked: nothing to return
+    static final long SKIPPED = Long.MIN_VALUE + 3;
+
+    private static final AtomicIntegerFieldUpdater<Window> LOCK = AtomicIntegerFieldUpdater.newUpdater(Window.class, "lock");
+    // blocking lock gives up the CPU this often
+    private static final int SPINS_PER_YIELD = 64;
+
+    private volatile int lock;
+    // guarded by lock. Far in the past: the first acquire starts a new window
+    long startMillis = Long.MIN_VALUE / 2;
+    long remaining;
+    boolean retired;
+
+    /**
+     * @param maxAttempts - 0 -> blocking
+     * @return window start, REJECTED, UNDECIDED if still locked after maxAttempts or RETIRED.
+     * Nothing is consumed if rejected.
+     */
+    long acquire(long current, long rps, int maxAttempts) {
+        if (!tryLock(maxAttempts)) {
+            return UNDECIDED;
+        }
+        try {
+            if (retired) {
+                return RETIRED;
+            }
+            if (current >= startMillis + WINDOW_MILLIS) {
+                //window isn't started yet or we start new window
+                startMillis = current;
+                remaining = rps;
+            }
+            //here we should support existing RPS. If Sla comes with new RPS we will support it in the next window
+            if (remaining <= 0) {
+                return REJECTED;
+            }
+            remaining--;
+            return startMillis;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Return permit back. Only if the window hasn't been replaced by the next one.
+     * Permit which can't be returned within maxAttempts stays consumed till the end of its window.
+     */
+    void release(long start, int maxAttempts) {
+        if (!tryLock(maxAttempts)) {
+            return;
+        }
+        if (startMillis == start) {
+            remaining++;
+        }
+        unlock();
+    }
+
+    /**
+     * Apply changed limit to the current window: permits consumed within it are kept.
+     */
+    void rebase(long previousLimit, long updatedLimit) {
+        tryLock(0);
+        remaining = rebase(remaining, previousLimit, updatedLimit);
+        unlock();
+    }
+
+    /**
+     * Runs in the expiry timer thread. Retired window stays in the map till the caller removes it.
+     * @return millis till the window becomes idle. <= 0 -> the window is retired
+     */
+    long retireIfIdle(long now, long idleMillis) {
+        tryLock(0);
+        try {
+            final long delay = getActiveUntilMillis() + idleMillis - now;
+            if (delay <= 0) {
+                retired = true;
+            }
+            return delay;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Guarded by lock.
+     * @return end of the latest window which limits the key
+     */
+    long getActiveUntilMillis() {
+        return startMillis + WINDOW_MILLIS;
+    }
+
+    /**
+     * @param maxAttempts - 0 -> spin till the lock is taken
+     * @return false if it's still taken by another thread after maxAttempts
+     */
+    final boolean tryLock(int maxAttempts) {
+        for (int attempt = 1; ; attempt++) {
+            if (lock == 0 && LOCK.compareAndSet(this, 0, 1)) {
+                return true;
+            }
+            if (attempt == maxAttempts) {
+                return false;
+            }
+            if (attempt % SPINS_PER_YIELD == 0) {
+                //holder could have been preempted
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    final void unlock() {
+        lock = 0;
+    }
+
+    /**
+     * Windows which count down from the limit, NO_LIMIT included.
+     */
+    static long rebase(long remaining, long previousLimit, long updatedLimit) {
+        //window could have been started with another limit. Nothing is known about consumed permits then
+        final long consumed = remaining > previousLimit ? 0L : previousLimit - remaining;
+        return updatedLimit - consumed;
+    }
+}
@@ -0,0 +1,63 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.timer.HashedWheelTimer;
+
+import java.util.Objects;
+
+import static com.secretcompany.service.impl.Window.RETIRED;
+import static com.secretcompany.service.impl.Window.SKIPPED;
+
+/**
+ * Level of a single one second {@link Window} per key: token, resource and tenant levels.
+ */
+final class WindowLevel extends KeyedWindows<Window> {
+    // 0 -> blocking
+    private final int maxAttempts;
+
+    WindowLevel(final HashedWheelTimer expiryTimer, final long idleMillis, final int maxAttempts) {
+        super(expiryTimer, idleMillis);
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return window start, REJECTED or UNDECIDED
+     */
+    long acquire(long key, long rps, long current) {
+        Window window = windowOf(key);
+        long acquired;
+        while ((acquired = window.acquire(current, rps, maxAttempts)) == RETIRED) {
+            //expiry has just retired it: help to remove and take the new one
+            remove(key, window);
+            window = windowOf(key);
+        }
+        return acquired;
+    }
+
+    /**
+     * Return permit back. Only if the window hasn't been replaced by the next one.
+     */
+    void release(long key, long acquired) {
+        if (acquired <= SKIPPED) {
+            return;
+        }
+        final Window window = get(key);
+        if (Objects.nonNull(window)) {
+            window.release(acquired, maxAttempts);
+        }
+    }
+
+    /**
+     * Apply changed limit to the current window of the key if there is one.
+     */
+    void rebase(long key, long previousLimit, long updatedLimit) {
+        final Window window = get(key);
+        if (Objects.nonNull(window)) {
+            window.rebase(previousLimit, updatedLimit);
+        }
+    }
+
+    private Window windowOf(long key) {
+        final Window window = get(key);
+        return Objects.nonNull(window) ? window : publish(key, new Window());
+    }
+}
@@ -1,25 +1,29 @@
 package com.secretcompany.service.impl;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+import com.secretcompany.dto.KeyClass;
+import com.secretcompany.dto.Priority;
 import com.secretcompany.dto.Sla;
-import com.secretcompany.dto.TimeWindow;
+import com.secretcompany.jfr.ThrottleDecisionEvent;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.resilience.AimdLimitController;
+import com.secretcompany.service.ResourceThrottlingService;
 import com.secretcompany.service.SlaService;
+import com.secretcompany.service.SlaUpdateSource;
 import com.secretcompany.service.ThrottlingService;
-import lombok.NonNull;
+import com.secretcompany.timer.HashedWheelTimer;
 import org.apache.commons.lang3.StringUtils;
 
 import java.time.Clock;
-import java.time.Instant;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.BiFunction;
-import java.util.function.Function;
+import java.util.concurrent.Executor;
 
-import static com.secretcompany.config.ThrottlingConfiguration.CUSTOM_FORK_JOIN_POOL;
+import static com.secretcompany.dto.Sla.NO_RESOURCE;
+import static com.secretcompany.service.impl.HierarchicalWindowLimiter.NO_TOKEN;
 
 /**
  * 1. No token -> UnAuthorized Users. All compete for UnAuthorized GuestRPS
@@ -27,107 +31,159 @@ import static com.secretcompany.config.ThrottlingConfiguration.CUSTOM_FORK_JOIN_
  * 3. Token and Sla -> Welcome on board. Each user has own RPS.
  *
  * Authorized user can have several tokens.
+ *
+ * Optionally, on top of per-user RPS: per-token cap, per-tenant cap (from Sla) and global cap of the whole gateway.
+ * All levels are checked together by {@link HierarchicalWindowLimiter}. It can also spread user's RPS across sub-second slices.
+ *
+ * Sla is resolved by {@link SlaResolver}. Own one by default. Several services of the same process can share one:
+ * then a token is requested from SlaService and cached once for all of them.
+ *
+ * Token is looked up once per call: {@link ResolvedToken} of the resolver has its Sla and id. Token level
+ * of the limiter is keyed by the id.
+ *
+ * Optionally request to SlaService is failed by timeout, so a token is never stuck with a request which never completes.
+ *
+ * Optionally Sla changes are pushed by {@link SlaUpdateSource}. Then SlaService is asked only for tokens without Sla,
+ * and a change can be applied to the current windows of the user instead of the next ones.
+ *
+ * Optionally requests are bound to API resources: Sla can limit RPS of the user per resource on top of its RPS.
+ * Guests have no per-resource limits.
+ *
+ * Optionally limits adapt to the downstream by {@link AimdLimitController}: guest RPS and RPS of Sla users are scaled down
+ * on congestion and back up to the contracted ones when healthy. The new scale applies to the next windows.
  */
-public class WindowThrottlingServiceImpl implements ThrottlingService {
+public class WindowThrottlingServiceImpl implements ThrottlingService, ResourceThrottlingService {
     private static final String UNAUTHORIZED_USERS = UUID.randomUUID().toString();
     private static final String AUTHORIZED_USERS_WITHOUT_SLA = UUID.randomUUID().toString();
 
+    private final SlaResolver slaResolver;
+    private final ThrottlingMetrics metrics;
+    private final HierarchicalWindowLimiter limiter;
     private final int guestRps;
-    private final SlaService slaService;
-    private final Map<String, TimeWindow> userToTimeWindowMap = new ConcurrentHashMap<>();
-    private final Map<String, CompletableFuture<Sla>> requestToSlaPerToken = new ConcurrentHashMap<>();
-    private final Map<String, Sla> tokenSlaMap = new ConcurrentHashMap<>();
+
+    private volatile Sla unauthorizedSla;
+    private volatile Sla authorizedWithoutSla;
+    private volatile ScaledSlas scaledSlas = ScaledSlas.CONTRACTED;
+    private volatile boolean applyToLiveWindows;
 
     private Clock systemClock;
 
     public WindowThrottlingServiceImpl(final int guestRps, final SlaService slaService) {
-        this.guestRps = guestRps;
-        this.slaService = slaService;
+        this(guestRps, slaService, ThrottlingMetrics.NOOP);
+    }
+
+    public WindowThrottlingServiceImpl(final int guestRps, final SlaService slaService, final ThrottlingMetrics metrics) {
+        this(builder(guestRps).slaService(slaService).metrics(metrics));
+    }
+
+    private WindowThrottlingServiceImpl(final Builder builder) {
+        this.slaResolver = Objects.nonNull(builder.slaResolver) ? builder.slaResolver
+                : new SlaResolver(builder.slaService, builder.metrics, builder.slaTimer, builder.slaTimeout, null, Duration.ZERO);
+        this.metrics = builder.metrics;
+        this.limiter = Objects.nonNull(builder.limiter) ? builder.limiter : new HierarchicalWindowLimiter();
+        this.guestRps = builder.guestRps;
+        this.unauthorizedSla = new Sla(UNAUTHORIZED_USERS, guestRps, Priority.GUEST);
+        this.authorizedWithoutSla = new Sla(AUTHORIZED_USERS_WITHOUT_SLA, guestRps, Priority.GUEST);
         this.systemClock = Clock.systemUTC();
+
+        this.slaResolver.addChangeCallback(this::applyToLiveWindows);
+        metrics.registerGauge("throttling.cache.windows", limiter::size);
+        metrics.registerGauge("throttling.decision.undecided", limiter::getUndecided);
+    }
+
+    /**
+     * Per-user limits only, Sla resolved by own {@link SlaResolver} from SlaService: either is required.
+     */
+    public static Builder builder(final int guestRps) {
+        return new Builder(guestRps);
     }
 
     @Override
     public boolean isRequestAllowed(String token) {
-        //get current millis
-        final Instant now = Instant.now(systemClock);
-        final long current = now.toEpochMilli();
-        //determine the end of the timed window
-        final long end = now.plusMillis(1000L).toEpochMilli();
+        return isRequestAllowed(token, NO_RESOURCE);
+    }
 
-        // check current token is blank
-        Optional<String> userToken = Optional.ofNullable(token)
-                .filter(StringUtils::isNotBlank);
+    @Override
+    public boolean isRequestAllowed(String token, int resourceId) {
+        // don't even read the clock if metrics are disabled
+        final long startNanos = metrics.isEnabled() ? System.nanoTime() : 0L;
+        // JFR event is disabled by default. Disabled event costs nothing.
+        final ThrottleDecisionEvent event = new ThrottleDecisionEvent();
+        event.beginDecision();
 
-        if (userToken.isPresent()) {
+        //get current millis. Clock.millis doesn't allocate Instant
+        final long current = systemClock.millis();
+        event.clockRead();
 
-            //request to SlaService
-            checkSlaService(token);
+        // check current token is blank
+        if (StringUtils.isNotBlank(token)) {
 
-            //retrieve Sla
-            Sla sla = tokenSlaMap.get(token);
+            //request to SlaService and retrieve Sla. The only lookup by the token
+            final ResolvedToken resolved = slaResolver.resolve(token);
+            final Sla sla = resolved.getSla();
+            event.slaResolved();
 
             if (Objects.nonNull(sla)) {
                 //Check particular user's Sla
-                return checkRequestIsAllowed(current, end, sla.getUser(), sla.getRps());
+                return recordDecision(KeyClass.SLA_USER,
+                        limiter.tryAcquire(current, resolved.getId(), scaledSlas.of(sla), resourceId), startNanos, event);
             } else {
                 //Sla hasn't arrived yet. Compete for default RPS
-                return checkRequestIsAllowed(current, end, AUTHORIZED_USERS_WITHOUT_SLA, guestRps);
+                return recordDecision(KeyClass.AUTHORIZED_WITHOUT_SLA,
+                        limiter.tryAcquire(current, resolved.getId(), authorizedWithoutSla), startNanos, event);
             }
         } else {
+            event.slaResolved();
             // Token is absent. All unauthorized users compete for GuestRPS.
-            return checkRequestIsAllowed(current, end, UNAUTHORIZED_USERS, guestRps);
+            return recordDecision(KeyClass.UNAUTHORIZED,
+                    limiter.tryAcquire(current, NO_TOKEN, unauthorizedSla), startNanos, event);
         }
     }
 
-    private boolean checkRequestIsAllowed(long current, long end, String token, long rps) {
-        @NonNull TimeWindow currentWindow = userToTimeWindowMap.compute(token, computeTimedWindow(current, end, rps));
-        return currentWindow.getRps() >= 0;
+    private boolean recordDecision(KeyClass keyClass, boolean allowed, long startNanos, ThrottleDecisionEvent event) {
+        if (metrics.isEnabled()) {
+            metrics.recordDecision(keyClass, allowed, System.nanoTime() - startNanos);
+        }
+        event.commitDecision(keyClass, allowed);
+        return allowed;
     }
 
-    private BiFunction<String, TimeWindow, TimeWindow> computeTimedWindow(long current, long end, long rps) {
-        return (userId, window) -> {
-            if (Objects.nonNull(window)) {
-                //window is already present.
-                //check do we still in this window.(current time within start-end of window). If yes -> decrement RPS
-                if (current < window.getEndMillis()) {
-                    //here we should support existing RPS. If Sla comes with new RPS we will support it in the next window
-                    return new TimeWindow(window.getStartMillis(), window.getEndMillis(), window.getRps() - 1);
-                } else {
-                    //if not - means we start new window
-                    return new TimeWindow(current, end, rps - 1);
-                }
-
-            } else {
-                //window isn't created yet. create a new one and decrement default RPS
-                return new TimeWindow(current, end, rps - 1);
-            }
-        };
+    /**
+     * Receive Sla changes from the source. SlaService is asked only for tokens which don't have Sla yet.
+     * @param applyToLiveWindows - true -> change is applied to current windows of the user.
+     *                           false -> current windows keep the previous RPS, the next ones get the new one.
+     */
+    public void subscribe(final SlaUpdateSource source, final boolean applyToLiveWindows) {
+        this.applyToLiveWindows = applyToLiveWindows;
+        slaResolver.subscribe(source);
     }
 
-    private void checkSlaService(String token) {
-        requestToSlaPerToken.computeIfAbsent(token, proceedSlaService(token))
-                .thenAcceptAsync(sla -> {
-                    if (Objects.isNull(sla)) {
-                        //Sla Service does not have any mappings for this token
-                        return;
-                    }
-                    //when SlaService returns RealUserName we should
-                    //  1. add entry to tokenToUserDataMap and then
-                    //  2. Cleanup requestToSlaPerToken to avoid memory leak.
-
-                    //1. add to tokenSlaMap Sla
-                    tokenSlaMap.put(token, sla);
+    private void applyToLiveWindows(Sla previous, Sla updated) {
+        if (applyToLiveWindows) {
+            limiter.applySla(systemClock.millis(), previous, updated);
+        }
+    }
 
-                }, CUSTOM_FORK_JOIN_POOL)
-                // 2. cleanup request pool after completion to avoid memory leak.
-                .thenRunAsync(() -> requestToSlaPerToken.remove(token), CUSTOM_FORK_JOIN_POOL);
+    /**
+     * Scale limits by the controller from now on. Callers report downstream responses to the controller.
+     */
+    public void adaptTo(final AimdLimitController adaptiveLimit) {
+        Objects.requireNonNull(adaptiveLimit, "Adaptive limit is required");
+        adaptiveLimit.addScaleListener(() -> applyScale(adaptiveLimit));
+        applyScale(adaptiveLimit);
+        metrics.registerGauge("throttling.adaptive.guest.rps", () -> unauthorizedSla.getRps());
+        metrics.registerGauge("throttling.adaptive.sla.permille", () -> (long) (scaledSlas.scale * 1000));
     }
 
-    private Function<String, CompletableFuture<Sla>> proceedSlaService(String token) {
-        //always run on separate thread pool. We aru using custom FORK_JOIN_POOL to avoid problem with default one in Java Stream API
-        return (t) ->
-                CompletableFuture.completedFuture(0)
-                        .thenComposeAsync((v) -> slaService.getSlaByToken(token), CUSTOM_FORK_JOIN_POOL);
+    private void applyScale(AimdLimitController adaptiveLimit) {
+        final long rps = AimdLimitController.scale(guestRps, adaptiveLimit.getGuestScale());
+        if (rps != unauthorizedSla.getRps()) {
+            unauthorizedSla = new Sla(UNAUTHORIZED_USERS, rps, Priority.GUEST);
+            authorizedWithoutSla = new Sla(AUTHORIZED_USERS_WITHOUT_SLA, rps, Priority.GUEST);
+        }
+        if (adaptiveLimit.getSlaScale() != scaledSlas.scale) {
+            scaledSlas = new ScaledSlas(adaptiveLimit.getSlaScale());
+        }
     }
 
     @VisibleForTesting
@@ -135,8 +191,120 @@ public class WindowThrottlingServiceImpl implements ThrottlingService {
         this.systemClock = systemClock;
     }
 
+    /**
+     * Replace Sla thread pool. For ex.: direct executor to handle Sla deterministically in the caller thread.
+     */
+    @VisibleForTesting
+    void setSlaExecutor(Executor slaExecutor) {
+        slaResolver.setSlaExecutor(slaExecutor);
+    }
+
+    /**
+     * Sla as if SlaService has already responded it for the token.
+     */
     @VisibleForTesting
-    Map<String, CompletableFuture<Sla>> getRequestToSlaPerToken() {
-        return requestToSlaPerToken;
+    void putSla(String token, Sla sla) {
+        slaResolver.putSla(token, sla);
+    }
+
+    @VisibleForTesting
+    int getRequestsInFlight() {
+        return slaResolver.getRequestsInFlight();
+    }
+
+    /**
+     * Contracted Sla -> Sla with RPS multiplied by the scale. Replaced as a whole on each change of the scale,
+     * so a Sla scaled by the previous scale is never returned.
+     * Keyed by identity of the cached Sla: lookup doesn't compute Sla.hashCode, entry is gone with the contracted Sla.
+     */
+    private static class ScaledSlas {
+        private static final ScaledSlas CONTRACTED = new ScaledSlas(1.0);
+
+        private final double scale;
+        private final Map<Sla, Sla> slas = new MapMaker().weakKeys().makeMap();
+
+        private ScaledSlas(double scale) {
+            this.scale = scale;
+        }
+
+        private Sla of(Sla sla) {
+            if (scale >= 1.0) {
+                return sla;
+            }
+            final Sla cached = slas.get(sla);
+            if (Objects.nonNull(cached)) {
+                return cached;
+            }
+            final long[] resourceRps = sla.getResourceRps();
+            for (int resourceId = 0; resourceId < resourceRps.length; resourceId++) {
+                resourceRps[resourceId] = AimdLimitController.scale(resourceRps[resourceId], scale);
+            }
+            final Sla scaled = sla.toBuilder()
+                    .rps(AimdLimitController.scale(sla.getRps(), scale))
+                    .tenant(sla.getTenant(), AimdLimitController.scale(sla.getTenantRps(), scale))
+                    .resourceRps(resourceRps)
+                    .build();
+            slas.put(sla, scaled);
+            return scaled;
+        }
+    }
+
+    public static final class Builder {
+        private final int guestRps;
+        private SlaService slaService;
+        private SlaResolver slaResolver;
+        private ThrottlingMetrics metrics = ThrottlingMetrics.NOOP;
+        private HierarchicalWindowLimiter limiter;
+        private HashedWheelTimer slaTimer;
+        private Duration slaTimeout = Duration.ZERO;
+
+        private Builder(final int guestRps) {
+            this.guestRps = guestRps;
+        }
+
+        /**
+         * Own resolver of the service. Tokens never expire: see {@link SlaResolver} for a resolver which forgets idle tokens.
+         */
+        public Builder slaService(final SlaService slaService) {
+            this.slaService = Objects.requireNonNull(slaService, "Sla service is required");
+            return this;
+        }
+
+        /**
+         * @param slaResolver - can be shared with other services. Its token ids are used for the limiter.
+         */
+        public Builder slaResolver(final SlaResolver slaResolver) {
+            this.slaResolver = Objects.requireNonNull(slaResolver, "Sla resolver is required");
+            return this;
+        }
+
+        public Builder metrics(final ThrottlingMetrics metrics) {
+            this.metrics = Objects.requireNonNull(metrics, "Metrics are required");
+            return this;
+        }
+
+        public Builder limiter(final HierarchicalWindowLimiter limiter) {
+            this.limiter = Objects.requireNonNull(limiter, "Limiter is required");
+            return this;
+        }
+
+        /**
+         * Requests of own resolver to SlaService are failed by the timer after slaTimeout.
+         */
+        public Builder slaTimeout(final HashedWheelTimer slaTimer, final Duration slaTimeout) {
+            this.slaTimer = Objects.requireNonNull(slaTimer, "Sla timer is required");
+            this.slaTimeout = Objects.requireNonNull(slaTimeout, "Sla timeout is required");
+            return this;
+        }
+
+        public WindowThrottlingServiceImpl build() {
+            if (Objects.isNull(slaService) == Objects.isNull(slaResolver)) {
+                throw new IllegalArgumentException("Either Sla service or Sla resolver is required");
+            }
+            if (Objects.nonNull(slaResolver) && Objects.nonNull(slaTimer)) {
+                throw new IllegalArgumentException("Sla timeout is set by the shared Sla resolver");
+            }
+            return new WindowThrottlingServiceImpl(this);
+        }
     }
 }
@@ -0,0 +1,93 @@
+package com.secretcompany.sketch;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate counters of any number of keys in fixed memory: depth rows of width counters.
+ * Key increments one counter per row, estimate is the minimum of them.
+ *
+ * Error bounds for N increments in total (all deltas are positive):
+ *   estimate >= real count, always
+ *   estimate <= real count + e / width * N, with probability 1 - e^-depth
+ * For ex.: width 4096 and depth 4 -> error within 0.07% of N for 98% of keys.
+ *
+ * Keys are 64-bit ids. Each row mixes the key with its own random seed by fmix64: keys which collide in one row
+ * don't collide in the others, and the seeds aren't known outside the process, so keys which collide in all rows
+ * can't be crafted.
+ *
+ * Negative delta is allowed to revert own increment. Thread-safe, no locks, add and estimate don't allocate.
+ */
+public class CountMinSketch {
+    private static final int MAX_DEPTH = 8;
+
+    private final long[] seeds;
+    private final int depth;
+    private final int width;
+    private final int mask;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param width - counters per row. Rounded up to power of two.
+     * @param depth - number of rows within 1..8
+     */
+    public CountMinSketch(final int width, final int depth) {
+        if (width <= 0 || width > (1 << 24) || depth <= 0 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Width should be within 1..2^24 and depth within 1..8");
+        }
+        this.width = Integer.highestOneBit(width) == width ? width : Integer.highestOneBit(width) << 1;
+        this.mask = this.width - 1;
+        this.depth = depth;
+        this.counters = new AtomicLongArray(this.width * depth);
+        this.seeds = ThreadLocalRandom.current().longs(depth).toArray();
+    }
+
+    /**
+     * @return estimate of the key after adding delta
+     */
+    public long add(long key, long delta) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.addAndGet(index(key, row), delta));
+        }
+        return estimate;
+    }
+
+    public long estimate(long key) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(index(key, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Not atomic. Concurrent increments could survive clearing.
+     */
+    public void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.lazySet(i, 0L);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    private int index(long key, int row) {
+        return row * width + ((int) fmix64(key ^ seeds[row]) & mask);
+    }
+
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,181 @@
+package com.secretcompany.timer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timer for a lot of short timeouts with coarse precision. One thread for all of them.
+ *
+ * Wheel of N buckets, each bucket is one tick. Task with delay D goes to bucket (current tick + D / tick) % N
+ * with number of full rounds it has to wait. Scheduling and cancellation are O(1). The worker thread only
+ * looks at one bucket per tick. Tasks are run by the worker thread, so they should be short.
+ *
+ * Task is run not earlier than its delay and usually not later than one tick after it.
+ */
+public class HashedWheelTimer implements AutoCloseable {
+    private static final AtomicInteger TIMER_ID = new AtomicInteger();
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<Queue<WheelTimeout>> wheel;
+    // new timeouts from any thread. Worker thread moves them into the wheel.
+    private final Queue<WheelTimeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+
+    private volatile boolean stopped;
+    // accessed by worker thread only
+    private long tick;
+
+    /**
+     * 10 ms tick and 512 buckets: a round is ~5 s.
+     */
+    public HashedWheelTimer() {
+        this(10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * @param wheelSize - number of buckets. Rounded up to power of two.
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize) {
+        Objects.requireNonNull(unit, "Time unit is required");
+        if (tickDuration <= 0 || wheelSize <= 0 || wheelSize > (1 << 20)) {
+            throw new IllegalArgumentException("Tick should be > 0 and wheel size should be within 1..2^20");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        final int size = Integer.highestOneBit(wheelSize) == wheelSize ? wheelSize : Integer.highestOneBit(wheelSize) << 1;
+        this.mask = size - 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayDeque<>());
+        }
+        this.worker = new ThreadFactoryBuilder()
+                .setNameFormat("hashed-wheel-timer-" + TIMER_ID.incrementAndGet())
+                .setDaemon(true)
+                .build()
+                .newThread(this::work);
+        this.startNanos = System.nanoTime();
+        worker.start();
+    }
+
+    /**
+     * Run the task once after the delay in the timer thread.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Objects.requireNonNull(task, "Task is required");
+        Objects.requireNonNull(unit, "Time unit is required");
+        if (stopped) {
+            throw new IllegalStateException("Timer is stopped");
+        }
+        final WheelTimeout timeout = new WheelTimeout(task, System.nanoTime() - startNanos + Math.max(0L, unit.toNanos(delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * Stop the worker thread. Tasks which haven't been run yet are dropped.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void work() {
+        while (!stopped) {
+            final long deadline = (tick + 1) * tickNanos;
+            long sleepNanos;
+            while ((sleepNanos = deadline - (System.nanoTime() - startNanos)) > 0 && !stopped) {
+                LockSupport.parkNanos(this, sleepNanos);
+            }
+            if (stopped) {
+                return;
+            }
+            transferPending();
+            expire(wheel.get((int) (tick & mask)), deadline);
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        WheelTimeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // not earlier than current tick: timeouts which are already due are run right now
+            final long dueTick = Math.max(tick, timeout.deadlineNanos / tickNanos);
+            timeout.remainingRounds = (dueTick - tick) / wheel.size();
+            wheel.get((int) (dueTick & mask)).add(timeout);
+        }
+    }
+
+    private void expire(Queue<WheelTimeout> bucket, long deadline) {
+        final Iterator<WheelTimeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            final WheelTimeout timeout = iterator.next();
+            if (timeout.isCancelled()) {
+                iterator.remove();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else if (timeout.deadlineNanos <= deadline) {
+                iterator.remove();
+                timeout.run();
+            }
+        }
+    }
+
+    private static class WheelTimeout implements Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadlineNanos;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        // accessed by worker thread only
+        private long remainingRounds;
+
+        private WheelTimeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        private void run() {
+            if (!state.compareAndSet(WAITING, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // one failed task should not stop the timer
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+}
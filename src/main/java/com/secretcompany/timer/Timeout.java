@@ -0,0 +1,15 @@
+package com.secretcompany.timer;
+
+/**
+ * Handle of a task scheduled by {@link HashedWheelTimer}.
+ */
+public interface Timeout {
+
+    /**
+     * Cancel the task if it hasn't been run yet.
+     * @return true if task won't be run
+     */
+    boolean cancel();
+
+    boolean isCancelled();
+}
@@ -0,0 +1,65 @@
+package com.secretcompany.benchmark;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.service.impl.HierarchicalWindowLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of admission vs rejection of a user which has already exhausted its window.
+ * `rejected` should be much cheaper than `admitted`: "denied until" marker is a single map read.
+ *
+ * Run: main method from IDE or
+ * java -cp target/test-classes:target/classes:<test classpath> com.secretcompany.benchmark.DeniedFastPathBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(2)
+@Fork(1)
+public class DeniedFastPathBenchmark {
+    private static final Sla UNLIMITED = new Sla("unlimited", Long.MAX_VALUE - 1);
+    private static final Sla EXHAUSTED = new Sla("exhausted", 1);
+    // id of a resolved token
+    private static final long TOKEN = 1L;
+
+    private HierarchicalWindowLimiter limiter;
+
+    @Setup
+    public void setUp() {
+        limiter = new HierarchicalWindowLimiter();
+    }
+
+    @Benchmark
+    public boolean admitted() {
+        return limiter.tryAcquire(System.currentTimeMillis(), TOKEN, UNLIMITED);
+    }
+
+    @Benchmark
+    public boolean rejected() {
+        return limiter.tryAcquire(System.currentTimeMillis(), TOKEN, EXHAUSTED);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DeniedFastPathBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,65 @@
+package com.secretcompany.benchmark;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.service.impl.HierarchicalWindowLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.secretcompany.dto.Sla.NO_LIMIT;
+import static com.secretcompany.service.impl.HierarchicalWindowLimiter.NO_TOKEN;
+
+/**
+ * 64 threads hammer a single hot user. leaseSize = 1 - every decision goes through the shared user's window,
+ * leaseSize > 1 - most decisions are served from the lease of the thread's stripe.
+ * Throughput should grow with the lease size on a multicore machine.
+ *
+ * Run: main method from IDE or
+ * java -cp target/test-classes:target/classes:<test classpath> com.secretcompany.benchmark.HotUserLeasingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class HotUserLeasingBenchmark {
+    private static final Sla HOT = new Sla("hot", Long.MAX_VALUE - 1);
+
+    @Param({"1", "32"})
+    public int leaseSize;
+
+    private HierarchicalWindowLimiter limiter;
+
+    @Setup
+    public void setUp() {
+        limiter = HierarchicalWindowLimiter.builder().leasing(leaseSize, NO_LIMIT).build();
+    }
+
+    @Benchmark
+    public boolean hotUser() {
+        return limiter.tryAcquire(System.currentTimeMillis(), NO_TOKEN, HOT);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HotUserLeasingBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
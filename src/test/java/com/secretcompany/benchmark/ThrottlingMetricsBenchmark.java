@@ -0,0 +1,85 @@
+package com.secretcompany.benchmark;
+
+import com.secretcompany.dto.KeyClass;
+import com.secretcompany.metrics.InMemoryThrottlingMetrics;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.mock.EmptySlaService;
+import com.secretcompany.service.ThrottlingService;
+import com.secretcompany.service.impl.ThrottlingServiceImpl;
+import com.secretcompany.service.impl.WindowThrottlingServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link ThrottlingMetrics} on the decision path.
+ * Compare `noop` and `inMemory` scores of the same benchmark: the difference is the cost of metrics per decision.
+ *
+ * Run: main method from IDE or
+ * java -cp target/test-classes:target/classes:<test classpath> com.secretcompany.benchmark.ThrottlingMetricsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThrottlingMetricsBenchmark {
+
+    @Param({"window", "throttling"})
+    public String implementation;
+
+    @Param({"noop", "inMemory"})
+    public String metrics;
+
+    private ThrottlingService throttlingService;
+    private ThrottlingMetrics throttlingMetrics;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        throttlingMetrics = "noop".equals(metrics) ? ThrottlingMetrics.NOOP : new InMemoryThrottlingMetrics();
+        throttlingService = "window".equals(implementation)
+                ? new WindowThrottlingServiceImpl(Integer.MAX_VALUE, new EmptySlaService(), throttlingMetrics)
+                : new ThrottlingServiceImpl(Integer.MAX_VALUE, new EmptySlaService(), throttlingMetrics);
+        token = UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public boolean unauthorized() {
+        return throttlingService.isRequestAllowed(null);
+    }
+
+    @Benchmark
+    public boolean authorizedWithoutSla() {
+        return throttlingService.isRequestAllowed(token);
+    }
+
+    @Benchmark
+    public void recordDecisionOnly() {
+        if (throttlingMetrics.isEnabled()) {
+            throttlingMetrics.recordDecision(KeyClass.UNAUTHORIZED, true, 100L);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ThrottlingMetricsBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
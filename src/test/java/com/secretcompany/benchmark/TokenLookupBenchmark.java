@@ -0,0 +1,108 @@
+package com.secretcompany.benchmark;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.dto.TimeWindow;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.service.impl.HierarchicalWindowLimiter;
+import com.secretcompany.service.impl.ResolvedToken;
+import com.secretcompany.service.impl.SlaResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-token lookups of one request for a warm token: in-flight Sla request, Sla and token window decrement.
+ * `stringKeys` - all tables are ConcurrentHashMap keyed by the token.
+ * `resolvedTokens` - one lookup by the token in {@link SlaResolver}: its entry has Sla, request in progress and id.
+ * The window is the token level of {@link HierarchicalWindowLimiter}: updated in place, found by the id. The limiter
+ * checks the user level of the Sla as well, so resolved tokens pay for one more window.
+ * freshToken=true: token is a new String of each request (as parsed from a header), its hashCode isn't cached yet.
+ *
+ * Run: main method from IDE or
+ * java -cp target/test-classes:target/classes:<test classpath> com.secretcompany.benchmark.TokenLookupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(2)
+@Fork(1)
+public class TokenLookupBenchmark {
+    private static final Sla SLA = new Sla("user", Long.MAX_VALUE - 1);
+
+    @Param({"100000"})
+    public int tokens;
+
+    @Param({"false", "true"})
+    public boolean freshToken;
+
+    private String[] tokenStrings;
+    private final Map<String, CompletableFuture<Sla>> stringRequests = new ConcurrentHashMap<>();
+    private final Map<String, Sla> stringSlas = new ConcurrentHashMap<>();
+    private final Map<String, TimeWindow> stringWindows = new ConcurrentHashMap<>();
+    private final HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder()
+            .tokenRps(Long.MAX_VALUE - 1)
+            .build();
+    private final SlaResolver resolver = new SlaResolver(token -> CompletableFuture.completedFuture(null), ThrottlingMetrics.NOOP);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        //pushed Slas: known tokens aren't asked again
+        resolver.subscribe(listener -> { });
+        tokenStrings = new String[tokens];
+        for (int i = 0; i < tokens; i++) {
+            tokenStrings[i] = UUID.randomUUID().toString();
+            stringSlas.put(tokenStrings[i], SLA);
+            resolver.onTokenSla(tokenStrings[i], SLA);
+        }
+    }
+
+    @Benchmark
+    public long stringKeys() {
+        final String token = nextToken();
+        final Sla sla = stringRequests.get(token) == null ? stringSlas.get(token) : null;
+        final long current = System.currentTimeMillis();
+        return stringWindows.compute(token, (k, window) -> window != null && current < window.getEndMillis()
+                ? new TimeWindow(window.getStartMillis(), window.getEndMillis(), window.getRps() - 1)
+                : new TimeWindow(current, current + 1000, sla.getRps() - 1)).getRps();
+    }
+
+    @Benchmark
+    public boolean resolvedTokens() {
+        final ResolvedToken resolved = resolver.resolve(nextToken());
+        return limiter.tryAcquire(System.currentTimeMillis(), resolved.getId(), resolved.getSla());
+    }
+
+    private String nextToken() {
+        final String token = tokenStrings[ThreadLocalRandom.current().nextInt(tokens)];
+        return freshToken ? new String(token.toCharArray()) : token;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenLookupBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,94 @@
+package com.secretcompany.benchmark;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.service.impl.HierarchicalWindowLimiter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Burst of a single greedy user with and without sub-second smoothing.
+ * User sends requests as fast as it can. Compare `allowedInFirst5Ms` with `allowed` counters:
+ * without smoothing (slices = 1) the whole RPS is admitted within the first 5 ms of each window,
+ * with 10 slices only RPS / 10 is. Primary score is the cost of a decision.
+ *
+ * Run: main method from IDE or
+ * java -cp target/test-classes:target/classes:<test classpath> com.secretcompany.benchmark.WindowSmoothingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WindowSmoothingBenchmark {
+    private static final Sla SLA = new Sla("user", 5000);
+    // id of a resolved token
+    private static final long TOKEN = 1L;
+
+    @Param({"1", "10"})
+    public int slices;
+
+    private HierarchicalWindowLimiter limiter;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Admitted {
+        public long allowed;
+        public long allowedInFirst5Ms;
+        //the same rule as the limiter's one: window starts with the first request after the end of previous one
+        private long windowStart = Long.MIN_VALUE / 2;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            allowed = 0;
+            allowedInFirst5Ms = 0;
+            windowStart = Long.MIN_VALUE / 2;
+        }
+
+        void onRequest(long now, boolean isAllowed) {
+            if (now >= windowStart + 1000) {
+                windowStart = now;
+            }
+            if (isAllowed) {
+                allowed++;
+                allowedInFirst5Ms += now - windowStart < 5 ? 1 : 0;
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        limiter = HierarchicalWindowLimiter.builder().slices(slices).build();
+    }
+
+    @Benchmark
+    public boolean greedyUser(Admitted admitted) {
+        final long now = System.currentTimeMillis();
+        final boolean allowed = limiter.tryAcquire(now, TOKEN, SLA);
+        admitted.onRequest(now, allowed);
+        return allowed;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WindowSmoothingBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
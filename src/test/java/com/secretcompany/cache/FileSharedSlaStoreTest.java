@@ -0,0 +1,72 @@
+package com.secretcompany.cache;
+
+import com.secretcompany.dto.CachedSla;
+import com.secretcompany.dto.Sla;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_1;
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_2_1;
+import static com.secretcompany.mock.SlaServiceStubConstants.USER_1_SLA;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileSharedSlaStoreTest {
+
+    private final Path directory = createDirectory();
+
+    @After
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void shouldShareSlaThroughDirectory() throws IOException {
+        Sla sla = Sla.builder("user", 10)
+                .tenant("tenant", 100)
+                .perMinute(500)
+                .build();
+        new FileSharedSlaStore(directory, Runnable::run).put(TOKEN_1_1, new CachedSla(sla, 42L)).join();
+        new FileSharedSlaStore(directory, Runnable::run).put(TOKEN_2_1, new CachedSla(USER_1_SLA, 43L)).join();
+
+        //another node reads the same directory
+        FileSharedSlaStore store = new FileSharedSlaStore(directory, Runnable::run);
+        assertThat(store.get(TOKEN_1_1).join()).isEqualTo(new CachedSla(sla, 42L));
+        assertThat(store.get(TOKEN_2_1).join()).isEqualTo(new CachedSla(USER_1_SLA, 43L));
+        assertThat(store.get("unknown").join()).isNull();
+
+        //tokens are not exposed, no temporary files are left
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.map(file -> file.getFileName().toString()).collect(Collectors.toList()))
+                    .hasSize(2)
+                    .allMatch(name -> name.endsWith(".properties") && !name.contains(TOKEN_1_1) && !name.contains(TOKEN_2_1));
+        }
+    }
+
+    @Test
+    public void shouldReplaceSla() {
+        FileSharedSlaStore store = new FileSharedSlaStore(directory, Runnable::run);
+
+        store.put(TOKEN_1_1, new CachedSla(USER_1_SLA, 1L)).join();
+        store.put(TOKEN_1_1, new CachedSla(new Sla("user", 20), 2L)).join();
+        assertThat(store.get(TOKEN_1_1).join()).isEqualTo(new CachedSla(new Sla("user", 20), 2L));
+    }
+
+    private static Path createDirectory() {
+        try {
+            return Files.createTempDirectory("sla-store");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.secretcompany.cache;
+
+import com.secretcompany.dto.CachedSla;
+import com.secretcompany.dto.Sla;
+import com.secretcompany.mock.VirtualClock;
+import com.secretcompany.service.SlaService;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_1;
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_2_1;
+import static com.secretcompany.mock.SlaServiceStubConstants.USER_1_SLA;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TieredSlaServiceTest {
+
+    private static final long NOW = 1_000_000L;
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    private final AtomicInteger calls = new AtomicInteger();
+    //knows only TOKEN_1_1
+    private final SlaService backend = token -> {
+        calls.incrementAndGet();
+        return CompletableFuture.completedFuture(TOKEN_1_1.equals(token) ? USER_1_SLA : null);
+    };
+
+    @Test
+    public void shouldResolveThroughLocalThenSharedCache() {
+        InMemorySharedSlaStore sharedStore = new InMemorySharedSlaStore();
+        TieredSlaService node1 = new TieredSlaService(backend, sharedStore, TTL);
+
+        assertThat(node1.getSlaByToken(TOKEN_1_1).join()).isEqualTo(USER_1_SLA);
+        assertThat(node1.getSlaByToken(TOKEN_1_1).join()).isEqualTo(USER_1_SLA);
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(node1.getLocalHits()).isEqualTo(1);
+        assertThat(sharedStore.size()).isEqualTo(1);
+
+        //new node gets Sla from the shared cache
+        TieredSlaService node2 = new TieredSlaService(backend, sharedStore, TTL);
+        assertThat(node2.getSlaByToken(TOKEN_1_1).join()).isEqualTo(USER_1_SLA);
+        assertThat(node2.getSharedHits()).isEqualTo(1);
+        assertThat(node2.getSlaByToken(TOKEN_1_1).join()).isEqualTo(USER_1_SLA);
+        assertThat(node2.getLocalHits()).isEqualTo(1);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRefetchExpiredSla() {
+        VirtualClock clock = new VirtualClock(NOW);
+        InMemorySharedSlaStore sharedStore = new InMemorySharedSlaStore();
+        TieredSlaService slaService = new TieredSlaService(backend, sharedStore, TTL);
+        slaService.setSystemClock(clock);
+
+        slaService.getSlaByToken(TOKEN_1_1).join();
+        clock.advance(TTL.toMillis() - 1);
+        slaService.getSlaByToken(TOKEN_1_1).join();
+        assertThat(calls.get()).isEqualTo(1);
+
+        //expired on both tiers
+        clock.advance(1);
+        assertThat(slaService.getSlaByToken(TOKEN_1_1).join()).isEqualTo(USER_1_SLA);
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(sharedStore.get(TOKEN_1_1).join().getFetchedAtMillis()).isEqualTo(NOW + TTL.toMillis());
+    }
+
+    @Test
+    public void shouldNotCacheUnknownToken() {
+        InMemorySharedSlaStore sharedStore = new InMemorySharedSlaStore();
+        TieredSlaService slaService = new TieredSlaService(backend, sharedStore, TTL);
+
+        assertThat(slaService.getSlaByToken(TOKEN_2_1).join()).isNull();
+        assertThat(slaService.getSlaByToken(TOKEN_2_1).join()).isNull();
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(sharedStore.size()).isZero();
+    }
+
+    @Test
+    public void shouldFallBackToSlaServiceIfSharedStoreFails() {
+        SharedSlaStore failing = new SharedSlaStore() {
+            @Override
+            public CompletableFuture<CachedSla> get(String token) {
+                CompletableFuture<CachedSla> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("L2 is down"));
+                return failed;
+            }
+
+            @Override
+            public CompletableFuture<Void> put(String token, CachedSla cachedSla) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("L2 is down"));
+                return failed;
+            }
+        };
+        TieredSlaService slaService = new TieredSlaService(backend, failing, TTL);
+
+        assertThat(slaService.getSlaByToken(TOKEN_1_1).join()).isEqualTo(USER_1_SLA);
+        //still cached locally
+        assertThat(slaService.getSlaByToken(TOKEN_1_1).join()).isEqualTo(USER_1_SLA);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+}
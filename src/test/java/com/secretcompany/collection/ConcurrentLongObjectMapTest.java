@@ -0,0 +1,120 @@
+package com.secretcompany.collection;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ConcurrentLongObjectMapTest {
+
+    @Test
+    public void shouldPutGetAndRemove() {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>();
+
+        assertThat(map.get(42L)).isNull();
+        assertThat(map.put(42L, "a")).isNull();
+        assertThat(map.putIfAbsent(42L, "b")).isEqualTo("a");
+        assertThat(map.put(42L, "c")).isEqualTo("a");
+        assertThat(map.get(42L)).isEqualTo("c");
+        assertThat(map.size()).isEqualTo(1);
+
+        //conditional remove
+        assertThat(map.remove(42L, "a")).isFalse();
+        assertThat(map.remove(42L, "c")).isTrue();
+        assertThat(map.remove(42L)).isNull();
+        assertThat(map.isEmpty()).isTrue();
+
+        map.put(1L, "x");
+        map.put(2L, "y");
+        map.replaceAll(value -> value + value);
+        assertThat(map.get(1L)).isEqualTo("xx");
+        assertThat(map.get(2L)).isEqualTo("yy");
+
+        assertThatThrownBy(() -> map.get(ConcurrentLongObjectMap.NO_KEY)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> map.put(3L, null)).isInstanceOf(NullPointerException.class);
+    }
+
+    @Test
+    public void shouldKeepEntriesThroughGrowthAndRemovals() {
+        ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<>();
+
+        for (long key = 0; key < 100_000; key++) {
+            map.put(key, key);
+        }
+        //every other key: removal shifts entries back within probe sequences
+        for (long key = 0; key < 100_000; key += 2) {
+            assertThat(map.remove(key)).isEqualTo(key);
+        }
+        assertThat(map.size()).isEqualTo(50_000);
+        for (long key = 0; key < 100_000; key++) {
+            assertThat(map.get(key)).isEqualTo(key % 2 == 0 ? null : key);
+        }
+        //segments shrink back
+        for (long key = 1; key < 100_000; key += 2) {
+            assertThat(map.remove(key, key)).isTrue();
+        }
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldRemoveMatchingValues() {
+        ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<>();
+        for (long key = 0; key < 10_000; key++) {
+            map.put(key, key);
+        }
+
+        //shrinks segments while removing
+        assertThat(map.removeIf(value -> value % 10 != 0)).isEqualTo(9_000);
+
+        assertThat(map.size()).isEqualTo(1_000);
+        for (long key = 0; key < 10_000; key++) {
+            assertThat(map.get(key)).isEqualTo(key % 10 == 0 ? key : null);
+        }
+        assertThat(map.removeIf(value -> false)).isZero();
+    }
+
+    @Test
+    public void shouldReadWhileOtherKeysAreUpdated() {
+        ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<>();
+        int stable = 10_000;
+        for (long key = 0; key < stable; key++) {
+            map.put(key, key);
+        }
+
+        IntStream.range(0, 400_000).parallel().forEach(i -> {
+            if (i % 2 == 0) {
+                //churn of other keys: growth, shrinking and shifts
+                final long key = stable + i % 50_000;
+                if (map.putIfAbsent(key, key) != null) {
+                    map.remove(key);
+                }
+            } else {
+                final long key = i % stable;
+                assertThat(map.get(key)).isEqualTo(key);
+            }
+        });
+    }
+
+    @Test
+    public void shouldPutOneValuePerKeyConcurrently() {
+        ConcurrentLongObjectMap<Object> map = new ConcurrentLongObjectMap<>();
+        AtomicInteger put = new AtomicInteger();
+
+        //each key is put by several threads at once while segments grow
+        IntStream.range(0, 400_000).parallel().forEach(i -> {
+            final long key = i % 100_000;
+            final Object value = new Object();
+            final Object present = map.putIfAbsent(key, value);
+            if (present == null) {
+                put.incrementAndGet();
+            }
+            assertThat(map.get(key)).isSameAs(present == null ? value : present);
+        });
+
+        assertThat(put.get()).isEqualTo(100_000);
+        assertThat(map.size()).isEqualTo(100_000);
+    }
+}
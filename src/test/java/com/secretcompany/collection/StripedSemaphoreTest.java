@@ -0,0 +1,68 @@
+package com.secretcompany.collection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StripedSemaphoreTest {
+
+    @Test
+    public void shouldUsePermitsOfAllStripes() {
+        StripedSemaphore semaphore = new StripedSemaphore(10, 4);
+        assertThat(semaphore.getStripes()).isEqualTo(4);
+
+        //one thread gets permits of other stripes once its own are taken
+        List<Integer> stripes = new ArrayList<>();
+        IntStream.range(0, 10).forEach(i -> stripes.add(semaphore.tryAcquire()));
+        assertThat(stripes).doesNotContain(StripedSemaphore.NO_STRIPE);
+        assertThat(semaphore.tryAcquire()).isEqualTo(StripedSemaphore.NO_STRIPE);
+        assertThat(semaphore.getAcquired()).isEqualTo(10);
+
+        semaphore.release(stripes.get(9));
+        assertThat(semaphore.tryAcquire()).isEqualTo(stripes.get(9));
+    }
+
+    @Test
+    public void shouldNotHaveMoreStripesThanPermits() {
+        assertThat(new StripedSemaphore(3, 16).getStripes()).isEqualTo(2);
+        assertThatThrownBy(() -> new StripedSemaphore(0, 4)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldNeverExceedPermitsConcurrently() throws InterruptedException {
+        final int threads = 8;
+        StripedSemaphore semaphore = new StripedSemaphore(5, threads);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    int stripe = semaphore.tryAcquire();
+                    if (stripe != StripedSemaphore.NO_STRIPE) {
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        inFlight.decrementAndGet();
+                        semaphore.release(stripe);
+                    }
+                }
+                done.countDown();
+            });
+        }
+        assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+        executor.shutdown();
+
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(5);
+        assertThat(semaphore.getAcquired()).isZero();
+    }
+}
@@ -0,0 +1,170 @@
+package com.secretcompany.flow;
+
+import com.secretcompany.mock.EmptySlaService;
+import com.secretcompany.service.impl.WindowThrottlingServiceImpl;
+import com.secretcompany.timer.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ThrottlingProcessorTest {
+
+    private static final int GUEST_RPS = 5;
+    private static final int PREFETCH = 3;
+
+    private final HashedWheelTimer timer = new HashedWheelTimer();
+
+    @After
+    public void shutdown() {
+        timer.close();
+    }
+
+    @Test
+    public void shouldDelayItemsAboveRpsWithoutDropping() throws Exception {
+        RangePublisher publisher = new RangePublisher(12);
+        ThrottlingProcessor<Integer> processor = processor(i -> null);
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+
+        //the first window
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertThat(subscriber.items).hasSize(GUEST_RPS);
+        //upstream gets demand only for items which can be emitted soon
+        assertThat(publisher.emitted.get()).isLessThanOrEqualTo(GUEST_RPS + PREFETCH);
+
+        subscriber.completion.get(4, TimeUnit.SECONDS);
+        assertThat(subscriber.items).containsExactlyElementsOf(IntStream.range(0, 12).boxed().collect(Collectors.toList()));
+        assertThat(publisher.maxOutstanding.get()).isLessThanOrEqualTo(PREFETCH);
+    }
+
+    @Test
+    public void shouldThrottleEachTokenByItsOwnRps() throws Exception {
+        //unauthorized users compete for GuestRPS, authorized users without Sla have their own GuestRPS
+        RangePublisher publisher = new RangePublisher(2 * GUEST_RPS);
+        ThrottlingProcessor<Integer> processor = processor(i -> i % 2 == 0 ? null : "token");
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+
+        subscriber.completion.get(500, TimeUnit.MILLISECONDS);
+        assertThat(subscriber.items).hasSize(2 * GUEST_RPS);
+    }
+
+    @Test
+    public void shouldRespectDownstreamDemand() throws Exception {
+        RangePublisher publisher = new RangePublisher(100);
+        ThrottlingProcessor<Integer> processor = processor(i -> "token-" + i);
+        CollectingSubscriber subscriber = new CollectingSubscriber(2);
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertThat(subscriber.items).containsExactly(0, 1);
+        assertThat(publisher.emitted.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldRejectSecondSubscriber() {
+        ThrottlingProcessor<Integer> processor = processor(i -> null);
+        processor.subscribe(new CollectingSubscriber(1));
+        CollectingSubscriber second = new CollectingSubscriber(1);
+        processor.subscribe(second);
+
+        assertThatThrownBy(() -> second.completion.getNow(null)).hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    private ThrottlingProcessor<Integer> processor(Function<Integer, String> tokenExtractor) {
+        return new ThrottlingProcessor<>(new WindowThrottlingServiceImpl(GUEST_RPS, new EmptySlaService()),
+                tokenExtractor, timer, PREFETCH);
+    }
+
+    /**
+     * Local publisher of 0..count-1. Emits synchronously on request. Records outstanding demand.
+     */
+    private static class RangePublisher implements Flow.Publisher<Integer> {
+        private final int count;
+        private final AtomicLong emitted = new AtomicLong();
+        private final AtomicLong maxOutstanding = new AtomicLong();
+
+        private RangePublisher(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                private long outstanding;
+                private boolean emitting;
+                private boolean cancelled;
+
+                @Override
+                public synchronized void request(long n) {
+                    outstanding += n;
+                    maxOutstanding.accumulateAndGet(outstanding, Math::max);
+                    //no recursion: request from onNext is handled by the outer loop
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (outstanding > 0 && emitted.get() < count && !cancelled) {
+                        outstanding--;
+                        subscriber.onNext((int) emitted.getAndIncrement());
+                    }
+                    emitting = false;
+                    if (emitted.get() == count && !cancelled) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public synchronized void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    private static class CollectingSubscriber implements Flow.Subscriber<Integer> {
+        private final long demand;
+        private final List<Integer> items = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+        private CollectingSubscriber(long demand) {
+            this.demand = demand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(demand);
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            completion.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completion.complete(null);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.secretcompany.gateway;
+
+import com.secretcompany.gateway.loadtest.ClosedLoopLoadGenerator;
+import com.secretcompany.gateway.loadtest.LoadTestResult;
+import com.secretcompany.gateway.loadtest.OpenLoopLoadGenerator;
+import com.secretcompany.mock.EmptySlaService;
+import com.secretcompany.service.impl.WindowThrottlingServiceImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.util.UUID;
+
+import static com.secretcompany.gateway.ThrottlingFilter.TOKEN_HEADER;
+import static com.secretcompany.gateway.ThrottlingFilter.TOO_MANY_REQUESTS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ThrottlingGatewayTest {
+
+    private static final int GUEST_RPS = 3;
+
+    private ThrottlingGateway gateway;
+    private URL url;
+
+    @Before
+    public void init() throws IOException {
+        gateway = new ThrottlingGateway(new WindowThrottlingServiceImpl(GUEST_RPS, new EmptySlaService()), 0, 2).start();
+        url = new URL(gateway.getUrl());
+    }
+
+    @After
+    public void shutdown() {
+        gateway.close();
+    }
+
+    @Test
+    public void shouldListenOnLoopbackOnly() {
+        assertThat(gateway.getUrl()).startsWith("http://127.0.0.1:");
+    }
+
+    @Test
+    public void shouldRespondWith429WhenThrottled() throws IOException {
+        for (int i = 0; i < GUEST_RPS; i++) {
+            assertThat(send(null)).isEqualTo(200);
+        }
+        assertThat(send(null)).isEqualTo(TOO_MANY_REQUESTS);
+
+        //authorized users without Sla don't compete with unauthorized ones
+        assertThat(send(UUID.randomUUID().toString())).isEqualTo(200);
+    }
+
+    @Test
+    public void shouldReportClosedAndOpenLoopLoad() throws InterruptedException {
+        LoadTestResult closedLoop = new ClosedLoopLoadGenerator(url, 2, Duration.ofSeconds(1), () -> null).run("closed");
+        assertThat(closedLoop.getErrors()).isZero();
+        assertThat(closedLoop.getThrottled()).isPositive();
+        assertThat(closedLoop.getThroughput()).isPositive();
+        assertThat(closedLoop.getLatencyPercentile(99)).isGreaterThanOrEqualTo(closedLoop.getLatencyPercentile(50));
+
+        LoadTestResult openLoop = new OpenLoopLoadGenerator(url, 100, Duration.ofMillis(300), 2, () -> null).run("open");
+        assertThat(openLoop.getErrors()).isZero();
+        assertThat(openLoop.getTotal()).isEqualTo(30);
+        assertThat(openLoop.format()).contains("open");
+    }
+
+    private int send(String token) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (token != null) {
+            connection.setRequestProperty(TOKEN_HEADER, token);
+        }
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        return status;
+    }
+}
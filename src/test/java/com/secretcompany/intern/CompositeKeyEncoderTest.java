@@ -0,0 +1,49 @@
+package com.secretcompany.intern;
+
+import com.secretcompany.dto.Sla;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CompositeKeyEncoderTest {
+
+    @Test
+    public void shouldEncodeUserAndResourceIntoDistinctKeys() {
+        Sla user1 = new Sla("user-1", 10);
+
+        long search = CompositeKeyEncoder.encode(user1, 0);
+        long upload = CompositeKeyEncoder.encode(user1, 1);
+        assertThat(search).isNotEqualTo(upload);
+        assertThat(CompositeKeyEncoder.encode(new Sla("user-2", 10), 0)).isNotIn(search, upload);
+        //another Sla of the same user keeps its key
+        assertThat(CompositeKeyEncoder.encode(new Sla("user-1", 20), 1)).isEqualTo(upload);
+        assertThat(CompositeKeyEncoder.resourceOf(upload)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotShareKeysBetweenUsers() {
+        Set<Long> keys = new HashSet<>();
+        for (int user = 0; user < 100_000; user++) {
+            long key = CompositeKeyEncoder.encode(new Sla("user-" + user, 10), 0);
+            assertThat(key).isPositive();
+            keys.add(key);
+        }
+        assertThat(keys).hasSize(100_000);
+    }
+
+    @Test
+    public void shouldRejectSlaWithTooManyResources() {
+        assertThatThrownBy(() -> Sla.builder("user", 10)
+                .resourceRps(new long[CompositeKeyEncoder.MAX_RESOURCES + 1]))
+                .isInstanceOf(IllegalArgumentException.class);
+        Sla sla = Sla.builder("user", 10)
+                .resourceRps(new long[CompositeKeyEncoder.MAX_RESOURCES])
+                .build();
+        assertThat(CompositeKeyEncoder.resourceOf(CompositeKeyEncoder.encode(sla, CompositeKeyEncoder.MAX_RESOURCES - 1)))
+                .isEqualTo(CompositeKeyEncoder.MAX_RESOURCES - 1);
+    }
+}
@@ -0,0 +1,41 @@
+package com.secretcompany.intern;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KeyInternerTest {
+
+    @Test
+    public void shouldGiveTheSameIdToEqualKeys() {
+        KeyInterner interner = new KeyInterner();
+
+        InternedKey key = interner.intern("user-1");
+        //another String instance
+        assertThat(interner.intern(new String("user-1".toCharArray()))).isSameAs(key);
+        assertThat(interner.intern("user-2").getId()).isNotEqualTo(key.getId());
+        assertThat(key.getKey()).isEqualTo("user-1");
+        assertThat(key.getId()).isPositive();
+    }
+
+    @Test
+    public void shouldInternConcurrently() {
+        KeyInterner interner = new KeyInterner();
+
+        //keeps interned keys referenced
+        List<InternedKey> keys = IntStream.range(0, 100_000).parallel()
+                .mapToObj(i -> interner.intern("user-" + i % 1000))
+                .collect(Collectors.toList());
+
+        Set<Long> ids = keys.stream().map(InternedKey::getId).collect(Collectors.toSet());
+        assertThat(ids).hasSize(1000);
+        for (InternedKey key : keys) {
+            assertThat(interner.intern(key.getKey())).isSameAs(key);
+        }
+    }
+}
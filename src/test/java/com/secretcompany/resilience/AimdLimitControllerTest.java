@@ -0,0 +1,101 @@
+package com.secretcompany.resilience;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.secretcompany.dto.Sla.NO_LIMIT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+public class AimdLimitControllerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    //ticked by the test
+    private final AimdLimitController controller = new AimdLimitController(null, Duration.ofSeconds(1),
+            Duration.ofMillis(100), 0.1, 0.5, 0.25, 0.25);
+
+    @Test
+    public void shouldScaleGuestsDownFirstAndSlaUsersUpFirst() {
+        AtomicInteger changes = new AtomicInteger();
+        controller.addScaleListener(changes::incrementAndGet);
+
+        congestedTick();
+        assertThat(controller.getGuestScale()).isCloseTo(0.5, within(1e-9));
+        assertThat(controller.getSlaScale()).isEqualTo(1.0);
+        congestedTick();
+        assertThat(controller.getGuestScale()).isCloseTo(0.25, within(1e-9));
+        //guests are at min scale. Sla users give way now
+        congestedTick();
+        assertThat(controller.getGuestScale()).isCloseTo(0.25, within(1e-9));
+        assertThat(controller.getSlaScale()).isCloseTo(0.5, within(1e-9));
+
+        healthyTick();
+        healthyTick();
+        assertThat(controller.getSlaScale()).isEqualTo(1.0);
+        assertThat(controller.getGuestScale()).isCloseTo(0.25, within(1e-9));
+        healthyTick();
+        healthyTick();
+        healthyTick();
+        //never above contracted limits
+        assertThat(controller.getGuestScale()).isEqualTo(1.0);
+        healthyTick();
+        assertThat(controller.getGuestScale()).isEqualTo(1.0);
+        assertThat(changes.get()).isEqualTo(8);
+    }
+
+    @Test
+    public void shouldJudgeByErrorRate() {
+        for (int i = 0; i < 9; i++) {
+            controller.onDownstreamResponse(FAST, false);
+        }
+        controller.onDownstreamResponse(FAST, true);
+        controller.tick();
+        //10% is still healthy
+        assertThat(controller.getGuestScale()).isEqualTo(1.0);
+
+        controller.onDownstreamResponse(FAST, false);
+        controller.onDownstreamResponse(FAST, true);
+        controller.tick();
+        assertThat(controller.getGuestScale()).isLessThan(1.0);
+    }
+
+    @Test
+    public void shouldKeepScalesWithoutFeedback() {
+        congestedTick();
+        controller.tick();
+        assertThat(controller.getGuestScale()).isCloseTo(0.5, within(1e-9));
+    }
+
+    @Test
+    public void shouldScaleRpsAtLeastToOne() {
+        assertThat(AimdLimitController.scale(10, 0.25)).isEqualTo(2);
+        assertThat(AimdLimitController.scale(1, 0.25)).isEqualTo(1);
+        assertThat(AimdLimitController.scale(NO_LIMIT, 0.25)).isEqualTo(NO_LIMIT);
+        //zero limit isn't turned into a permit
+        assertThat(AimdLimitController.scale(0, 0.25)).isZero();
+    }
+
+    @Test
+    public void shouldRejectInvalidSettings() {
+        assertThatThrownBy(() -> new AimdLimitController(null, Duration.ofSeconds(1), Duration.ofMillis(100), 0.1, 1.0, 0.25, 0.25))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new AimdLimitController(null, Duration.ZERO, Duration.ofMillis(100), 0.1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void congestedTick() {
+        controller.onDownstreamResponse(SLOW, false);
+        controller.tick();
+    }
+
+    private void healthyTick() {
+        controller.onDownstreamResponse(FAST, false);
+        controller.tick();
+    }
+}
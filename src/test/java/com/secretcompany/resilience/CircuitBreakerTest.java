@@ -0,0 +1,94 @@
+package com.secretcompany.resilience;
+
+import com.secretcompany.mock.VirtualClock;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+    private static final long NOW = 1_000_000L;
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailuresOnly() {
+        CircuitBreaker breaker = new CircuitBreaker(3, Duration.ofSeconds(5));
+
+        breaker.onFailure(breaker.acquirePermission());
+        breaker.onFailure(breaker.acquirePermission());
+        //success resets the counter
+        breaker.onSuccess(breaker.acquirePermission());
+        breaker.onFailure(breaker.acquirePermission());
+        breaker.onFailure(breaker.acquirePermission());
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.acquirePermission()).isNotEqualTo(CircuitBreaker.NO_PERMISSION);
+
+        breaker.onFailure(breaker.acquirePermission());
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.acquirePermission()).isEqualTo(CircuitBreaker.NO_PERMISSION);
+    }
+
+    @Test
+    public void shouldLetOnlyOneTrialCallAfterOpenDuration() {
+        VirtualClock clock = new VirtualClock(NOW);
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofSeconds(5));
+        breaker.setSystemClock(clock);
+
+        breaker.onFailure(breaker.acquirePermission());
+        clock.advance(4999);
+        assertThat(breaker.acquirePermission()).isEqualTo(CircuitBreaker.NO_PERMISSION);
+
+        clock.advance(1);
+        long trial = breaker.acquirePermission();
+        assertThat(trial).isNotEqualTo(CircuitBreaker.NO_PERMISSION);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.acquirePermission()).isEqualTo(CircuitBreaker.NO_PERMISSION);
+
+        //failed trial opens it for the whole duration again
+        breaker.onFailure(trial);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        clock.advance(4999);
+        assertThat(breaker.acquirePermission()).isEqualTo(CircuitBreaker.NO_PERMISSION);
+
+        clock.advance(1);
+        trial = breaker.acquirePermission();
+        assertThat(trial).isNotEqualTo(CircuitBreaker.NO_PERMISSION);
+        breaker.onSuccess(trial);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.acquirePermission()).isNotEqualTo(CircuitBreaker.NO_PERMISSION);
+    }
+
+    @Test
+    public void shouldNotCloseByLateSuccessWhileOpen() {
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofSeconds(5));
+
+        //call made before opening
+        long late = breaker.acquirePermission();
+        breaker.onFailure(breaker.acquirePermission());
+        breaker.onSuccess(late);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void shouldLeaveHalfOpenByTrialCallOnly() {
+        VirtualClock clock = new VirtualClock(NOW);
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofSeconds(5));
+        breaker.setSystemClock(clock);
+
+        long lateSuccess = breaker.acquirePermission();
+        long lateFailure = breaker.acquirePermission();
+        breaker.onFailure(breaker.acquirePermission());
+        clock.advance(5000);
+        long trial = breaker.acquirePermission();
+
+        //calls made before opening complete while the trial call is in progress
+        breaker.onSuccess(lateSuccess);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        breaker.onFailure(lateFailure);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        breaker.onSuccess(trial);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+}
@@ -0,0 +1,153 @@
+package com.secretcompany.resilience;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.exception.SlaServiceUnavailableException;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.mock.EmptySlaService;
+import com.secretcompany.mock.LongRunningSlaService;
+import com.secretcompany.mock.VirtualClock;
+import com.secretcompany.mock.VirtualTimeSlaService;
+import com.secretcompany.service.SlaService;
+import com.secretcompany.timer.HashedWheelTimer;
+import com.secretcompany.timer.Timeout;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_1;
+import static com.secretcompany.mock.SlaServiceStubConstants.USER_1_SLA;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ResilientSlaServiceTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64);
+    private final ExecutorService callExecutor = Executors.newCachedThreadPool();
+
+    @After
+    public void close() {
+        timer.close();
+        callExecutor.shutdownNow();
+    }
+
+    @Test
+    public void shouldTimeOutBlockingSlaServiceWithoutBlockingCaller() {
+        ResilientSlaService slaService = new ResilientSlaService(new LongRunningSlaService(), callExecutor, timer,
+                Duration.ofMillis(100), new CircuitBreaker(5, Duration.ofSeconds(5)));
+
+        final long startNanos = System.nanoTime();
+        CompletableFuture<Sla> response = slaService.getSlaByToken(TOKEN_1_1);
+        //LongRunningSlaService blocks its thread for 2 seconds
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).isLessThan(1000);
+
+        assertThatThrownBy(() -> response.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(TimeoutException.class);
+    }
+
+    @Test
+    public void shouldFailFastWhileCircuitBreakerIsOpen() {
+        //virtual time never goes on: backend never responds
+        VirtualTimeSlaService backend = new VirtualTimeSlaService(new VirtualClock(0L), 1000L, Collections.emptyMap());
+        ResilientSlaService slaService = new ResilientSlaService(backend, callExecutor, timer, Duration.ofMillis(50),
+                new CircuitBreaker(2, Duration.ofMinutes(1)));
+
+        //two timeouts in a row
+        awaitFailure(slaService.getSlaByToken(TOKEN_1_1), TimeoutException.class);
+        awaitFailure(slaService.getSlaByToken(TOKEN_1_1), TimeoutException.class);
+        assertThat(slaService.getCircuitBreaker().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        CompletableFuture<Sla> response = slaService.getSlaByToken(TOKEN_1_1);
+        assertThat(response).isCompletedExceptionally();
+        awaitFailure(response, SlaServiceUnavailableException.class);
+        //backend hasn't been called
+        assertThat(backend.getCalls()).isEqualTo(2);
+        assertThat(slaService.getRejected()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCloseCircuitBreakerByTrialCall() throws Exception {
+        VirtualClock clock = new VirtualClock(1_000_000L);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, Duration.ofSeconds(5));
+        circuitBreaker.setSystemClock(clock);
+        ResilientSlaService slaService = new ResilientSlaService(new EmptySlaService(), callExecutor, timer,
+                Duration.ofMillis(100), circuitBreaker);
+
+        circuitBreaker.onFailure(circuitBreaker.acquirePermission());
+        awaitFailure(slaService.getSlaByToken(TOKEN_1_1), SlaServiceUnavailableException.class);
+
+        clock.advance(5000);
+        //unknown token is a successful response too
+        assertThat(slaService.getSlaByToken(TOKEN_1_1).get(1, TimeUnit.SECONDS)).isNull();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void shouldHedgeSlowRequest() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        //the first request is lost, the hedged one responds immediately
+        SlaService backend = token -> calls.incrementAndGet() == 1
+                ? new CompletableFuture<>()
+                : CompletableFuture.completedFuture(USER_1_SLA);
+        ResilientSlaService slaService = new ResilientSlaService(backend, callExecutor, timer, Duration.ofSeconds(1),
+                new CircuitBreaker(5, Duration.ofSeconds(5)), Duration.ofMillis(20), ThrottlingMetrics.NOOP);
+
+        assertThat(slaService.getSlaByToken(TOKEN_1_1).get(1, TimeUnit.SECONDS)).isEqualTo(USER_1_SLA);
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(slaService.getHedged()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotHedgeFastRequest() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ResilientSlaService slaService = new ResilientSlaService(token -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(USER_1_SLA);
+        }, callExecutor, timer, Duration.ofSeconds(1), new CircuitBreaker(5, Duration.ofSeconds(5)),
+                Duration.ofMillis(20), ThrottlingMetrics.NOOP);
+
+        assertThat(slaService.getSlaByToken(TOKEN_1_1).get(1, TimeUnit.SECONDS)).isEqualTo(USER_1_SLA);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(slaService.getHedged()).isZero();
+    }
+
+    @Test
+    public void shouldCancelTimeoutAndHedgeOnResponse() throws Exception {
+        List<Timeout> timeouts = new CopyOnWriteArrayList<>();
+        try (HashedWheelTimer recordingTimer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64) {
+            @Override
+            public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+                Timeout timeout = super.schedule(task, delay, unit);
+                timeouts.add(timeout);
+                return timeout;
+            }
+        }) {
+            ResilientSlaService slaService = new ResilientSlaService(token -> CompletableFuture.completedFuture(USER_1_SLA),
+                    callExecutor, recordingTimer, Duration.ofMinutes(1), new CircuitBreaker(5, Duration.ofSeconds(5)),
+                    Duration.ofSeconds(10), ThrottlingMetrics.NOOP);
+
+            assertThat(slaService.getSlaByToken(TOKEN_1_1).get(1, TimeUnit.SECONDS)).isEqualTo(USER_1_SLA);
+            //the call timeout and the hedge
+            assertThat(timeouts).hasSize(2);
+            assertThat(timeouts).allMatch(Timeout::isCancelled);
+        }
+    }
+
+    private static void awaitFailure(CompletableFuture<Sla> response, Class<? extends Throwable> cause) {
+        assertThatThrownBy(() -> response.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(cause);
+    }
+}
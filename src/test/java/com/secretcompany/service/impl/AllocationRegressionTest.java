@@ -0,0 +1,140 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.dto.Sla;
+import com.secretcompany.dto.UserData;
+import com.secretcompany.service.SlaService;
+import com.secretcompany.service.ThrottlingService;
+import org.junit.Test;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_1;
+import static com.secretcompany.mock.SlaServiceStubConstants.USER_1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Bytes allocated per isRequestAllowed call for a warm key in steady state.
+ * Fails if allocation goes over the budget of particular implementation and traffic class.
+ *
+ * Measured by com.sun.management.ThreadMXBean#getThreadAllocatedBytes for the calling thread only.
+ * Steady state: key is already known and request to SlaService for its token is in progress.
+ * Every call is allowed: Sla users have effectively unlimited RPS, so the measured path isn't the one of denied requests.
+ */
+public class AllocationRegressionTest {
+
+    private static final int WARM_UP = 200_000;
+    private static final int MEASURED = 100_000;
+    private static final int ROUNDS = 5;
+
+    // Budgets in bytes per decision: measured on JDK 11 plus a margin. Runs in its own JVM (see pom.xml),
+    // so JIT profiles of other tests don't keep allocations from being eliminated.
+    // Window: nothing, windows are updated in place.
+    // ThrottlingServiceImpl: immutable UserData of the token and the compute lambda per decision (64 B).
+    private static final long WINDOW_UNAUTHORIZED_BUDGET = 16;
+    private static final long WINDOW_AUTHORIZED_WITHOUT_SLA_BUDGET = 16;
+    private static final long WINDOW_SLA_USER_BUDGET = 16;
+    private static final long WINDOW_SLA_USER_PER_RESOURCE_BUDGET = 16;
+    private static final long THROTTLING_UNAUTHORIZED_BUDGET = 80;
+    private static final long THROTTLING_AUTHORIZED_WITHOUT_SLA_BUDGET = 80;
+    private static final long THROTTLING_SLA_USER_BUDGET = 80;
+
+    private static final long UNLIMITED_RPS = Integer.MAX_VALUE;
+    private static final Sla UNLIMITED_SLA = new Sla(USER_1, UNLIMITED_RPS);
+
+    //SlaService never responds. Request to SlaService is always in progress.
+    private static final SlaService PENDING_SLA_SERVICE = token -> new CompletableFuture<>();
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    //consume results to prevent dead code elimination
+    private long allowed;
+
+    @Test
+    public void windowUnauthorized() {
+        assertThat(bytesPerDecision(new WindowThrottlingServiceImpl(Integer.MAX_VALUE, PENDING_SLA_SERVICE), null))
+                .isLessThanOrEqualTo(WINDOW_UNAUTHORIZED_BUDGET);
+    }
+
+    @Test
+    public void windowAuthorizedWithoutSla() {
+        assertThat(bytesPerDecision(new WindowThrottlingServiceImpl(Integer.MAX_VALUE, PENDING_SLA_SERVICE), UUID.randomUUID().toString()))
+                .isLessThanOrEqualTo(WINDOW_AUTHORIZED_WITHOUT_SLA_BUDGET);
+    }
+
+    @Test
+    public void windowSlaUser() {
+        WindowThrottlingServiceImpl throttlingService = new WindowThrottlingServiceImpl(Integer.MAX_VALUE, PENDING_SLA_SERVICE);
+        throttlingService.putSla(TOKEN_1_1, UNLIMITED_SLA);
+
+        assertThat(bytesPerDecision(throttlingService, TOKEN_1_1)).isLessThanOrEqualTo(WINDOW_SLA_USER_BUDGET);
+    }
+
+    @Test
+    public void windowSlaUserPerResource() {
+        WindowThrottlingServiceImpl throttlingService = new WindowThrottlingServiceImpl(Integer.MAX_VALUE, PENDING_SLA_SERVICE);
+        throttlingService.putSla(TOKEN_1_1, Sla.builder(USER_1, UNLIMITED_RPS)
+                .resourceRps(UNLIMITED_RPS)
+                .build());
+
+        assertThat(bytesPerDecision(token -> throttlingService.isRequestAllowed(token, 0), TOKEN_1_1))
+                .isLessThanOrEqualTo(WINDOW_SLA_USER_PER_RESOURCE_BUDGET);
+    }
+
+    @Test
+    public void throttlingUnauthorized() {
+        assertThat(bytesPerDecision(new ThrottlingServiceImpl(Integer.MAX_VALUE, PENDING_SLA_SERVICE), null))
+                .isLessThanOrEqualTo(THROTTLING_UNAUTHORIZED_BUDGET);
+    }
+
+    @Test
+    public void throttlingAuthorizedWithoutSla() {
+        assertThat(bytesPerDecision(new ThrottlingServiceImpl(Integer.MAX_VALUE, PENDING_SLA_SERVICE), UUID.randomUUID().toString()))
+                .isLessThanOrEqualTo(THROTTLING_AUTHORIZED_WITHOUT_SLA_BUDGET);
+    }
+
+    @Test
+    public void throttlingSlaUser() {
+        ThrottlingServiceImpl throttlingService = new ThrottlingServiceImpl(Integer.MAX_VALUE, PENDING_SLA_SERVICE);
+        Map<String, UserData> tokenToUserDataMap = new ConcurrentHashMap<>(throttlingService.getTokenToUserDataMap());
+        tokenToUserDataMap.put(TOKEN_1_1, new UserData(Instant.now().getEpochSecond(), UNLIMITED_SLA, UNLIMITED_SLA.getRps(), TOKEN_1_1));
+        setField(throttlingService, ThrottlingServiceImpl.class, "tokenToUserDataMap", tokenToUserDataMap);
+
+        assertThat(bytesPerDecision(throttlingService, TOKEN_1_1)).isLessThanOrEqualTo(THROTTLING_SLA_USER_BUDGET);
+    }
+
+    /**
+     * The lowest of several rounds: a round could catch JIT recompilation of the path.
+     */
+    private long bytesPerDecision(ThrottlingService throttlingService, String token) {
+        for (int i = 0; i < WARM_UP; i++) {
+            allowed += throttlingService.isRequestAllowed(token) ? 1 : 0;
+        }
+        final long threadId = Thread.currentThread().getId();
+        long bytes = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long allowedBefore = allowed;
+            final long before = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED; i++) {
+                allowed += throttlingService.isRequestAllowed(token) ? 1 : 0;
+            }
+            bytes = Math.min(bytes, (THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - before) / MEASURED);
+            //path of allowed requests only
+            assertThat(allowed - allowedBefore).isEqualTo(MEASURED);
+        }
+        return bytes;
+    }
+
+    private static void setField(Object target, Class<?> type, String name, Object value) {
+        Field field = ReflectionUtils.findField(type, name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+}
@@ -0,0 +1,129 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.dto.KeyClass;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.mock.EmptySlaService;
+import com.secretcompany.service.Permit;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_1;
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_2;
+import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_2_1;
+import static com.secretcompany.mock.SlaServiceStubConstants.USER_1_MAX_RPS;
+import static com.secretcompany.mock.SlaServiceStubConstants.USER_1_SLA;
+import static com.secretcompany.mock.SlaServiceStubConstants.USER_2_SLA;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrencyThrottlingServiceImplTest {
+
+    private static final int GUEST_CONCURRENCY = 2;
+
+    private SlaResolver slaResolver;
+    private ConcurrencyThrottlingServiceImpl throttlingService;
+
+    @Before
+    public void init() {
+        slaResolver = new SlaResolver(new EmptySlaService(), ThrottlingMetrics.NOOP);
+        //Sla user can have RPS * 0.5 requests in flight
+        throttlingService = new ConcurrencyThrottlingServiceImpl(slaResolver, GUEST_CONCURRENCY, Duration.ofMillis(500), 100);
+    }
+
+    @Test
+    public void shouldLimitGuestsInFlight() {
+        Permit first = throttlingService.tryAcquireConcurrent(null);
+        assertThat(first).isNotNull();
+        assertThat(throttlingService.tryAcquireConcurrent(null)).isNotNull();
+        assertThat(throttlingService.tryAcquireConcurrent(null)).isNull();
+        //authorized users without Sla don't compete with unauthorized ones
+        assertThat(throttlingService.tryAcquireConcurrent(UUID.randomUUID().toString())).isNotNull();
+
+        first.release();
+        //release is idempotent
+        first.release();
+        assertThat(throttlingService.getInFlight(KeyClass.UNAUTHORIZED)).isEqualTo(1);
+        assertThat(throttlingService.tryAcquireConcurrent(null)).isNotNull();
+        assertThat(throttlingService.tryAcquireConcurrent(null)).isNull();
+        assertThat(throttlingService.getRejected()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldLimitSlaUserInFlightByRps() {
+        slaResolver.putSla(TOKEN_1_1, USER_1_SLA);
+        slaResolver.putSla(TOKEN_1_2, USER_1_SLA);
+        slaResolver.putSla(TOKEN_2_1, USER_2_SLA);
+
+        final int userConcurrency = (int) Math.ceil(USER_1_MAX_RPS * 0.5);
+        for (int i = 0; i < userConcurrency; i++) {
+            //tokens of the same user share concurrency
+            assertThat(throttlingService.tryAcquireConcurrent(i % 2 == 0 ? TOKEN_1_1 : TOKEN_1_2)).isNotNull();
+        }
+        assertThat(throttlingService.tryAcquireConcurrent(TOKEN_1_1)).isNull();
+        assertThat(throttlingService.tryAcquireConcurrent(TOKEN_2_1)).isNotNull();
+        assertThat(throttlingService.getInFlight(KeyClass.SLA_USER)).isEqualTo(userConcurrency + 1);
+    }
+
+    @Test
+    public void shouldLimitGlobalInFlight() {
+        throttlingService = new ConcurrencyThrottlingServiceImpl(slaResolver, GUEST_CONCURRENCY, Duration.ofMillis(500), 3);
+
+        try (Permit first = throttlingService.tryAcquireConcurrent(null);
+             Permit second = throttlingService.tryAcquireConcurrent(null);
+             Permit third = throttlingService.tryAcquireConcurrent(UUID.randomUUID().toString())) {
+            assertThat(first).isNotNull();
+            assertThat(second).isNotNull();
+            assertThat(third).isNotNull();
+            assertThat(throttlingService.tryAcquireConcurrent(UUID.randomUUID().toString())).isNull();
+        }
+        //released by try-with-resources
+        assertThat(throttlingService.getInFlight(KeyClass.UNAUTHORIZED)).isZero();
+        assertThat(throttlingService.getInFlight(KeyClass.AUTHORIZED_WITHOUT_SLA)).isZero();
+        assertThat(throttlingService.tryAcquireConcurrent(null)).isNotNull();
+    }
+
+    @Test
+    public void shouldKeepUserCountersOnlyWhileRequestsAreInFlight() {
+        slaResolver.putSla(TOKEN_1_1, USER_1_SLA);
+        slaResolver.putSla(TOKEN_2_1, USER_2_SLA);
+
+        Permit first = throttlingService.tryAcquireConcurrent(TOKEN_1_1);
+        Permit second = throttlingService.tryAcquireConcurrent(TOKEN_1_1);
+        Permit other = throttlingService.tryAcquireConcurrent(TOKEN_2_1);
+        assertThat(throttlingService.getUsers()).isEqualTo(2);
+
+        first.release();
+        assertThat(throttlingService.getUsers()).isEqualTo(2);
+        second.release();
+        other.release();
+        assertThat(throttlingService.getUsers()).isZero();
+        assertThat(throttlingService.getInFlight(KeyClass.SLA_USER)).isZero();
+
+        //user is counted again from zero
+        assertThat(throttlingService.tryAcquireConcurrent(TOKEN_1_1)).isNotNull();
+        assertThat(throttlingService.getInFlight(KeyClass.SLA_USER)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotExceedUserConcurrencyWhileCountersAreRemoved() {
+        slaResolver.putSla(TOKEN_1_1, USER_1_SLA);
+        final int userConcurrency = (int) Math.ceil(USER_1_MAX_RPS * 0.5);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        IntStream.range(0, 200_000).parallel().forEach(i -> {
+            try (Permit permit = throttlingService.tryAcquireConcurrent(TOKEN_1_1)) {
+                if (permit != null) {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    inFlight.decrementAndGet();
+                }
+            }
+        });
+        assertThat(maxInFlight.get()).isBetween(1, userConcurrency);
+        assertThat(throttlingService.getUsers()).isZero();
+    }
+}
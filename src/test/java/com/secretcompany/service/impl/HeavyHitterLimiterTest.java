@@ -0,0 +1,74 @@
+package com.secretcompany.service.impl;
+
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HeavyHitterLimiterTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+    private static final long RPS = 10;
+    private static final int TOP_K = 16;
+    private static final long ABUSER = -1L;
+
+    @Test
+    public void shouldKeepMemoryBoundedForMillionTokens() {
+        HeavyHitterLimiter limiter = new HeavyHitterLimiter(1 << 16, 4, TOP_K);
+
+        long denied = IntStream.range(0, 1_000_000)
+                .filter(i -> !limiter.tryAcquire(NOW + i / 100_000 * 1000L, i, RPS))
+                .count();
+
+        //100k distinct tokens per second in 64k wide sketch: light tokens are almost never denied
+        assertThat(denied).isLessThan(1_000);
+        assertThat(limiter.getHeavyHitters()).isLessThanOrEqualTo(TOP_K);
+    }
+
+    @Test
+    public void shouldCountHeavyHitterExactlyFromNextSecond() {
+        HeavyHitterLimiter limiter = new HeavyHitterLimiter(1024, 4, TOP_K);
+        //background noise
+        IntStream.range(0, 5_000).forEach(i -> limiter.tryAcquire(NOW, i, RPS));
+
+        //sketch overestimates: never more than RPS, a bit less within the first second
+        assertThat(IntStream.range(0, 100).filter(i -> limiter.tryAcquire(NOW + 10, ABUSER, RPS)).count())
+                .isBetween(RPS / 2, RPS);
+        assertThat(limiter.getHeavyHitters()).isPositive();
+
+        //next second: exact window of heavy hitter
+        assertThat(IntStream.range(0, 100).filter(i -> limiter.tryAcquire(NOW + 1000, ABUSER, RPS)).count()).isEqualTo(RPS);
+    }
+
+    @Test
+    public void shouldReleasePermit() {
+        HeavyHitterLimiter limiter = new HeavyHitterLimiter(1024, 4, TOP_K);
+
+        IntStream.range(0, (int) RPS).forEach(i -> limiter.tryAcquire(NOW, 42L, RPS));
+        assertThat(limiter.tryAcquire(NOW, 42L, RPS)).isFalse();
+
+        limiter.release(NOW, 42L);
+        assertThat(limiter.tryAcquire(NOW, 42L, RPS)).isTrue();
+    }
+
+    @Test
+    public void shouldEvictIdleHeavyHittersAtRollover() {
+        HeavyHitterLimiter limiter = new HeavyHitterLimiter(1024, 4, 1);
+        long first = 1L;
+        long second = 2L;
+        long light = 3L;
+        IntStream.range(0, (int) RPS).forEach(i -> limiter.tryAcquire(NOW, first, RPS));
+        assertThat(limiter.getHeavyHitters()).isEqualTo(1);
+
+        //no room: the second one stays in sketch
+        IntStream.range(0, (int) RPS).forEach(i -> limiter.tryAcquire(NOW + 1000, second, RPS));
+        assertThat(limiter.getHeavyHitters()).isEqualTo(1);
+
+        //the first one hasn't been used for a whole second
+        limiter.tryAcquire(NOW + 3000, light, RPS);
+        assertThat(limiter.getHeavyHitters()).isZero();
+        IntStream.range(0, (int) RPS).forEach(i -> limiter.tryAcquire(NOW + 3000, second, RPS));
+        assertThat(limiter.getHeavyHitters()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,365 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.dto.FailurePolicy;
+import com.secretcompany.dto.Priority;
+import com.secretcompany.dto.Sla;
+import com.secretcompany.mock.VirtualClock;
+import com.secretcompany.timer.HashedWheelTimer;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import static com.secretcompany.dto.Sla.NO_LIMIT;
+import static com.secretcompany.service.impl.HierarchicalWindowLimiter.NO_TOKEN;
+import static com.secretcompany.service.impl.UserWindows.DAY_MILLIS;
+import static com.secretcompany.service.impl.UserWindows.MINUTE_MILLIS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HierarchicalWindowLimiterTest {
+
+    //aligned to day, so all buckets start together
+    private static final long NOW = 18_000 * DAY_MILLIS;
+    // token ids
+    private static final long TOKEN = 1L;
+    private static final long TOKEN_1 = 2L;
+    private static final long TOKEN_2 = 3L;
+
+    @Test
+    public void shouldNotConsumeUserLevelWhenTokenLevelRejects() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder().tokenRps(2).build();
+        Sla sla = new Sla("user", 3);
+
+        assertThat(acquired(limiter, NOW, 3, TOKEN_1, sla)).isEqualTo(2);
+        //the only permit left for the user is available for another token
+        assertThat(acquired(limiter, NOW, 3, TOKEN_2, sla)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldShareTenantLimitAndRollbackLowerLevels() {
+        HierarchicalWindowLimiter limiter = new HierarchicalWindowLimiter();
+
+        assertThat(acquired(limiter, NOW, 5, TOKEN_1, new Sla("user-1", 10, "tenant", 6))).isEqualTo(5);
+        assertThat(acquired(limiter, NOW, 5, TOKEN_2, new Sla("user-2", 10, "tenant", 6))).isEqualTo(1);
+
+        //rejected by tenant, but user-2 still has its own permits outside of the tenant
+        assertThat(acquired(limiter, NOW, 9, TOKEN_2, new Sla("user-2", 10))).isEqualTo(9);
+    }
+
+    @Test
+    public void shouldApplyGlobalLimitToAllUsers() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder().globalRps(5).build();
+
+        assertThat(acquired(limiter, NOW, 3, NO_TOKEN, new Sla("user-1", 10))).isEqualTo(3);
+        assertThat(acquired(limiter, NOW, 3, NO_TOKEN, new Sla("user-2", 10))).isEqualTo(2);
+
+        //user-1 has consumed only 3 permits of 10. Rejected by global level doesn't consume user's ones.
+        assertThat(limiter.tryAcquire(NOW + 1000, NO_TOKEN, new Sla("user-1", 7))).isTrue();
+    }
+
+    @Test
+    public void shouldResetAllLevelsInNextWindow() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder().tokenRps(1).globalRps(1).build();
+        Sla sla = new Sla("user", 1, "tenant", 1);
+
+        assertThat(limiter.tryAcquire(NOW, TOKEN, sla)).isTrue();
+        assertThat(limiter.tryAcquire(NOW + 999, TOKEN, sla)).isFalse();
+        assertThat(limiter.tryAcquire(NOW + 1000, TOKEN, sla)).isTrue();
+        assertThat(limiter.size()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldApplyMinuteAndDayCaps() {
+        HierarchicalWindowLimiter limiter = new HierarchicalWindowLimiter();
+        Sla sla = Sla.builder("user", 10).perMinute(25).perDay(40).build();
+
+        //10 + 10 + 5 within the first minute
+        assertThat(acquired(limiter, NOW, 20, TOKEN, sla)).isEqualTo(10);
+        assertThat(acquired(limiter, NOW + 1000, 20, TOKEN, sla)).isEqualTo(10);
+        assertThat(acquired(limiter, NOW + 2000, 20, TOKEN, sla)).isEqualTo(5);
+        //rejected by minute cap doesn't consume daily permits
+        assertThat(acquired(limiter, NOW + 3000, 20, TOKEN, sla)).isZero();
+
+        //15 left for the rest of the day
+        assertThat(acquired(limiter, NOW + MINUTE_MILLIS, 20, TOKEN, sla)).isEqualTo(10);
+        assertThat(acquired(limiter, NOW + 2 * MINUTE_MILLIS, 20, TOKEN, sla)).isEqualTo(5);
+        assertThat(acquired(limiter, NOW + 3 * MINUTE_MILLIS, 20, TOKEN, sla)).isZero();
+
+        assertThat(acquired(limiter, NOW + DAY_MILLIS, 20, TOKEN, sla)).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldSpreadBurstAcrossSlices() {
+        Sla sla = new Sla("user", 5000);
+        HierarchicalWindowLimiter plain = new HierarchicalWindowLimiter();
+        HierarchicalWindowLimiter smoothed = HierarchicalWindowLimiter.builder().slices(10).build();
+
+        //the whole RPS within the first 5 ms
+        assertThat(acquired(plain, NOW + 4, 10_000, TOKEN, sla)).isEqualTo(5000);
+        //RPS / 10 per 100 ms slice
+        assertThat(acquired(smoothed, NOW + 4, 10_000, TOKEN, sla)).isEqualTo(500);
+        assertThat(acquired(smoothed, NOW + 150, 10_000, TOKEN, sla)).isEqualTo(500);
+        //unused slices are carried over
+        assertThat(acquired(smoothed, NOW + 450, 10_000, TOKEN, sla)).isEqualTo(1500);
+        assertThat(acquired(smoothed, NOW + 999, 10_000, TOKEN, sla)).isEqualTo(2500);
+        assertThat(acquired(smoothed, NOW + 999, 10_000, TOKEN, sla)).isZero();
+    }
+
+    @Test
+    public void shouldRollbackApproximateTokenLevel() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder()
+                .tokenRps(3)
+                .approximateTokens(new HeavyHitterLimiter(1024, 4, 16))
+                .build();
+
+        //rejected by user level doesn't consume token's permits
+        assertThat(acquired(limiter, NOW, 5, TOKEN, new Sla("user-1", 1))).isEqualTo(1);
+        assertThat(acquired(limiter, NOW, 5, TOKEN, new Sla("user-2", 10))).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldRejectExhaustedUserTillEndOfWindow() {
+        HierarchicalWindowLimiter limiter = new HierarchicalWindowLimiter();
+        Sla sla = Sla.builder("user", 2).perMinute(3).build();
+
+        assertThat(acquired(limiter, NOW, 5, TOKEN, sla)).isEqualTo(2);
+        assertThat(limiter.tryAcquire(NOW + 999, TOKEN, sla)).isFalse();
+        //second window is over, but minute one has only one request left
+        assertThat(acquired(limiter, NOW + 1000, 5, TOKEN, sla)).isEqualTo(1);
+        assertThat(limiter.tryAcquire(NOW + 2000, TOKEN, sla)).isFalse();
+        assertThat(limiter.tryAcquire(NOW + MINUTE_MILLIS, TOKEN, sla)).isTrue();
+    }
+
+    @Test
+    public void shouldNotOverAdmitWithLeases() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder().leasing(32, NO_LIMIT).build();
+        Sla sla = new Sla("user", 10_000);
+
+        //permits stuck in leases of other threads are lost for this second only
+        long admitted = acquired(limiter, NOW, 20_000, TOKEN, sla);
+        assertThat(admitted).isLessThanOrEqualTo(10_000).isGreaterThan(9_000);
+        assertThat(acquired(limiter, NOW + 999, 20_000, TOKEN, sla)).isLessThanOrEqualTo(10_000 - admitted);
+        //unspent leases of the previous second don't go to the next second window
+        assertThat(acquired(limiter, NOW + 1000, 20_000, TOKEN, sla)).isLessThanOrEqualTo(10_000).isGreaterThan(9_000);
+    }
+
+    @Test
+    public void shouldNotLeaseForLowRps() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder().leasing(32, NO_LIMIT).build();
+
+        //RPS < 16 * lease size: exact
+        assertThat(acquired(limiter, NOW, 1000, TOKEN, new Sla("user", 100))).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldReturnLeasedPermitRejectedByUpperLevel() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder().leasing(32, NO_LIMIT).build();
+        Sla tenantExhausted = new Sla("user", 1000, "tenant", 0);
+        Sla sla = new Sla("user", 1000);
+
+        assertThat(limiter.tryAcquire(NOW, TOKEN, tenantExhausted)).isFalse();
+        //the same thread gets all permits back
+        long admitted = 0;
+        for (int i = 0; i < 2000; i++) {
+            admitted += limiter.tryAcquire(NOW, TOKEN, sla) ? 1 : 0;
+        }
+        assertThat(admitted).isEqualTo(1000);
+    }
+
+    @Test
+    public void shouldReturnUnspentLeasesToMinuteWindow() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder().leasing(32, NO_LIMIT).build();
+        Sla sla = Sla.builder("user", 1000).perMinute(1500).build();
+
+        //the whole lease is consumed from the minute window, one permit is spent
+        assertThat(limiter.tryAcquire(NOW, TOKEN, sla)).isTrue();
+        //31 unspent permits go back to the minute window at rollover
+        assertThat(sequential(limiter, NOW + 1000, 2000, sla)).isEqualTo(1000);
+        assertThat(sequential(limiter, NOW + 2000, 2000, sla)).isEqualTo(499);
+        assertThat(limiter.tryAcquire(NOW + MINUTE_MILLIS - 1, TOKEN, sla)).isFalse();
+    }
+
+    @Test
+    public void shouldCapOverAdmissionOfLeases() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder().leasing(32, 8).build();
+        Sla sla = new Sla("user", 10_000);
+        Sla lowered = new Sla("user", 600);
+
+        //leases by 8: 608 permits are consumed from the window, 7 of them are in the lease
+        assertThat(sequential(limiter, NOW, 601, sla)).isEqualTo(601);
+        limiter.applySla(NOW, sla, lowered);
+
+        //leased permits are spent without checking the windows: lowered Sla is exceeded by less than the cap
+        assertThat(sequential(limiter, NOW, 100, lowered)).isEqualTo(7);
+    }
+
+    @Test
+    public void shouldExpireIdleWindows() throws InterruptedException {
+        try (HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64)) {
+            HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder()
+                    .tokenRps(10)
+                    .expiry(timer, Duration.ZERO)
+                    .build();
+            VirtualClock clock = new VirtualClock(NOW);
+            limiter.setSystemClock(clock);
+
+            assertThat(limiter.tryAcquire(NOW, TOKEN, new Sla("user", 10, "tenant", 10))).isTrue();
+            //minute cap: user's windows are kept till the end of the minute
+            assertThat(limiter.tryAcquire(NOW, NO_TOKEN, Sla.builder("capped", 10).perMinute(100).build())).isTrue();
+            assertThat(limiter.size()).isEqualTo(4);
+
+            clock.advanceTo(NOW + 1000);
+            awaitSize(limiter, 1);
+            //the token comes back with a new window
+            assertThat(acquired(limiter, NOW + 1000, 20, TOKEN, new Sla("user", 10))).isEqualTo(10);
+        }
+    }
+
+    @Test
+    public void shouldApplyChangedSlaToCurrentWindows() {
+        HierarchicalWindowLimiter limiter = new HierarchicalWindowLimiter();
+        Sla sla = new Sla("user", 10, "tenant", 10);
+
+        assertThat(acquired(limiter, NOW, 20, TOKEN, sla)).isEqualTo(10);
+        //consumed permits are kept, the rest is given by the new RPS
+        Sla raised = new Sla("user", 15, "tenant", 12);
+        limiter.applySla(NOW, sla, raised);
+        assertThat(acquired(limiter, NOW, 20, TOKEN, raised)).isEqualTo(2);
+
+        Sla tenantRaised = new Sla("user", 15, "tenant", 20);
+        limiter.applySla(NOW, raised, tenantRaised);
+        assertThat(acquired(limiter, NOW, 20, TOKEN, tenantRaised)).isEqualTo(3);
+
+        Sla lowered = new Sla("user", 3, "tenant", 20);
+        limiter.applySla(NOW, tenantRaised, lowered);
+        assertThat(limiter.tryAcquire(NOW, TOKEN, lowered)).isFalse();
+        assertThat(acquired(limiter, NOW + 1000, 20, TOKEN, lowered)).isEqualTo(3);
+    }
+
+    private static void awaitSize(HierarchicalWindowLimiter limiter, int size) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.size() != size && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(limiter.size()).isEqualTo(size);
+    }
+
+    @Test
+    public void shouldKeepPremiumCapacityDuringGuestFlood() {
+        //premium 50, standard 30, guests 10, pool 10
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder()
+                .priorityBudget(new PriorityBudget(100, 0.5, 0.3, 0.1))
+                .build();
+        Sla guests = Sla.builder("guests", 1000).perMinute(25).priority(Priority.GUEST).build();
+        Sla premium = new Sla("premium", 1000, Priority.PREMIUM);
+
+        //guests get own reserve and the pool only
+        assertThat(acquired(limiter, NOW, 1000, NO_TOKEN, guests)).isEqualTo(20);
+        //premium borrows standard reserve
+        assertThat(acquired(limiter, NOW, 1000, TOKEN, premium)).isEqualTo(80);
+        //rejected by the budget doesn't consume user's minute cap
+        assertThat(acquired(limiter, NOW + 1000, 1000, NO_TOKEN, guests)).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldLimitUserPerResource() {
+        HierarchicalWindowLimiter limiter = new HierarchicalWindowLimiter();
+        //resource 0: 2 RPS, resource 1: no limit
+        Sla sla = Sla.builder("user", 10).resourceRps(2, NO_LIMIT).build();
+
+        assertThat(IntStream.range(0, 5).filter(i -> limiter.tryAcquire(NOW, NO_TOKEN, sla, 0)).count()).isEqualTo(2);
+        //rejected by resource level doesn't consume user's RPS
+        assertThat(IntStream.range(0, 20).filter(i -> limiter.tryAcquire(NOW, NO_TOKEN, sla, 1)).count()).isEqualTo(8);
+        //resources share RPS of the user
+        assertThat(limiter.tryAcquire(NOW + 1000, NO_TOKEN, sla, 0)).isTrue();
+        assertThat(IntStream.range(0, 9).filter(i -> limiter.tryAcquire(NOW + 1000, NO_TOKEN, sla, 1)).count()).isEqualTo(9);
+        assertThat(limiter.tryAcquire(NOW + 1000, NO_TOKEN, sla, 0)).isFalse();
+        assertThat(limiter.tryAcquire(NOW + 1000, NO_TOKEN, sla, Sla.NO_RESOURCE)).isFalse();
+    }
+
+    @Test
+    public void shouldApplyFailurePolicyToContendedWindow() throws Exception {
+        assertThat(decideContended(FailurePolicy.FAIL_OPEN)).isTrue();
+        assertThat(decideContended(FailurePolicy.FAIL_CLOSED)).isFalse();
+    }
+
+    @Test
+    public void shouldDecideUncontendedRequestsWithinAttempts() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder()
+                .tokenRps(5)
+                .boundedDecisions(1, FailurePolicy.FAIL_OPEN)
+                .build();
+        Sla sla = new Sla("user", NO_LIMIT);
+
+        //token windows are resized by bounded updates only
+        for (int token = 0; token < 50_000; token++) {
+            assertThat(limiter.tryAcquire(NOW, TOKEN + token, sla)).isTrue();
+        }
+        assertThat(IntStream.range(0, 10).filter(i -> limiter.tryAcquire(NOW, TOKEN, sla)).count()).isEqualTo(4);
+        assertThat(limiter.getUndecided()).isZero();
+    }
+
+    /**
+     * Lock of user's windows is held by the test meanwhile.
+     * @return decision of the user
+     */
+    private static boolean decideContended(FailurePolicy policy) {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder()
+                .tokenRps(10)
+                .boundedDecisions(3, policy)
+                .build();
+        Sla sla = new Sla("user", 10);
+        UserWindows windows = limiter.getUserWindows(sla);
+
+        assertThat(windows.tryLock(1)).isTrue();
+        //doesn't wait for the holder
+        boolean decision = limiter.tryAcquire(NOW, TOKEN, sla);
+        assertThat(limiter.getUndecided()).isEqualTo(1);
+        windows.unlock();
+
+        //undecided request hasn't consumed anything, token level included. Uncontended ones are limited as usual
+        assertThat(IntStream.range(0, 20).filter(i -> limiter.tryAcquire(NOW, TOKEN, sla)).count()).isEqualTo(10);
+        assertThat(limiter.getUndecided()).isEqualTo(1);
+        return decision;
+    }
+
+    @Test
+    public void shouldAdmitExactlyRpsOfEachUserWhileWindowsGrow() {
+        HierarchicalWindowLimiter limiter = HierarchicalWindowLimiter.builder().tokenRps(3).build();
+        int users = 20_000;
+        Sla[] slas = IntStream.range(0, users).mapToObj(user -> new Sla("user-" + user, 5)).toArray(Sla[]::new);
+        AtomicIntegerArray admitted = new AtomicIntegerArray(users);
+
+        //requests of a user are spread between threads, maps grow meanwhile.
+        //Two tokens by 3 RPS per user: permits of tokens rejected by user level go back
+        IntStream.range(0, users * 10).parallel().forEach(i -> {
+            final int user = i % users;
+            if (limiter.tryAcquire(NOW, 2L * user + i / users % 2, slas[user])) {
+                admitted.incrementAndGet(user);
+            }
+        });
+
+        for (int user = 0; user < users; user++) {
+            assertThat(admitted.get(user)).isEqualTo(5);
+        }
+        assertThat(limiter.size()).isEqualTo(3 * users);
+    }
+
+    /**
+     * Requests of the calling thread only: the same lease for all of them.
+     */
+    private static long sequential(HierarchicalWindowLimiter limiter, long now, int requests, Sla sla) {
+        return IntStream.range(0, requests)
+                .filter(i -> limiter.tryAcquire(now, TOKEN, sla))
+                .count();
+    }
+
+    private static long acquired(HierarchicalWindowLimiter limiter, long now, int requests, long tokenId, Sla sla) {
+        return IntStream.range(0, requests)
+                .parallel()
+                .filter(i -> limiter.tryAcquire(now, tokenId, sla))
+                .count();
+    }
+}
@@ -0,0 +1,55 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.dto.Priority;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PriorityBudgetTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Test
+    public void shouldBorrowTopDown() {
+        //premium 5, standard 3, guests 1, pool 1
+        PriorityBudget budget = new PriorityBudget(10, 0.5, 0.3, 0.1);
+
+        assertThat(acquired(budget, NOW, 100, Priority.STANDARD)).isEqualTo(5);
+        //standard has taken the pool and guest reserve
+        assertThat(budget.getPoolConsumed(NOW)).isEqualTo(1);
+        assertThat(budget.getConsumed(NOW, Priority.GUEST)).isEqualTo(1);
+        assertThat(acquired(budget, NOW, 100, Priority.GUEST)).isZero();
+        //premium reserve is never lent
+        assertThat(acquired(budget, NOW, 100, Priority.PREMIUM)).isEqualTo(5);
+
+        //the next second is a new window
+        assertThat(acquired(budget, NOW + 1000, 100, Priority.GUEST)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotExceedRpsConcurrently() {
+        PriorityBudget budget = new PriorityBudget(1000, 0.3, 0.3, 0.3);
+
+        long allowed = IntStream.range(0, 10_000)
+                .parallel()
+                .filter(i -> budget.tryAcquire(NOW, Priority.values()[i % 3]))
+                .count();
+        assertThat(allowed).isEqualTo(1000);
+    }
+
+    @Test
+    public void shouldRejectInvalidShares() {
+        assertThatThrownBy(() -> new PriorityBudget(10, 0.5, 0.5)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new PriorityBudget(10, 0.5, 0.5, 0.5)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new PriorityBudget(0, 0.5, 0.3, 0.1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static long acquired(PriorityBudget budget, long now, int requests, Priority priority) {
+        return IntStream.range(0, requests)
+                .filter(i -> budget.tryAcquire(now, priority))
+                .count();
+    }
+}
@@ -0,0 +1,102 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.exception.RequestThrottledException;
+import com.secretcompany.mock.EmptySlaService;
+import com.secretcompany.timer.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class QueueingThrottlingServiceImplTest {
+
+    private static final int GUEST_RPS = 5;
+
+    private final HashedWheelTimer timer = new HashedWheelTimer();
+
+    @After
+    public void shutdown() {
+        timer.close();
+    }
+
+    @Test
+    public void shouldDelayRequestsAboveRpsToNextWindows() throws Exception {
+        QueueingThrottlingServiceImpl throttlingService = new QueueingThrottlingServiceImpl(
+                new WindowThrottlingServiceImpl(GUEST_RPS, new EmptySlaService()), timer, Duration.ofSeconds(5), 10);
+
+        List<CompletableFuture<Void>> futures = IntStream.range(0, 3 * GUEST_RPS)
+                .mapToObj(i -> throttlingService.acquire(null))
+                .collect(Collectors.toList());
+
+        assertThat(futures.stream().filter(CompletableFuture::isDone).count()).isEqualTo(GUEST_RPS);
+        //queue is full
+        assertThatThrownBy(() -> throttlingService.acquire(null).get())
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(RequestThrottledException.class);
+
+        //the rest are released within the next two windows
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(4, TimeUnit.SECONDS);
+        assertThat(futures).allMatch(future -> !future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void shouldFailWhenMaxWaitIsExceeded() {
+        QueueingThrottlingServiceImpl throttlingService = new QueueingThrottlingServiceImpl(
+                new WindowThrottlingServiceImpl(GUEST_RPS, new EmptySlaService()), timer, Duration.ofMillis(100), 10);
+
+        IntStream.range(0, GUEST_RPS).forEach(i -> throttlingService.acquire(null));
+        CompletableFuture<Void> waiting = throttlingService.acquire(null);
+        assertThat(waiting).isNotDone();
+
+        assertThatThrownBy(() -> waiting.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(RequestThrottledException.class);
+    }
+
+    @Test
+    public void shouldQueuePerToken() throws Exception {
+        QueueingThrottlingServiceImpl throttlingService = new QueueingThrottlingServiceImpl(
+                new WindowThrottlingServiceImpl(GUEST_RPS, new EmptySlaService()), timer, Duration.ofSeconds(5), 1);
+
+        IntStream.range(0, GUEST_RPS).forEach(i -> throttlingService.acquire(null));
+        CompletableFuture<Void> unauthorized = throttlingService.acquire(null);
+        //authorized users without Sla have their own RPS and queue
+        CompletableFuture<Void> authorized = throttlingService.acquire("token");
+
+        assertThat(unauthorized).isNotDone();
+        assertThat(authorized).isDone();
+        unauthorized.get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldKeepQueuesOnlyWhileRequestsWait() throws Exception {
+        QueueingThrottlingServiceImpl throttlingService = new QueueingThrottlingServiceImpl(
+                new WindowThrottlingServiceImpl(GUEST_RPS, new EmptySlaService()), timer, Duration.ofSeconds(5), 10);
+
+        //allowed requests don't need a queue
+        IntStream.range(0, GUEST_RPS).forEach(i -> assertThat(throttlingService.acquire(null)).isDone());
+        assertThat(throttlingService.getWaitQueues()).isZero();
+
+        CompletableFuture<Void> waiting = throttlingService.acquire(null);
+        assertThat(throttlingService.getWaitQueues()).isEqualTo(1);
+
+        waiting.get(2, TimeUnit.SECONDS);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (throttlingService.getWaitQueues() != 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(throttlingService.getWaitQueues()).isZero();
+        //the next waiting request gets a new queue
+        IntStream.range(0, GUEST_RPS).forEach(i -> throttlingService.acquire(null));
+        throttlingService.acquire(null).get(2, TimeUnit.SECONDS);
+    }
+}
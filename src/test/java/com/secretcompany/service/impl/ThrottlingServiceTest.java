@@ -1,8 +1,13 @@
 package com.secretcompany.service.impl;
 
+import com.secretcompany.dto.Sla;
 import com.secretcompany.dto.UserData;
+import com.secretcompany.metrics.ThrottlingMetrics;
 import com.secretcompany.mock.EmptySlaService;
 import com.secretcompany.mock.SlaServiceStubWithDelay;
+import com.secretcompany.mock.SlaUpdateBroadcaster;
+import com.secretcompany.mock.VirtualClock;
+import com.secretcompany.timer.HashedWheelTimer;
 import org.assertj.core.util.Lists;
 import org.junit.Before;
 import org.junit.Test;
@@ -10,13 +15,17 @@ import org.springframework.util.ReflectionUtils;
 
 import java.lang.reflect.Field;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -25,6 +34,7 @@ import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_1;
 import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_2;
 import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_2_1;
 import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_2_2;
+import static com.secretcompany.mock.SlaServiceStubConstants.USER_1;
 import static com.secretcompany.mock.SlaServiceStubConstants.USER_1_MAX_RPS;
 import static com.secretcompany.mock.SlaServiceStubConstants.USER_1_SLA;
 import static com.secretcompany.mock.SlaServiceStubConstants.USER_2_MAX_RPS;
@@ -308,6 +318,70 @@ public class ThrottlingServiceTest {
         } while (index < total);
     }
 
+    @Test
+    public void shouldExpireIdleToken() throws InterruptedException {
+        try (HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64)) {
+            throttlingService = new ThrottlingServiceImpl(GUEST_RPS, token -> CompletableFuture.completedFuture(USER_1_SLA),
+                    ThrottlingMetrics.NOOP, timer, Duration.ofSeconds(1), Duration.ZERO);
+            VirtualClock clock = new VirtualClock(now.toEpochMilli());
+            throttlingService.setSystemClock(clock);
+            //response of SlaService is handled in the calling thread
+            throttlingService.setSlaExecutor(Runnable::run);
+
+            //the first request asks SlaService, the second one is counted for the user
+            assertThat(throttlingService.isRequestAllowed(TOKEN_1_1)).isTrue();
+            assertThat(throttlingService.isRequestAllowed(TOKEN_1_1)).isTrue();
+            assertThat(throttlingService.getTokenToUserDataMap()).containsKey(TOKEN_1_1);
+            assertThat(throttlingService.getUserToUserDataSetMap()).hasSize(1);
+
+            clock.advance(2000);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (throttlingService.getTokenToUserDataMap().containsKey(TOKEN_1_1) && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertThat(throttlingService.getTokenToUserDataMap()).doesNotContainKey(TOKEN_1_1);
+            //the last token of the user
+            assertThat(throttlingService.getUserToUserDataSetMap()).isEmpty();
+        }
+    }
+
+    @Test
+    public void shouldApplyPushedSlaWithoutPolling() {
+        AtomicInteger calls = new AtomicInteger();
+        throttlingService = new ThrottlingServiceImpl(GUEST_RPS, token -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(USER_1_SLA);
+        });
+        throttlingService.setSystemClock(fixedClock);
+        //response of SlaService is handled in the calling thread
+        throttlingService.setSlaExecutor(Runnable::run);
+        SlaUpdateBroadcaster broadcaster = new SlaUpdateBroadcaster();
+        throttlingService.subscribe(broadcaster, true);
+
+        //the first request competes for guest RPS, Sla is cached by then
+        assertThat(throttlingService.isRequestAllowed(TOKEN_1_1)).isTrue();
+        //denied requests are counted too. Consume exactly the whole RPS
+        long allowed = IntStream.range(0, USER_1_MAX_RPS)
+                .filter(i -> throttlingService.isRequestAllowed(TOKEN_1_1))
+                .count();
+        assertThat(allowed).isEqualTo(USER_1_MAX_RPS);
+        //the token is known, changes are pushed
+        assertThat(calls.get()).isEqualTo(1);
+
+        //the same second gets the new RPS
+        broadcaster.publishUserSla(USER_1, new Sla(USER_1, USER_1_MAX_RPS + 5));
+        allowed = IntStream.range(0, 2 * USER_1_MAX_RPS)
+                .filter(i -> throttlingService.isRequestAllowed(TOKEN_1_1))
+                .count();
+        assertThat(allowed).isEqualTo(5);
+
+        //revoked token is asked again
+        broadcaster.publishTokenSla(TOKEN_1_1, null);
+        assertThat(throttlingService.getUserToUserDataSetMap()).isEmpty();
+        throttlingService.isRequestAllowed(TOKEN_1_1);
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
     private String getToken(List<String> slaTokens, int index) {
         return slaTokens.get((slaTokens.size() - 1) & index);
     }
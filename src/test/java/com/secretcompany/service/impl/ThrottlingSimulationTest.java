@@ -0,0 +1,58 @@
+package com.secretcompany.service.impl;
+
+import com.secretcompany.service.impl.ThrottlingSimulator.Scenario;
+import com.secretcompany.service.impl.ThrottlingSimulator.SimulationReport;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ThrottlingSimulationTest {
+
+    @Test
+    public void shouldSimulateMillionRequestsWithWindowThrottling() {
+        SimulationReport report = new ThrottlingSimulator(new Scenario(), ThrottlingSimulator.WINDOW).run();
+
+        assertThat(report.requests).isEqualTo(1_000_000);
+        assertThat(report.virtualMillis).isGreaterThan(190_000);
+        assertThat(report.slaBackendCalls).isPositive();
+        assertThat(report.getAccuracy()).isGreaterThan(0.9);
+        assertThat(report.overAdmitted).isLessThan(report.allowed / 100);
+        assertDecisionsAddUp(report);
+    }
+
+    @Test
+    public void shouldSimulateThrottlingServiceImpl() {
+        SimulationReport report = new ThrottlingSimulator(new Scenario().requests(200_000), ThrottlingSimulator.THROTTLING).run();
+
+        assertThat(report.requests).isEqualTo(200_000);
+        assertThat(report.slaBackendCalls).isPositive();
+        assertThat(report.allowed).isPositive();
+        assertThat(report.overAdmitted).isLessThan(report.allowed / 100);
+        assertDecisionsAddUp(report);
+    }
+
+    @Test
+    public void shouldBeDeterministic() {
+        Scenario scenario = new Scenario().requests(100_000).seed(7);
+
+        SimulationReport first = new ThrottlingSimulator(scenario, ThrottlingSimulator.WINDOW).run();
+        SimulationReport second = new ThrottlingSimulator(scenario, ThrottlingSimulator.WINDOW).run();
+
+        assertThat(second.deterministicPart()).isEqualTo(first.deterministicPart());
+    }
+
+    private static void assertDecisionsAddUp(SimulationReport report) {
+        long allowed = 0;
+        long total = 0;
+        for (Map.Entry<String, Long> decision : report.decisions.entrySet()) {
+            total += decision.getValue();
+            if (decision.getKey().endsWith(".allowed")) {
+                allowed += decision.getValue();
+            }
+        }
+        assertThat(allowed).isEqualTo(report.allowed);
+        assertThat(total).isEqualTo(report.requests);
+    }
+}
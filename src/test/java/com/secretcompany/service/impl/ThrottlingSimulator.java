@@ -0,0 +1,286 @@
+package com.secretcompany.service.impl;
+
+import com.google.common.base.MoreObjects;
+import com.secretcompany.dto.KeyClass;
+import com.secretcompany.dto.Sla;
+import com.secretcompany.metrics.InMemoryThrottlingMetrics;
+import com.secretcompany.metrics.ThrottlingMetrics;
+import com.secretcompany.mock.VirtualClock;
+import com.secretcompany.mock.VirtualTimeSlaService;
+import com.secretcompany.service.SlaService;
+import com.secretcompany.service.ThrottlingService;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+/**
+ * Discrete-event simulation of throttling in virtual time.
+ * No threads and no sleeps: {@link VirtualClock} drives the throttler and {@link VirtualTimeSlaService},
+ * Sla handling runs in the caller thread. The same seed always gives the same report.
+ *
+ * Traffic: Poisson arrivals, users are picked by Zipf distribution (a few heavy users and a long tail).
+ * Each user has several tokens. Some users have Sla, the others are unknown to SlaService.
+ *
+ * Accuracy is measured for users with Sla per (user, second from epoch):
+ * ideal = min(offered, Sla RPS), accuracy = sum(min(admitted, ideal)) / sum(ideal).
+ */
+class ThrottlingSimulator {
+    private static final long START_MILLIS = 1_600_000_000_000L;
+
+    /**
+     * Creates throttler under simulation. Throttler should use given clock and run Sla handling in the caller thread.
+     */
+    @FunctionalInterface
+    interface ThrottlerFactory {
+        ThrottlingService create(int guestRps, SlaService slaService, ThrottlingMetrics metrics, Clock clock);
+    }
+
+    static final ThrottlerFactory WINDOW = (guestRps, slaService, metrics, clock) -> {
+        WindowThrottlingServiceImpl service = new WindowThrottlingServiceImpl(guestRps, slaService, metrics);
+        service.setSystemClock(clock);
+        service.setSlaExecutor(Runnable::run);
+        return service;
+    };
+
+    static final ThrottlerFactory THROTTLING = (guestRps, slaService, metrics, clock) -> {
+        ThrottlingServiceImpl service = new ThrottlingServiceImpl(guestRps, slaService, metrics);
+        service.setSystemClock(clock);
+        service.setSlaExecutor(Runnable::run);
+        return service;
+    };
+
+    /**
+     * Mutable scenario with reasonable defaults.
+     */
+    static class Scenario {
+        long seed = 42;
+        long requests = 1_000_000;
+        double requestsPerSecond = 5_000;
+        int users = 10_000;
+        int tokensPerUser = 2;
+        double zipfExponent = 1.1;
+        double slaUserShare = 0.5;
+        double unauthorizedShare = 0.1;
+        int maxSlaRps = 50;
+        int guestRps = 20;
+        long slaLatencyMillis = 250;
+
+        Scenario requests(long requests) {
+            this.requests = requests;
+            return this;
+        }
+
+        Scenario seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        Scenario requestsPerSecond(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        Scenario users(int users) {
+            this.users = users;
+            return this;
+        }
+    }
+
+    private final Scenario scenario;
+    private final ThrottlerFactory factory;
+
+    ThrottlingSimulator(final Scenario scenario, final ThrottlerFactory factory) {
+        Objects.requireNonNull(scenario, "Scenario is required");
+        Objects.requireNonNull(factory, "Throttler factory is required");
+        this.scenario = scenario;
+        this.factory = factory;
+    }
+
+    SimulationReport run() {
+        final long wallStart = System.nanoTime();
+        final SplittableRandom random = new SplittableRandom(scenario.seed);
+
+        // users and their tokens. rps == 0 means user doesn't have Sla
+        final String[][] tokens = new String[scenario.users][scenario.tokensPerUser];
+        final int[] rps = new int[scenario.users];
+        final Map<String, Sla> tokenToSla = new HashMap<>();
+        for (int user = 0; user < scenario.users; user++) {
+            final boolean hasSla = random.nextDouble() < scenario.slaUserShare;
+            final Sla sla = hasSla ? new Sla("user-" + user, 1 + random.nextInt(scenario.maxSlaRps)) : null;
+            rps[user] = hasSla ? (int) sla.getRps() : 0;
+            for (int t = 0; t < scenario.tokensPerUser; t++) {
+                tokens[user][t] = "token-" + user + "-" + t;
+                if (hasSla) {
+                    tokenToSla.put(tokens[user][t], sla);
+                }
+            }
+        }
+
+        final VirtualClock clock = new VirtualClock(START_MILLIS);
+        final VirtualTimeSlaService slaService = new VirtualTimeSlaService(clock, scenario.slaLatencyMillis, tokenToSla);
+        final InMemoryThrottlingMetrics metrics = new InMemoryThrottlingMetrics();
+        final ThrottlingService throttlingService = factory.create(scenario.guestRps, slaService, metrics, clock);
+        final double[] zipfCdf = zipfCdf(scenario.users, scenario.zipfExponent);
+
+        final Accuracy accuracy = new Accuracy(rps);
+        final double meanInterArrivalMillis = 1000 / scenario.requestsPerSecond;
+        double time = START_MILLIS;
+        long allowed = 0;
+        for (long i = 0; i < scenario.requests; i++) {
+            // Poisson process: exponential inter-arrival time
+            time += -Math.log(1 - random.nextDouble()) * meanInterArrivalMillis;
+            final long now = (long) time;
+            clock.advanceTo(now);
+            slaService.completeDue();
+            accuracy.onTime(now);
+
+            if (random.nextDouble() < scenario.unauthorizedShare) {
+                allowed += throttlingService.isRequestAllowed(null) ? 1 : 0;
+            } else {
+                final int user = nextZipf(zipfCdf, random);
+                final boolean isAllowed = throttlingService.isRequestAllowed(tokens[user][random.nextInt(scenario.tokensPerUser)]);
+                allowed += isAllowed ? 1 : 0;
+                accuracy.onRequest(user, isAllowed);
+            }
+        }
+        accuracy.flush();
+
+        return new SimulationReport(scenario.requests, allowed, metrics, slaService.getCalls(),
+                accuracy.ideal, accuracy.admittedWithinIdeal, accuracy.overAdmitted,
+                clock.millis() - START_MILLIS, System.nanoTime() - wallStart);
+    }
+
+    private static double[] zipfCdf(int size, double exponent) {
+        final double[] cdf = new double[size];
+        double sum = 0;
+        for (int rank = 1; rank <= size; rank++) {
+            sum += 1 / Math.pow(rank, exponent);
+            cdf[rank - 1] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int nextZipf(double[] cdf, SplittableRandom random) {
+        final int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cdf.length - 1);
+    }
+
+    /**
+     * Offered and admitted requests of users with Sla within current second.
+     */
+    private static class Accuracy {
+        private final int[] rps;
+        private final int[] offered;
+        private final int[] admitted;
+        private final int[] touched;
+        private int touchedSize;
+        private long currentSecond = Long.MIN_VALUE;
+
+        private long ideal;
+        private long admittedWithinIdeal;
+        private long overAdmitted;
+
+        private Accuracy(int[] rps) {
+            this.rps = rps;
+            this.offered = new int[rps.length];
+            this.admitted = new int[rps.length];
+            this.touched = new int[rps.length];
+        }
+
+        void onTime(long millis) {
+            final long second = millis / 1000;
+            if (second != currentSecond) {
+                flush();
+                currentSecond = second;
+            }
+        }
+
+        void onRequest(int user, boolean allowed) {
+            if (rps[user] == 0) {
+                return;
+            }
+            if (offered[user] == 0) {
+                touched[touchedSize++] = user;
+            }
+            offered[user]++;
+            admitted[user] += allowed ? 1 : 0;
+        }
+
+        void flush() {
+            for (int i = 0; i < touchedSize; i++) {
+                final int user = touched[i];
+                final long idealForUser = Math.min(offered[user], rps[user]);
+                ideal += idealForUser;
+                admittedWithinIdeal += Math.min(admitted[user], idealForUser);
+                overAdmitted += Math.max(0, admitted[user] - rps[user]);
+                offered[user] = 0;
+                admitted[user] = 0;
+            }
+            touchedSize = 0;
+        }
+    }
+
+    static class SimulationReport {
+        final long requests;
+        final long allowed;
+        final Map<String, Long> decisions = new HashMap<>();
+        final long slaBackendCalls;
+        final long idealAdmissions;
+        final long admittedWithinIdeal;
+        final long overAdmitted;
+        final long virtualMillis;
+        final long wallNanos;
+
+        SimulationReport(long requests, long allowed, InMemoryThrottlingMetrics metrics, long slaBackendCalls,
+                         long idealAdmissions, long admittedWithinIdeal, long overAdmitted, long virtualMillis, long wallNanos) {
+            this.requests = requests;
+            this.allowed = allowed;
+            for (KeyClass keyClass : KeyClass.values()) {
+                decisions.put(keyClass.name() + ".allowed", metrics.getAllowed(keyClass));
+                decisions.put(keyClass.name() + ".denied", metrics.getDenied(keyClass));
+            }
+            this.slaBackendCalls = slaBackendCalls;
+            this.idealAdmissions = idealAdmissions;
+            this.admittedWithinIdeal = admittedWithinIdeal;
+            this.overAdmitted = overAdmitted;
+            this.virtualMillis = virtualMillis;
+            this.wallNanos = wallNanos;
+        }
+
+        /**
+         * @return share of ideal admissions of users with Sla which were really admitted. 1.0 is perfect.
+         */
+        double getAccuracy() {
+            return idealAdmissions == 0 ? 1.0 : (double) admittedWithinIdeal / idealAdmissions;
+        }
+
+        /**
+         * Everything except wall time. The same seed should give the same value.
+         */
+        String deterministicPart() {
+            return MoreObjects.toStringHelper(this)
+                    .add("requests", requests)
+                    .add("allowed", allowed)
+                    .add("decisions", new TreeMap<>(decisions))
+                    .add("slaBackendCalls", slaBackendCalls)
+                    .add("idealAdmissions", idealAdmissions)
+                    .add("admittedWithinIdeal", admittedWithinIdeal)
+                    .add("overAdmitted", overAdmitted)
+                    .add("virtualMillis", virtualMillis)
+                    .toString();
+        }
+
+        @Override
+        public String toString() {
+            return deterministicPart() + String.format(" accuracy=%.4f wallMillis=%d", getAccuracy(), wallNanos / 1_000_000);
+        }
+    }
+}
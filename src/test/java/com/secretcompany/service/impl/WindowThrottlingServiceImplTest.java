@@ -1,28 +1,46 @@
 package com.secretcompany.service.impl;
 
+import com.secretcompany.dto.KeyClass;
 import com.secretcompany.dto.Sla;
+import com.secretcompany.metrics.InMemoryThrottlingMetrics;
+import com.secretcompany.metrics.ThrottlingMetrics;
 import com.secretcompany.mock.EmptySlaService;
+import com.secretcompany.mock.SlaUpdateBroadcaster;
+import com.secretcompany.mock.VirtualClock;
+import com.secretcompany.resilience.AimdLimitController;
+import com.secretcompany.timer.HashedWheelTimer;
+import com.secretcompany.timer.Timeout;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.assertj.core.util.Lists;
 import org.junit.Before;
 import org.junit.Test;
-import org.springframework.util.ReflectionUtils;
 
-import java.lang.reflect.Field;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import static com.secretcompany.config.ThrottlingConfiguration.CUSTOM_FORK_JOIN_POOL;
 import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_1;
 import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_1_2;
 import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_2_1;
 import static com.secretcompany.mock.SlaServiceStubConstants.TOKEN_2_2;
+import static com.secretcompany.mock.SlaServiceStubConstants.USER_1;
 import static com.secretcompany.mock.SlaServiceStubConstants.USER_1_MAX_RPS;
 import static com.secretcompany.mock.SlaServiceStubConstants.USER_1_SLA;
 import static com.secretcompany.mock.SlaServiceStubConstants.USER_2_MAX_RPS;
@@ -76,7 +94,7 @@ public class WindowThrottlingServiceImplTest {
         assertThat(collect).hasSize(1);
         assertThat(collect.get(true)).isEqualTo(REAL_RPS);
 
-        assertThat(throttlingService.getRequestToSlaPerToken()).isEmpty();
+        assertThat(throttlingService.getRequestsInFlight()).isZero();
 
         //simulate that time went through 500 ml.
         throttlingService.setSystemClock(plus500Clock);
@@ -90,7 +108,7 @@ public class WindowThrottlingServiceImplTest {
         assertThat(collect).hasSize(1);
         assertThat(collect.get(true)).isEqualTo(REAL_RPS);
 
-        assertThat(throttlingService.getRequestToSlaPerToken()).isEmpty();
+        assertThat(throttlingService.getRequestsInFlight()).isZero();
 
         //simulate that time went through 999 ml. < 1 s.
         throttlingService.setSystemClock(plus999Clock);
@@ -105,7 +123,7 @@ public class WindowThrottlingServiceImplTest {
         assertThat(collect.get(true)).isEqualTo(2 * REAL_RPS);
         assertThat(collect.get(false)).isEqualTo(REAL_RPS);
 
-        assertThat(throttlingService.getRequestToSlaPerToken()).isEmpty();
+        assertThat(throttlingService.getRequestsInFlight()).isZero();
 
         throttlingService.setSystemClock(plus1000Clock);
 
@@ -118,7 +136,7 @@ public class WindowThrottlingServiceImplTest {
         assertThat(collect).hasSize(1);
         assertThat(collect.get(true)).isEqualTo(4 * REAL_RPS);
 
-        assertThat(throttlingService.getRequestToSlaPerToken()).isEmpty();
+        assertThat(throttlingService.getRequestsInFlight()).isZero();
     }
 
     @Test
@@ -135,7 +153,7 @@ public class WindowThrottlingServiceImplTest {
         assertThat(collect).hasSize(1);
         assertThat(collect.get(true)).isEqualTo(REAL_RPS);
 
-        assertThat(throttlingService.getRequestToSlaPerToken()).isEmpty();
+        assertThat(throttlingService.getRequestsInFlight()).isZero();
 
         //simulate that time went through 500 ml.
         throttlingService.setSystemClock(plus500Clock);
@@ -149,7 +167,7 @@ public class WindowThrottlingServiceImplTest {
         assertThat(collect).hasSize(1);
         assertThat(collect.get(true)).isEqualTo(REAL_RPS);
 
-        assertThat(throttlingService.getRequestToSlaPerToken()).isEmpty();
+        assertThat(throttlingService.getRequestsInFlight()).isZero();
 
         //simulate that out 1s window.
         throttlingService.setSystemClock(plus1000Clock);
@@ -164,7 +182,7 @@ public class WindowThrottlingServiceImplTest {
         assertThat(collect.get(true)).isEqualTo(GUEST_RPS);
         assertThat(collect.get(false)).isEqualTo(1);
 
-        assertThat(throttlingService.getRequestToSlaPerToken()).isEmpty();
+        assertThat(throttlingService.getRequestsInFlight()).isZero();
     }
 
     @Test
@@ -206,22 +224,19 @@ public class WindowThrottlingServiceImplTest {
         assertThat(collect.get(true)).isEqualTo(GUEST_RPS);
         assertThat(collect.get(false)).isEqualTo(1);
 
-        assertThat(throttlingService.getRequestToSlaPerToken()).isEmpty();
+        //Sla requests are cleaned up asynchronously
+        CUSTOM_FORK_JOIN_POOL.awaitQuiescence(1, TimeUnit.SECONDS);
+        assertThat(throttlingService.getRequestsInFlight()).isZero();
     }
 
     @Test
     public void shouldThrottleSlaUsers() {
         final List<String> slaTokens1 = Lists.newArrayList(TOKEN_1_1, TOKEN_1_2);
         final List<String> slaTokens2 = Lists.newArrayList(TOKEN_2_1, TOKEN_2_2);
-        final Map<String, Sla> map = new ConcurrentHashMap<>();
-        map.put(TOKEN_1_1, USER_1_SLA);
-        map.put(TOKEN_1_2, USER_1_SLA);
-        map.put(TOKEN_2_1, USER_2_SLA);
-        map.put(TOKEN_2_2, USER_2_SLA);
-
-        Field field = ReflectionUtils.findField(WindowThrottlingServiceImpl.class, "tokenSlaMap");
-        ReflectionUtils.makeAccessible(field);
-        ReflectionUtils.setField(field, throttlingService, map);
+        throttlingService.putSla(TOKEN_1_1, USER_1_SLA);
+        throttlingService.putSla(TOKEN_1_2, USER_1_SLA);
+        throttlingService.putSla(TOKEN_2_1, USER_2_SLA);
+        throttlingService.putSla(TOKEN_2_2, USER_2_SLA);
 
         throttlingService.setSystemClock(fixedClock);
 
@@ -289,6 +304,235 @@ public class WindowThrottlingServiceImplTest {
 
     }
 
+    @Test
+    public void shouldRecordMetrics() {
+        InMemoryThrottlingMetrics metrics = new InMemoryThrottlingMetrics();
+        throttlingService = new WindowThrottlingServiceImpl(GUEST_RPS, new EmptySlaService(), metrics);
+        throttlingService.setSystemClock(fixedClock);
+
+        IntStream.rangeClosed(1, GUEST_RPS + REAL_RPS)
+                .parallel()
+                .forEach(i -> throttlingService.isRequestAllowed(null));
+        IntStream.rangeClosed(1, REAL_RPS)
+                .parallel()
+                .forEach(i -> throttlingService.isRequestAllowed(UUID.randomUUID().toString()));
+
+        assertThat(metrics.getAllowed(KeyClass.UNAUTHORIZED)).isEqualTo(GUEST_RPS);
+        assertThat(metrics.getDenied(KeyClass.UNAUTHORIZED)).isEqualTo(REAL_RPS);
+        assertThat(metrics.getAllowed(KeyClass.AUTHORIZED_WITHOUT_SLA)).isEqualTo(REAL_RPS);
+        assertThat(metrics.getDenied(KeyClass.AUTHORIZED_WITHOUT_SLA)).isZero();
+        assertThat(metrics.getAllowed(KeyClass.SLA_USER)).isZero();
+        assertThat(metrics.getDecisionLatency(KeyClass.UNAUTHORIZED).getCount()).isEqualTo(GUEST_RPS + REAL_RPS);
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertThat(snapshot).containsEntry("throttling.decision.unauthorized.allowed", (long) GUEST_RPS);
+        assertThat(snapshot).containsEntry("throttling.cache.windows", 2L);
+        assertThat(snapshot).containsKeys("throttling.sla.inflight", "throttling.cache.slas", "throttling.sla.fetch.latency.p99");
+        assertThat(metrics.scrape()).contains("throttling.decision.authorized_without_sla.allowed " + REAL_RPS);
+    }
+
+    @Test
+    public void shouldEmitJfrEvents() throws IOException {
+        throttlingService.setSystemClock(fixedClock);
+        Path file = Files.createTempFile("throttling", ".jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable("com.secretcompany.ThrottleDecision").withThreshold(Duration.ZERO);
+            recording.enable("com.secretcompany.SlaFetch").withThreshold(Duration.ZERO);
+            recording.start();
+
+            IntStream.rangeClosed(1, GUEST_RPS + 1).forEach(i -> throttlingService.isRequestAllowed(null));
+            throttlingService.isRequestAllowed(TOKEN_1_1);
+            CUSTOM_FORK_JOIN_POOL.awaitQuiescence(1, TimeUnit.SECONDS);
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+
+        Map<Boolean, Long> unauthorized = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.secretcompany.ThrottleDecision"))
+                .filter(e -> e.getString("keyClass").equals(KeyClass.UNAUTHORIZED.name()))
+                .collect(Collectors.groupingBy(e -> e.getBoolean("allowed"), Collectors.counting()));
+        assertThat(unauthorized.get(true)).isEqualTo(GUEST_RPS);
+        assertThat(unauthorized.get(false)).isEqualTo(1);
+
+        assertThat(events)
+                .filteredOn(e -> e.getEventType().getName().equals("com.secretcompany.SlaFetch"))
+                .hasSize(1)
+                .allMatch(e -> e.getInt("tokenHash") == TOKEN_1_1.hashCode() && !e.getBoolean("slaPresent"));
+    }
+
+    @Test
+    public void shouldTimeOutSlaRequest() throws InterruptedException {
+        try (HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64)) {
+            //SlaService never responds
+            throttlingService = WindowThrottlingServiceImpl.builder(GUEST_RPS)
+                    .slaService(token -> new CompletableFuture<>())
+                    .slaTimeout(timer, Duration.ofMillis(50))
+                    .build();
+
+            assertThat(throttlingService.isRequestAllowed(TOKEN_1_1)).isTrue();
+            assertThat(throttlingService.getRequestsInFlight()).isEqualTo(1);
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (throttlingService.getRequestsInFlight() != 0 && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            //the token is asked again on the next request
+            assertThat(throttlingService.getRequestsInFlight()).isZero();
+            assertThat(throttlingService.isRequestAllowed(TOKEN_1_1)).isTrue();
+            assertThat(throttlingService.getRequestsInFlight()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void shouldCancelSlaTimeoutOnResponse() {
+        List<Timeout> timeouts = new CopyOnWriteArrayList<>();
+        try (HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64) {
+            @Override
+            public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+                Timeout timeout = super.schedule(task, delay, unit);
+                timeouts.add(timeout);
+                return timeout;
+            }
+        }) {
+            throttlingService = WindowThrottlingServiceImpl.builder(GUEST_RPS)
+                    .slaService(token -> CompletableFuture.completedFuture(USER_1_SLA))
+                    .slaTimeout(timer, Duration.ofMinutes(1))
+                    .build();
+            //response of SlaService is handled in the calling thread
+            throttlingService.setSlaExecutor(Runnable::run);
+
+            assertThat(throttlingService.isRequestAllowed(TOKEN_1_1)).isTrue();
+            assertThat(timeouts).hasSize(1);
+            assertThat(timeouts.get(0).isCancelled()).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldForgetSlaOfExpiredToken() throws InterruptedException {
+        try (HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64)) {
+            //SlaService never responds: only the cached Sla is there
+            SlaResolver resolver = new SlaResolver(token -> new CompletableFuture<>(), ThrottlingMetrics.NOOP,
+                    null, Duration.ZERO, timer, Duration.ofMillis(100));
+            VirtualClock clock = new VirtualClock(0);
+            resolver.setSystemClock(clock);
+            resolver.putSla(TOKEN_1_1, USER_1_SLA);
+            ResolvedToken resolved = resolver.resolve(TOKEN_1_1);
+            assertThat(resolved.getSla()).isEqualTo(USER_1_SLA);
+
+            //idle for the whole timeout, whatever the last recorded access is
+            clock.advanceTo(125);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (resolver.size() != 0 && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertThat(resolver.size()).isEqualTo(0);
+            //the token comes back as a new one and is asked again
+            ResolvedToken back = resolver.resolve(TOKEN_1_1);
+            assertThat(back.getSla()).isNull();
+            assertThat(back.getId()).isNotEqualTo(resolved.getId());
+        }
+    }
+
+    @Test
+    public void shouldApplyPushedSlaWithoutPolling() {
+        AtomicInteger calls = new AtomicInteger();
+        throttlingService = new WindowThrottlingServiceImpl(GUEST_RPS, token -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(USER_1_SLA);
+        });
+        throttlingService.setSystemClock(fixedClock);
+        //response of SlaService is handled in the calling thread
+        throttlingService.setSlaExecutor(Runnable::run);
+        SlaUpdateBroadcaster broadcaster = new SlaUpdateBroadcaster();
+        throttlingService.subscribe(broadcaster, true);
+
+        long allowed = IntStream.range(0, 2 * USER_1_MAX_RPS)
+                .filter(i -> throttlingService.isRequestAllowed(TOKEN_1_1))
+                .count();
+        assertThat(allowed).isEqualTo(USER_1_MAX_RPS);
+        //the token is known, changes are pushed
+        assertThat(calls.get()).isEqualTo(1);
+
+        //the same second gets the new RPS
+        broadcaster.publishUserSla(USER_1, new Sla(USER_1, USER_1_MAX_RPS + 5));
+        allowed = IntStream.range(0, 2 * USER_1_MAX_RPS)
+                .filter(i -> throttlingService.isRequestAllowed(TOKEN_1_1))
+                .count();
+        assertThat(allowed).isEqualTo(5);
+
+        //revoked token is asked again
+        broadcaster.publishTokenSla(TOKEN_1_1, null);
+        throttlingService.isRequestAllowed(TOKEN_1_1);
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldShareSlaResolverBetweenServices() {
+        AtomicInteger calls = new AtomicInteger();
+        SlaResolver slaResolver = new SlaResolver(token -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(USER_1_SLA);
+        }, ThrottlingMetrics.NOOP);
+        //response of SlaService is handled in the calling thread
+        slaResolver.setSlaExecutor(Runnable::run);
+        slaResolver.subscribe(new SlaUpdateBroadcaster());
+        WindowThrottlingServiceImpl first = WindowThrottlingServiceImpl.builder(GUEST_RPS)
+                .slaResolver(slaResolver)
+                .build();
+        WindowThrottlingServiceImpl second = WindowThrottlingServiceImpl.builder(2 * GUEST_RPS)
+                .slaResolver(slaResolver)
+                .build();
+        first.setSystemClock(fixedClock);
+        second.setSystemClock(fixedClock);
+
+        assertThat(first.isRequestAllowed(TOKEN_1_1)).isTrue();
+        assertThat(second.isRequestAllowed(TOKEN_1_1)).isTrue();
+        //Sla is requested and cached once for both
+        assertThat(calls.get()).isEqualTo(1);
+
+        //windows are still per service
+        long allowed = IntStream.range(0, 2 * USER_1_MAX_RPS)
+                .filter(i -> second.isRequestAllowed(TOKEN_1_1))
+                .count();
+        assertThat(allowed).isEqualTo(USER_1_MAX_RPS - 1);
+    }
+
+    @Test
+    public void shouldScaleLimitsByDownstreamFeedback() {
+        throttlingService.putSla(TOKEN_1_1, USER_1_SLA);
+        //ticked by the test. Halves a scale per congested tick down to 1/4
+        AimdLimitController adaptiveLimit = new AimdLimitController(null, Duration.ofSeconds(1), Duration.ofMillis(100),
+                0.0, 0.5, 0.25, 0.25);
+        throttlingService.adaptTo(adaptiveLimit);
+
+        //guests give way first
+        adaptiveLimit.onDownstreamResponse(TimeUnit.SECONDS.toNanos(1), false);
+        adaptiveLimit.tick();
+        throttlingService.setSystemClock(fixedClock);
+        assertThat(countAllowed(null, GUEST_RPS)).isEqualTo(GUEST_RPS / 2);
+        assertThat(countAllowed(TOKEN_1_1, USER_1_MAX_RPS)).isEqualTo(USER_1_MAX_RPS);
+
+        adaptiveLimit.onDownstreamResponse(0L, true);
+        adaptiveLimit.tick();
+        adaptiveLimit.onDownstreamResponse(0L, true);
+        adaptiveLimit.tick();
+        //the new scale applies to the next windows
+        throttlingService.setSystemClock(plus1000Clock);
+        assertThat(countAllowed(null, GUEST_RPS)).isEqualTo(GUEST_RPS / 4);
+        assertThat(countAllowed(TOKEN_1_1, USER_1_MAX_RPS)).isEqualTo(Math.max(1, USER_1_MAX_RPS / 2));
+    }
+
+    private long countAllowed(String token, int requests) {
+        return IntStream.range(0, 2 * requests)
+                .filter(i -> throttlingService.isRequestAllowed(token))
+                .count();
+    }
+
     private String getToken(List<String> slaTokens, int index) {
         return slaTokens.get((slaTokens.size() - 1) & index);
     }
@@ -0,0 +1,72 @@
+package com.secretcompany.sketch;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Error bounds of count-min sketch: estimate >= real count and
+ * estimate <= real count + e / width * N with probability 1 - e^-depth.
+ */
+public class CountMinSketchTest {
+
+    private static final int WIDTH = 1024;
+    private static final int DEPTH = 4;
+
+    @Test
+    public void shouldStayWithinErrorBounds() {
+        CountMinSketch sketch = new CountMinSketch(WIDTH, DEPTH);
+        Map<Long, Long> real = new HashMap<>();
+        SplittableRandom random = new SplittableRandom(42);
+
+        //a few heavy keys and a long tail of random ones
+        long total = 0;
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(10) == 0 ? -1 - random.nextInt(10) : random.nextInt(50_000);
+            sketch.add(key, 1);
+            real.merge(key, 1L, Long::sum);
+            total++;
+        }
+
+        double epsilon = Math.E / WIDTH;
+        double delta = Math.exp(-DEPTH);
+        long outOfBounds = 0;
+        for (Map.Entry<Long, Long> entry : real.entrySet()) {
+            long estimate = sketch.estimate(entry.getKey());
+            assertThat(estimate).isGreaterThanOrEqualTo(entry.getValue());
+            if (estimate > entry.getValue() + epsilon * total) {
+                outOfBounds++;
+            }
+        }
+        assertThat((double) outOfBounds / real.size()).isLessThanOrEqualTo(delta);
+    }
+
+    @Test
+    public void shouldRevertAndClear() {
+        CountMinSketch sketch = new CountMinSketch(100, 2);
+        assertThat(sketch.getWidth()).isEqualTo(128);
+
+        assertThat(sketch.add(42L, 3)).isEqualTo(3);
+        assertThat(sketch.add(42L, -1)).isEqualTo(2);
+        assertThat(sketch.estimate(42L)).isEqualTo(2);
+
+        sketch.clear();
+        assertThat(sketch.estimate(42L)).isZero();
+    }
+
+    @Test
+    public void shouldNotShareCountersOfEqualLowBits() {
+        CountMinSketch sketch = new CountMinSketch(1 << 16, DEPTH);
+        //the same counter in each row if the low bits were used as is
+        long key = 7L;
+        long sameLowBits = 7L + (1L << 32);
+
+        sketch.add(key, 100);
+        assertThat(sketch.estimate(key)).isEqualTo(100);
+        assertThat(sketch.estimate(sameLowBits)).isZero();
+    }
+}
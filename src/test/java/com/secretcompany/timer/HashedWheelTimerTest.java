@@ -0,0 +1,67 @@
+package com.secretcompany.timer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HashedWheelTimerTest {
+
+    //small wheel: 80 ms per round
+    private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+
+    @After
+    public void shutdown() {
+        timer.close();
+    }
+
+    @Test
+    public void shouldRunTasksInOrderOfDelayAndNotEarlier() throws InterruptedException {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+        long start = System.nanoTime();
+        List<Long> elapsed = new CopyOnWriteArrayList<>();
+
+        //longer than one round of the wheel
+        timer.schedule(() -> { order.add(3); elapsed.add(System.nanoTime() - start); latch.countDown(); }, 200, TimeUnit.MILLISECONDS);
+        timer.schedule(() -> { order.add(1); latch.countDown(); }, 0, TimeUnit.MILLISECONDS);
+        timer.schedule(() -> { order.add(2); latch.countDown(); }, 50, TimeUnit.MILLISECONDS);
+
+        assertThat(latch.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).containsExactly(1, 2, 3);
+        assertThat(elapsed.get(0)).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void shouldNotRunCancelledTask() throws InterruptedException {
+        List<String> runs = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        Timeout cancelled = timer.schedule(() -> runs.add("cancelled"), 20, TimeUnit.MILLISECONDS);
+        timer.schedule(latch::countDown, 60, TimeUnit.MILLISECONDS);
+
+        assertThat(cancelled.cancel()).isTrue();
+        assertThat(cancelled.isCancelled()).isTrue();
+        assertThat(latch.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(runs).isEmpty();
+    }
+
+    @Test
+    public void shouldSurviveFailedTask() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        Thread.UncaughtExceptionHandler silent = (thread, e) -> { };
+
+        timer.schedule(() -> {
+            Thread.currentThread().setUncaughtExceptionHandler(silent);
+            throw new IllegalStateException("Expected");
+        }, 0, TimeUnit.MILLISECONDS);
+        timer.schedule(latch::countDown, 30, TimeUnit.MILLISECONDS);
+
+        assertThat(latch.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+}